@@ -0,0 +1,49 @@
+package com.distelli.objectStore;
+
+import com.distelli.persistence.PageIterator;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An ObjectStore which can also perform transfers without pinning the
+ * calling thread. Each method is the non-blocking variant of the
+ * ObjectStore method with the same name (without the Async suffix), the
+ * returned future completes exceptionally with the exception the
+ * blocking method would have thrown.
+ *
+ * Implementations either use the non-blocking client of the backend, or
+ * run the blocking method on the ExecutorService bound in the injector.
+ */
+public interface AsyncObjectStore extends ObjectStore {
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, long contentLength, InputStream in);
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, File in);
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, byte[] in);
+    public CompletableFuture<Boolean> putIfMatchAsync(ObjectKey objectKey, String etag, long contentLength, InputStream in);
+
+    // Completes with null if entity does not exist.
+    public CompletableFuture<ObjectMetadata> headAsync(ObjectKey objectKey);
+
+    /**
+     * See get(ObjectKey, ObjectReader, Long, Long). The objectReader may
+     * be called from a thread owned by the implementation, so it should
+     * not block on anything other than reading the input stream.
+     */
+    public <T> CompletableFuture<T> getAsync(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end);
+    public CompletableFuture<Void> getAsync(ObjectKey objectKey, File file);
+    public CompletableFuture<byte[]> getAsync(ObjectKey objectKey);
+    public <T> CompletableFuture<T> getIfNoneMatchAsync(ObjectKey objectKey, String etag, ObjectReader<T> objectReader);
+
+    public CompletableFuture<List<ObjectKey>> listAsync(ObjectKey objectKey, PageIterator iterator);
+    public CompletableFuture<List<ObjectMetadata>> listMetadataAsync(ObjectKey objectKey, PageIterator iterator);
+
+    public CompletableFuture<Void> deleteAsync(ObjectKey objectKey);
+
+    public CompletableFuture<ObjectPartKey> newMultipartPutAsync(ObjectKey objectKey);
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, long contentLength, InputStream in);
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, File in);
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, byte[] in);
+    public CompletableFuture<Void> abortPutAsync(ObjectPartKey partKey);
+    public CompletableFuture<Void> completePutAsync(ObjectPartKey partKey, List<ObjectPartId> partKeys);
+}
@@ -0,0 +1,16 @@
+package com.distelli.objectStore;
+
+import java.nio.ByteBuffer;
+import java.io.IOException;
+
+public interface ObjectBufferReader<T> {
+    /**
+     * @param objectMetadata of the object being read.
+     *
+     * @param buffer contains the requested range of the object between
+     *     its position and limit. The buffer is read-only and may be
+     *     backed by a memory mapped file, so it should not be retained
+     *     after returning.
+     */
+    public T read(ObjectMetadata objectMetadata, ByteBuffer buffer) throws IOException;
+}
@@ -4,11 +4,16 @@ import com.distelli.cred.CredProvider;
 import com.distelli.persistence.PageIterator;
 import java.io.File;
 import java.io.IOException;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.AccessControlException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import javax.persistence.EntityNotFoundException;
 
 public interface ObjectStore {
@@ -18,10 +23,36 @@ public interface ObjectStore {
         public Builder withCredProvider(CredProvider credProvider);
         public Builder withProxy(URI proxy);
         public Builder withObjectStoreType(ObjectStoreType objectStoreType);
+        // Read-through cache of objects in a local directory, disabled if null:
+        public Builder withCacheDirectory(File cacheDirectory);
+        public Builder withCacheMaxSize(Long cacheMaxSize);
+        // Name of the codec which compresses objects ("gzip" or "deflate"), disabled if null:
+        public Builder withCompressionCodec(String compressionCodec);
         // S3 specific parameters:
         public Builder withForceV4Signature(Boolean forceV4);
         public Builder withServerSideEncryption(Boolean serverSideEncryption);
+        // Bytes of an upload stream to buffer in memory for retries before spilling to disk:
+        public Builder withUploadBufferLimit(Integer uploadBufferLimit);
+        // HTTP connection pool, all times are in milliseconds:
+        public Builder withMaxConnections(Integer maxConnections);
+        public Builder withConnectionTimeoutMillis(Integer connectionTimeoutMillis);
+        public Builder withSocketTimeoutMillis(Integer socketTimeoutMillis);
+        public Builder withRequestTimeoutMillis(Integer requestTimeoutMillis);
+        // Retries of transient errors, also used by ARTIFACTORY:
+        public Builder withMaxErrorRetry(Integer maxErrorRetry);
+        public Builder withTcpKeepAlive(Boolean tcpKeepAlive);
+        public Builder withConnectionTTLMillis(Long connectionTTLMillis);
+        public Builder withConnectionMaxIdleMillis(Long connectionMaxIdleMillis);
+        // Disk specific parameters:
+        public Builder withDiskSyncWrites(Boolean diskSyncWrites);
+        public Builder withDiskMappedReads(Boolean diskMappedReads);
+        public Builder withDiskIndex(Boolean diskIndex);
+        public Builder withDiskChecksums(Boolean diskChecksums);
+        // In-memory specific parameters:
+        public Builder withMemoryMaxSize(Long memoryMaxSize);
         public ObjectStore build();
+        // Same as build(), but with the non-blocking methods exposed:
+        public AsyncObjectStore buildAsync();
     }
     public interface Factory {
         public Builder create();
@@ -41,6 +72,34 @@ public interface ObjectStore {
     public void put(ObjectKey objectKey, File in) throws EntityNotFoundException, IOException, AccessControlException;
     public void put(ObjectKey objectKey, byte[] in) throws EntityNotFoundException, AccessControlException;
 
+    /**
+     * Same as put(), but the content was already encoded with the codec
+     * named contentEncoding, which is recorded as the contentEncoding of
+     * the ObjectMetadata of the object. The content is stored and
+     * returned as is, decoding it is up to the reader.
+     *
+     * @param contentEncoding - the codec name, or null if the content is
+     *     not encoded.
+     */
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in)
+        throws EntityNotFoundException, AccessControlException;
+
+    /**
+     * Conditional put, the object is only replaced if its etag (see
+     * ObjectMetadata.etag) is still etag. If etag is null, the object is
+     * only created if it does not exist.
+     *
+     * @return false if the object was not written because the condition
+     *     did not hold.
+     */
+    public boolean putIfMatch(ObjectKey objectKey, String etag, long contentLength, InputStream in)
+        throws EntityNotFoundException, AccessControlException;
+    public boolean putIfMatch(ObjectKey objectKey, String etag, byte[] in)
+        throws EntityNotFoundException, AccessControlException;
+    // Conditional put(objectKey, contentEncoding, contentLength, in):
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in)
+        throws EntityNotFoundException, AccessControlException;
+
     // Returns null if entity does not exist.
     public ObjectMetadata head(ObjectKey objectKey) throws AccessControlException;
 
@@ -51,7 +110,8 @@ public interface ObjectStore {
      * @param objectKey - the key of the object to fetch.
      * @param objectReader - the reader that will handle the results.
      * @param start - the offset start (or null to start at the beginning).
-     * @param end - the offset end (or null to start at the end).
+     * @param end - the offset end (or null to start at the end), see
+     *     isRangeEndInclusive().
      *
      * @throws EntityNotFoundException if the key does not exist.
      * @throws IOException if objectReader throws this.
@@ -70,13 +130,126 @@ public interface ObjectStore {
     {
         return get(objectKey, objectReader, null, null);
     }
+
+    /**
+     * @return true if the end offset of a ranged get() or getBuffer() is
+     *     inclusive (like an HTTP Range), false if it is exclusive.
+     */
+    public default boolean isRangeEndInclusive() {
+        return true;
+    }
+
+    /**
+     * Same as get(), but the object content is passed to the objectReader
+     * as a ByteBuffer. Implementations which can memory map the object
+     * avoid copying the content, otherwise the range is read into a heap
+     * buffer.
+     *
+     * @param <T> - the return type of the object reader.
+     * @param objectKey - the key of the object to fetch.
+     * @param objectReader - the reader that will handle the results.
+     * @param start - the offset start (or null to start at the beginning).
+     * @param end - the offset end (or null to start at the end).
+     *
+     * @return Returns the result of ObjectBufferReader
+     */
+    public default <T> T getBuffer(ObjectKey objectKey, ObjectBufferReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException, AccessControlException, StreamCorruptedException
+    {
+        return get(objectKey, (meta, is) -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int len;
+                while ( (len = is.read(buf)) > 0 ) {
+                    out.write(buf, 0, len);
+                }
+                return objectReader.read(meta, ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer());
+            }, start, end);
+    }
+
+    /**
+     * Conditional get, if the etag of the object is still etag the
+     * content is not transferred and null is returned. Otherwise same as
+     * get(objectKey, objectReader), the ObjectMetadata passed to the
+     * objectReader has the current etag.
+     *
+     * @param etag - as returned by a previous head() or get(), or null to
+     *     always get the object.
+     *
+     * @return null if the object was not modified, otherwise the result
+     *     of the objectReader.
+     */
+    public <T> T getIfNoneMatch(ObjectKey objectKey, String etag, ObjectReader<T> objectReader)
+        throws EntityNotFoundException, IOException, AccessControlException, StreamCorruptedException;
+
     public void get(ObjectKey objectKey, File file)
         throws EntityNotFoundException, IOException, AccessControlException, StreamCorruptedException;
     public byte[] get(ObjectKey objectKey)
         throws EntityNotFoundException, IOException, AccessControlException, StreamCorruptedException;
 
     public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator) throws EntityNotFoundException, AccessControlException;
+
+    /**
+     * Same as list(), but each result also contains the contentLength,
+     * lastModified, checksums and contentEncoding of the object (when
+     * known by the backend) so callers do not need to head() each key.
+     * S3 does not list the contentEncoding, so it is always null there.
+     */
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator)
+        throws EntityNotFoundException, AccessControlException;
+
+    /**
+     * Lazily list every object whose key begins with prefix.key. The next
+     * page is fetched in the background while the current page is
+     * consumed, and at most a few pages are buffered ahead of the
+     * consumer. Exceptions thrown by the underlying listMetadata() are
+     * rethrown when the stream is consumed.
+     *
+     * Close the stream if it is not fully consumed so prefetching stops.
+     */
+    public Stream<ObjectMetadata> stream(ObjectKey prefix);
     public void delete(ObjectKey objectKey) throws AccessControlException;
+
+    /**
+     * Delete many objects, continuing past individual failures. Objects
+     * which do not exist are not failures.
+     *
+     * @param objectKeys are the objects to delete, they may span buckets.
+     *
+     * @return the keys which could not be deleted mapped to the reason,
+     *     empty if every object was deleted.
+     */
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys);
+
+    /**
+     * Delete every object in prefix.bucket whose key begins with prefix.key.
+     *
+     * @return the keys which could not be deleted mapped to the reason,
+     *     empty if every object was deleted.
+     */
+    public Map<ObjectKey, Exception> deletePrefix(ObjectKey prefix)
+        throws EntityNotFoundException, AccessControlException;
+
+    /**
+     * Copy the object at from to to, replacing to if it exists. The keys
+     * may be in different buckets. Where the backend supports it, the
+     * content is copied by the backend rather than transferred through
+     * this JVM. The contentEncoding is copied with the content.
+     *
+     * @throws EntityNotFoundException if from (or the bucket of to)
+     *     does not exist.
+     */
+    public void copy(ObjectKey from, ObjectKey to)
+        throws EntityNotFoundException, AccessControlException;
+
+    /**
+     * @return a URI which can be used to get the object for timeout. The
+     *     S3 and Artifactory URIs can be fetched by any HTTP client. The
+     *     DISK (file://) and IN_MEMORY (mem://) URIs are only meaningful
+     *     on this host or in this JVM respectively. The URI returns the
+     *     stored content, which is still encoded with the contentEncoding
+     *     reported by head().
+     */
     public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit);
 
     /**
@@ -89,6 +262,14 @@ public interface ObjectStore {
     public ObjectPartKey newMultipartPut(ObjectKey objectKey)
         throws EntityNotFoundException, AccessControlException;
 
+    /**
+     * Same as newMultipartPut(objectKey), but the parts are encoded with
+     * the codec named contentEncoding, see put(objectKey,
+     * contentEncoding, contentLength, in).
+     */
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding)
+        throws EntityNotFoundException, AccessControlException;
+
     /**
      * PUT an individual part.
      *
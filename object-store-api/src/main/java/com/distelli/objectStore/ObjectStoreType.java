@@ -4,7 +4,8 @@ public enum ObjectStoreType
 {
     S3,
     DISK,
-    ARTIFACTORY;
+    ARTIFACTORY,
+    IN_MEMORY;
 
     private static final ObjectStoreType[] values = values();
 
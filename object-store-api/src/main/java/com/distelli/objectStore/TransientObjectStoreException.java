@@ -0,0 +1,17 @@
+package com.distelli.objectStore;
+
+/**
+ * Thrown when a request to the backend failed in a way which may succeed
+ * if retried, for example a 5xx response or throttling. The ObjectStore
+ * has already retried the request before throwing this, any other
+ * exception is permanent and should not be retried.
+ */
+public class TransientObjectStoreException extends RuntimeException {
+    public TransientObjectStoreException() {}
+    public TransientObjectStoreException(String message) {
+        super(message);
+    }
+    public TransientObjectStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -8,4 +8,19 @@ public class ObjectMetadata {
     private String bucket;
     private String key;
     private Long contentLength;
+    // Lowercase hex encoded MD5 of the content, null if unknown.
+    private String contentMD5;
+    // Lowercase hex encoded SHA-1 and SHA-256 of the content, null if unknown.
+    private String contentSHA1;
+    private String contentSHA256;
+    // Milliseconds since the epoch, null if unknown.
+    private Long lastModified;
+    // Opaque version of the content which changes whenever the object is
+    // replaced, used by getIfNoneMatch() and putIfMatch(). Null if unknown.
+    private String etag;
+    // Name of the codec the stored content was encoded with (see
+    // ObjectStore.Builder.withCompressionCodec()), null if the content is
+    // stored as is. The contentLength and checksums are of the encoded
+    // content.
+    private String contentEncoding;
 }
@@ -18,6 +18,23 @@ public class ObjectStoreConfig {
     private String keyPrefix;
     private Boolean forceV4Signature;
     private Boolean serverSideEncryption;
+    private Integer uploadBufferLimit;
+    private Integer maxConnections;
+    private Integer connectionTimeoutMillis;
+    private Integer socketTimeoutMillis;
+    private Integer requestTimeoutMillis;
+    private Integer maxErrorRetry;
+    private Boolean tcpKeepAlive;
+    private Long connectionTTLMillis;
+    private Long connectionMaxIdleMillis;
+    private Boolean diskSyncWrites;
+    private Boolean diskMappedReads;
+    private Boolean diskIndex;
+    private Boolean diskChecksums;
+    private Long memoryMaxSize;
+    private File cacheDirectory;
+    private Long cacheMaxSize;
+    private String compressionCodec;
     private URI proxy;
     private String bucket;
 }
@@ -9,14 +9,48 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.security.AccessControlException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Named;
 import javax.persistence.EntityNotFoundException;
 
-public abstract class AbstractObjectStore implements ObjectStore {
+public abstract class AbstractObjectStore implements AsyncObjectStore {
+    private static final int STREAM_PAGE_SIZE = 1000;
+    private static final int STREAM_PREFETCH_PAGES = 2;
+
+    // Null if not constructed via Guice, in which case parallel work
+    // runs on the calling thread:
+    @Inject
+    private ExecutorService _executor;
+
+    // Null if not constructed via Guice, in which case the *Async()
+    // methods run on the calling thread. This is never the same pool as
+    // _executor, since the blocking methods run here may themselves wait
+    // on parallel work submitted to _executor:
+    @Inject @Named(ObjectStoreModule.ASYNC_EXECUTOR)
+    private ExecutorService _asyncExecutor;
+
+    private RetryPolicy _retryPolicy = new RetryPolicy();
+
     @Override
     abstract public void createBucket(String bucketName);
 
@@ -24,7 +58,7 @@ public abstract class AbstractObjectStore implements ObjectStore {
     abstract public void deleteBucket(String bucketName);
 
     @Override
-    abstract public void put(ObjectKey objectKey, long contentLength, InputStream in);
+    abstract public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in);
 
     // Returns null if entity does not exist.
     @Override
@@ -36,6 +70,9 @@ public abstract class AbstractObjectStore implements ObjectStore {
     @Override
     abstract public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator);
 
+    @Override
+    abstract public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator);
+
     @Override
     abstract public void delete(ObjectKey objectKey) throws EntityNotFoundException;
 
@@ -43,8 +80,7 @@ public abstract class AbstractObjectStore implements ObjectStore {
     abstract public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit) throws EntityNotFoundException;
 
     @Override
-    abstract public ObjectPartKey newMultipartPut(ObjectKey objectKey);
-
+    abstract public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding);
 
     @Override
     abstract public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, long contentLength, InputStream in);
@@ -55,6 +91,11 @@ public abstract class AbstractObjectStore implements ObjectStore {
     @Override
     abstract public void completePut(ObjectPartKey partKey, List<ObjectPartId> partKeys);
 
+    @Override
+    public void put(ObjectKey objectKey, long contentLength, InputStream in) {
+        put(objectKey, null, contentLength, in);
+    }
+
     @Override
     public void put(ObjectKey objectKey, File in) throws IOException {
         put(objectKey, in.length(), new FileInputStream(in));
@@ -65,6 +106,46 @@ public abstract class AbstractObjectStore implements ObjectStore {
         put(objectKey, in.length, new ByteArrayInputStream(in));
     }
 
+    /**
+     * Checks the etag with head() before the put, so the condition is not
+     * atomic with the write. Stores which can make the write conditional
+     * override this.
+     */
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in) {
+        if ( ! matches(head(objectKey), etag) ) return false;
+        put(objectKey, contentEncoding, contentLength, in);
+        return true;
+    }
+
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, long contentLength, InputStream in) {
+        return putIfMatch(objectKey, etag, null, contentLength, in);
+    }
+
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, byte[] in) {
+        return putIfMatch(objectKey, etag, in.length, new ByteArrayInputStream(in));
+    }
+
+    // Checks the etag with head() before the get, stores which can make the get conditional override this:
+    @Override
+    public <T> T getIfNoneMatch(ObjectKey objectKey, String etag, ObjectReader<T> objectReader)
+        throws EntityNotFoundException, IOException
+    {
+        if ( null != etag && matches(head(objectKey), etag) ) return null;
+        return get(objectKey, objectReader);
+    }
+
+    /**
+     * @return true if meta (which is null for a missing object) has the
+     *     etag, where a null etag matches a missing object.
+     */
+    protected static boolean matches(ObjectMetadata meta, String etag) {
+        if ( null == meta ) return null == etag;
+        return null != etag && etag.equals(meta.getEtag());
+    }
+
     @Override
     public byte[] get(ObjectKey objectKey) throws IOException, EntityNotFoundException {
         return get(objectKey, (meta, is) -> {
@@ -79,6 +160,103 @@ public abstract class AbstractObjectStore implements ObjectStore {
         get(objectKey, (meta, is) -> Files.copy(is, file.toPath()));
     }
 
+    // Pages are fetched by the consumer, see stream(ObjectKey, ExecutorService):
+    @Override
+    public Stream<ObjectMetadata> stream(ObjectKey prefix) {
+        return stream(prefix, null);
+    }
+
+    /**
+     * Implementation of stream() which prefetches pages using the
+     * executor, or fetches pages on demand if executor is null.
+     */
+    protected Stream<ObjectMetadata> stream(ObjectKey prefix, ExecutorService executor) {
+        return new PrefetchingListIterator(this, prefix, executor, STREAM_PAGE_SIZE, STREAM_PREFETCH_PAGES)
+            .stream();
+    }
+
+    @Override
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys) {
+        return deleteAllSerial(objectKeys);
+    }
+
+    private Map<ObjectKey, Exception> deleteAllSerial(Collection<ObjectKey> objectKeys) {
+        Map<ObjectKey, Exception> failures = new LinkedHashMap<>();
+        deleteEach(objectKeys, failures);
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Lists the prefix a page at a time and deletes each page with
+     * deleteAll(). This relies on the list marker remaining valid after
+     * the keys before it are deleted.
+     */
+    @Override
+    public Map<ObjectKey, Exception> deletePrefix(ObjectKey prefix) {
+        Map<ObjectKey, Exception> failures = new LinkedHashMap<>();
+        for ( PageIterator it : new PageIterator().pageSize(1000) ) {
+            failures.putAll(deleteAll(list(prefix, it)));
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+
+    // Streams the content through this JVM, stores which can copy on their own override this:
+    @Override
+    public void copy(ObjectKey from, ObjectKey to) {
+        try {
+            get(from, (meta, in) -> {
+                    put(to, meta.getContentEncoding(), meta.getContentLength(), in);
+                    return null;
+                });
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Implementation of deleteAll() for stores without a batch delete:
+     * splits the keys across up to concurrency tasks on the executor.
+     */
+    protected Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys, ExecutorService executor, int concurrency) {
+        if ( null == executor || objectKeys.size() < 2 ) return deleteAllSerial(objectKeys);
+        List<ObjectKey> keys = new ArrayList<>(objectKeys);
+        int tasks = Math.min(concurrency, keys.size());
+        Map<ObjectKey, Exception> failures = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>(tasks);
+        for ( int i=0; i < tasks; i++ ) {
+            List<ObjectKey> slice = keys.subList(i*keys.size()/tasks, (i+1)*keys.size()/tasks);
+            futures.add(executor.submit(() -> deleteEach(slice, failures)));
+        }
+        for ( Future<?> future : futures ) {
+            try {
+                future.get();
+            } catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch ( ExecutionException ex ) {
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+
+    private void deleteEach(Collection<ObjectKey> objectKeys, Map<ObjectKey, Exception> failures) {
+        for ( ObjectKey objectKey : objectKeys ) {
+            try {
+                delete(objectKey);
+            } catch ( EntityNotFoundException ex ) {
+                // Already deleted.
+            } catch ( RuntimeException ex ) {
+                failures.put(objectKey, ex);
+            }
+        }
+    }
+
+    @Override
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey) {
+        return newMultipartPut(objectKey, null);
+    }
+
     @Override
     public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, File in) throws IOException {
         return multipartPut(partKey, partNum, in.length(), new FileInputStream(in));
@@ -89,4 +267,182 @@ public abstract class AbstractObjectStore implements ObjectStore {
         return multipartPut(partKey, partNum, in.length, new ByteArrayInputStream(in));
     }
 
+    // The retry budget is shared by every request of this store:
+    protected void setRetryPolicy(RetryPolicy retryPolicy) {
+        _retryPolicy = retryPolicy;
+    }
+
+    protected RetryPolicy getRetryPolicy() {
+        return _retryPolicy;
+    }
+
+    /**
+     * Call a request to the backend, retrying it while it fails with a
+     * transient error. The request must be idempotent.
+     */
+    protected <T> T withRetries(Supplier<T> request) {
+        return _retryPolicy.call(request);
+    }
+
+    /**
+     * Wrap the content of a get() so transient read failures re-open
+     * the remaining content with opener and continue where they left
+     * off, see ResumingInputStream.
+     */
+    protected InputStream resumable(InputStream in, Long length, ResumingInputStream.Opener opener) {
+        return new ResumingInputStream(in, length, opener, _retryPolicy);
+    }
+
+    /**
+     * The executor used for parallel work within a single call (part
+     * uploads, page prefetching, bulk deletes), the injected
+     * ExecutorService. May be null.
+     */
+    protected ExecutorService getExecutor() {
+        return _executor;
+    }
+
+    /**
+     * The executor used to run the blocking methods for the default
+     * implementations of the *Async() methods, the ExecutorService
+     * bound to ObjectStoreModule.ASYNC_EXECUTOR. May be null.
+     */
+    protected Executor getAsyncExecutor() {
+        return _asyncExecutor;
+    }
+
+    /**
+     * Run a blocking call on the async executor. Unlike
+     * CompletableFuture.supplyAsync(), checked exceptions are passed
+     * through to the returned future.
+     */
+    protected <T> CompletableFuture<T> async(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            if ( future.isDone() ) return;
+            try {
+                future.complete(call.call());
+            } catch ( Throwable ex ) {
+                future.completeExceptionally(ex);
+            }
+        };
+        Executor executor = getAsyncExecutor();
+        if ( null == executor ) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, long contentLength, InputStream in) {
+        return async(() -> {
+                put(objectKey, contentLength, in);
+                return null;
+            });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, File in) {
+        return async(() -> {
+                put(objectKey, in);
+                return null;
+            });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, byte[] in) {
+        return async(() -> {
+                put(objectKey, in);
+                return null;
+            });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfMatchAsync(ObjectKey objectKey, String etag, long contentLength, InputStream in) {
+        return async(() -> putIfMatch(objectKey, etag, contentLength, in));
+    }
+
+    @Override
+    public CompletableFuture<ObjectMetadata> headAsync(ObjectKey objectKey) {
+        return async(() -> head(objectKey));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> getAsync(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end) {
+        return async(() -> get(objectKey, objectReader, start, end));
+    }
+
+    @Override
+    public CompletableFuture<Void> getAsync(ObjectKey objectKey, File file) {
+        return async(() -> {
+                get(objectKey, file);
+                return null;
+            });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(ObjectKey objectKey) {
+        return async(() -> get(objectKey));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> getIfNoneMatchAsync(ObjectKey objectKey, String etag, ObjectReader<T> objectReader) {
+        return async(() -> getIfNoneMatch(objectKey, etag, objectReader));
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectKey>> listAsync(ObjectKey objectKey, PageIterator iterator) {
+        return async(() -> list(objectKey, iterator));
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectMetadata>> listMetadataAsync(ObjectKey objectKey, PageIterator iterator) {
+        return async(() -> listMetadata(objectKey, iterator));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(ObjectKey objectKey) {
+        return async(() -> {
+                delete(objectKey);
+                return null;
+            });
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartKey> newMultipartPutAsync(ObjectKey objectKey) {
+        return async(() -> newMultipartPut(objectKey));
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
+        return async(() -> multipartPut(partKey, partNum, contentLength, in));
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, File in) {
+        return async(() -> multipartPut(partKey, partNum, in));
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, byte[] in) {
+        return async(() -> multipartPut(partKey, partNum, in));
+    }
+
+    @Override
+    public CompletableFuture<Void> abortPutAsync(ObjectPartKey partKey) {
+        return async(() -> {
+                abortPut(partKey);
+                return null;
+            });
+    }
+
+    @Override
+    public CompletableFuture<Void> completePutAsync(ObjectPartKey partKey, List<ObjectPartId> partKeys) {
+        return async(() -> {
+                completePut(partKey, partKeys);
+                return null;
+            });
+    }
 }
@@ -0,0 +1,301 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.AccessControlException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Inject;
+import javax.persistence.EntityNotFoundException;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Uploads an object as concurrent multipart parts using the injected
+ * ExecutorService, works with any ObjectStore.
+ *
+ * At most concurrency parts are buffered in memory at a time, so the
+ * memory used is bounded by partSize * concurrency. Each part is retried
+ * up to maxAttempts times. If the upload fails, the multipart put is
+ * aborted.
+ *
+ * Content which fits in a single part is uploaded with a plain put().
+ * Note that S3 rejects parts smaller than 5MB (except the last part).
+ */
+public class MultipartUploader {
+    private static final int MAX_PARTS = 10000;
+    // The first part is read into a buffer of this size which grows as needed:
+    private static final int INITIAL_BUFFER_SIZE = 64*1024;
+
+    private ExecutorService _executor;
+    private long _partSize = 8*1024*1024;
+    private int _concurrency = 4;
+    private int _maxAttempts = 3;
+
+    @Inject
+    public MultipartUploader(ExecutorService executor) {
+        _executor = executor;
+    }
+
+    public MultipartUploader withPartSize(long partSize) {
+        if ( partSize < 1 || partSize > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException("partSize must be between 1-"+Integer.MAX_VALUE+" got="+partSize);
+        }
+        _partSize = partSize;
+        return this;
+    }
+
+    public MultipartUploader withConcurrency(int concurrency) {
+        if ( concurrency < 1 ) {
+            throw new IllegalArgumentException("concurrency must be >= 1 got="+concurrency);
+        }
+        _concurrency = concurrency;
+        return this;
+    }
+
+    public MultipartUploader withMaxAttempts(int maxAttempts) {
+        if ( maxAttempts < 1 ) {
+            throw new IllegalArgumentException("maxAttempts must be >= 1 got="+maxAttempts);
+        }
+        _maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Upload the remaining content of in. The caller is responsible for
+     * closing in.
+     */
+    public void put(ObjectStore objectStore, ObjectKey objectKey, InputStream in) throws IOException {
+        put(objectStore, objectKey, null, in);
+    }
+
+    /**
+     * Same as put(objectStore, objectKey, in), but the content is encoded
+     * with contentEncoding, see ObjectStore.put(objectKey,
+     * contentEncoding, contentLength, in).
+     */
+    public void put(ObjectStore objectStore, ObjectKey objectKey, String contentEncoding, InputStream in)
+        throws IOException
+    {
+        int partSize = Math.toIntExact(_partSize);
+        ByteBuffer first = readFirstPart(in, partSize);
+        int len = first.remaining();
+        if ( len < partSize ) {
+            objectStore.put(objectKey, contentEncoding, len, new ByteArrayInputStream(first.array(), 0, len));
+            return;
+        }
+        try ( Upload upload = new Upload(objectStore, objectKey, contentEncoding) ) {
+            byte[] buf = first.array();
+            for ( int partNum=1;; partNum++ ) {
+                if ( partNum > MAX_PARTS ) {
+                    throw new IllegalArgumentException(
+                        "Content of "+objectKey+" exceeds "+MAX_PARTS+" parts of "+partSize+" bytes, increase the partSize");
+                }
+                ByteBuffer part = ByteBuffer.wrap(buf, 0, len);
+                upload.submit(partNum, () -> part);
+                if ( len < partSize ) break;
+                upload.acquire();
+                buf = new byte[partSize];
+                len = readFully(in, buf);
+                // A zero byte final part is only needed if there are no other parts:
+                if ( 0 == len ) break;
+            }
+            upload.complete();
+        }
+    }
+
+    /**
+     * Upload a file, each part is read by the thread which uploads it. If
+     * the file would need more than 10000 parts the part size is increased.
+     */
+    public void put(ObjectStore objectStore, ObjectKey objectKey, File in) throws IOException {
+        long size = in.length();
+        long partSize = Math.max(_partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        if ( size <= partSize ) {
+            objectStore.put(objectKey, in);
+            return;
+        }
+        try ( FileChannel channel = FileChannel.open(in.toPath(), READ);
+              Upload upload = new Upload(objectStore, objectKey, null) )
+        {
+            int partNum = 1;
+            for ( long offset=0; offset < size; offset += partSize, partNum++ ) {
+                if ( partNum > 1 ) upload.acquire();
+                long partOffset = offset;
+                int partLen = Math.toIntExact(Math.min(partSize, size - offset));
+                upload.submit(partNum, () -> {
+                        ByteBuffer buf = ByteBuffer.allocate(partLen);
+                        while ( buf.hasRemaining() ) {
+                            if ( channel.read(buf, partOffset + buf.position()) < 0 ) {
+                                throw new EOFException("File "+in+" was truncated during upload");
+                            }
+                        }
+                        buf.flip();
+                        return buf;
+                    });
+            }
+            upload.complete();
+        }
+    }
+
+    private interface PartReader {
+        public ByteBuffer read() throws IOException;
+    }
+
+    /**
+     * State of a single multipart put. Each submitted part holds one permit
+     * of the semaphore until it is uploaded, which is what bounds the
+     * number of buffered parts.
+     */
+    private class Upload implements AutoCloseable {
+        private final ObjectStore _objectStore;
+        private final ObjectPartKey _partKey;
+        private final Semaphore _permits = new Semaphore(_concurrency - 1);
+        private final List<Future<ObjectPartId>> _parts = new ArrayList<>();
+        private final AtomicReference<Throwable> _failure = new AtomicReference<>();
+        private boolean _completed = false;
+
+        private Upload(ObjectStore objectStore, ObjectKey objectKey, String contentEncoding) {
+            _objectStore = objectStore;
+            _partKey = objectStore.newMultipartPut(objectKey, contentEncoding);
+        }
+
+        // Wait for a buffer to become available:
+        private void acquire() throws IOException {
+            try {
+                _permits.acquire();
+            } catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during upload of "+_partKey);
+            }
+            throwIfFailed();
+        }
+
+        private void submit(int partNum, PartReader reader) {
+            _parts.add(_executor.submit(() -> {
+                        try {
+                            // Skip parts which have not started once the upload failed:
+                            throwIfFailed();
+                            return putPart(partNum, reader.read());
+                        } catch ( Throwable ex ) {
+                            _failure.compareAndSet(null, ex);
+                            throw ex;
+                        } finally {
+                            _permits.release();
+                        }
+                    }));
+        }
+
+        private ObjectPartId putPart(int partNum, ByteBuffer content) throws InterruptedException {
+            for ( int attempt=1;; attempt++ ) {
+                try {
+                    return _objectStore.multipartPut(
+                        _partKey, partNum, content.remaining(),
+                        new ByteArrayInputStream(content.array(), content.position(), content.remaining()));
+                } catch ( EntityNotFoundException|AccessControlException|ChunkToSmallException|IllegalArgumentException ex ) {
+                    throw ex;
+                } catch ( RuntimeException ex ) {
+                    if ( attempt >= _maxAttempts || null != _failure.get() ) throw ex;
+                }
+                Thread.sleep(100L << Math.min(attempt - 1, 6));
+            }
+        }
+
+        private void complete() throws IOException {
+            List<ObjectPartId> partIds = new ArrayList<>(_parts.size());
+            for ( Future<ObjectPartId> part : _parts ) {
+                try {
+                    partIds.add(part.get());
+                } catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted during upload of "+_partKey);
+                } catch ( ExecutionException ex ) {
+                    throw unwrap(ex.getCause());
+                }
+            }
+            _objectStore.completePut(_partKey, partIds);
+            _completed = true;
+        }
+
+        private void throwIfFailed() throws IOException {
+            Throwable failure = _failure.get();
+            if ( null != failure ) throw unwrap(failure);
+        }
+
+        private IOException unwrap(Throwable ex) {
+            if ( ex instanceof IOException ) return (IOException)ex;
+            if ( ex instanceof RuntimeException ) throw (RuntimeException)ex;
+            if ( ex instanceof Error ) throw (Error)ex;
+            throw new RuntimeException(ex);
+        }
+
+        @Override
+        public void close() {
+            if ( _completed ) return;
+            _failure.compareAndSet(null, new IllegalStateException("Upload of "+_partKey+" was aborted"));
+            // Wait for in-flight parts so they do not race with abortPut():
+            boolean interrupted = false;
+            for ( Future<ObjectPartId> part : _parts ) {
+                while ( true ) {
+                    try {
+                        part.get();
+                    } catch ( InterruptedException ex ) {
+                        interrupted = true;
+                        continue;
+                    } catch ( ExecutionException ex ) {}
+                    break;
+                }
+            }
+            if ( interrupted ) Thread.currentThread().interrupt();
+            try {
+                _objectStore.abortPut(_partKey);
+            } catch ( RuntimeException ex ) {
+                // Preserve the original failure.
+            }
+        }
+    }
+
+    /**
+     * Read up to partSize bytes into a buffer which grows with the content,
+     * so content much smaller than a part does not allocate a whole part.
+     *
+     * @return the content read, shorter than partSize if in ended first.
+     */
+    private static ByteBuffer readFirstPart(InputStream in, int partSize) throws IOException {
+        byte[] buf = new byte[Math.min(partSize, INITIAL_BUFFER_SIZE)];
+        int len = 0;
+        while ( true ) {
+            len += readFully(in, buf, len);
+            if ( len < buf.length || buf.length == partSize ) break;
+            buf = Arrays.copyOf(buf, (int)Math.min(partSize, 2L*buf.length));
+        }
+        return ByteBuffer.wrap(buf, 0, len);
+    }
+
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        return readFully(in, buf, 0);
+    }
+
+    // Returns the number of bytes read into buf after off:
+    private static int readFully(InputStream in, byte[] buf, int off) throws IOException {
+        int start = off;
+        while ( off < buf.length ) {
+            int len = in.read(buf, off, buf.length - off);
+            if ( len < 0 ) break;
+            off += len;
+        }
+        return off - start;
+    }
+}
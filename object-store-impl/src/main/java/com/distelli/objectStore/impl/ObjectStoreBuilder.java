@@ -9,6 +9,9 @@ import com.distelli.objectStore.*;
 import com.distelli.objectStore.impl.s3.S3ObjectStore;
 import com.distelli.objectStore.impl.artifactory.ArtifactoryObjectStore;
 import com.distelli.objectStore.impl.disk.DiskObjectStore;
+import com.distelli.objectStore.impl.cache.CachingObjectStore;
+import com.distelli.objectStore.impl.compress.CompressingObjectStore;
+import com.distelli.objectStore.impl.memory.InMemoryObjectStore;
 
 public class ObjectStoreBuilder implements ObjectStore.Builder {
     private URI endpoint;
@@ -17,7 +20,24 @@ public class ObjectStoreBuilder implements ObjectStore.Builder {
     private ObjectStoreType objectStoreProvider = ObjectStoreType.S3;
     private Boolean serverSideEncryption;
     private Boolean forceV4Signature;
+    private Integer uploadBufferLimit;
+    private Integer maxConnections;
+    private Integer connectionTimeoutMillis;
+    private Integer socketTimeoutMillis;
+    private Integer requestTimeoutMillis;
+    private Integer maxErrorRetry;
+    private Boolean tcpKeepAlive;
+    private Long connectionTTLMillis;
+    private Long connectionMaxIdleMillis;
     private File diskStorageRoot;
+    private Boolean diskSyncWrites;
+    private Boolean diskMappedReads;
+    private Boolean diskIndex;
+    private Boolean diskChecksums;
+    private Long memoryMaxSize;
+    private File cacheDirectory;
+    private Long cacheMaxSize;
+    private String compressionCodec;
 
     public interface Factory {
         public ObjectStoreBuilder create();
@@ -29,6 +49,12 @@ public class ObjectStoreBuilder implements ObjectStore.Builder {
     private DiskObjectStore.Factory _diskFactory;
     @Inject
     private ArtifactoryObjectStore.Factory _artifactoryFactory;
+    @Inject
+    private InMemoryObjectStore.Factory _inMemoryFactory;
+    @Inject
+    private CachingObjectStore.Factory _cachingFactory;
+    @Inject
+    private CompressingObjectStore.Factory _compressingFactory;
 
     @Override
     public ObjectStore.Builder withEndpoint(URI endpoint) {
@@ -54,6 +80,24 @@ public class ObjectStoreBuilder implements ObjectStore.Builder {
         return this;
     }
 
+    @Override
+    public ObjectStore.Builder withCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withCacheMaxSize(Long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+        return this;
+    }
+
     @Override
     public ObjectStore.Builder withForceV4Signature(Boolean forceV4Signature) {
         this.forceV4Signature = forceV4Signature;
@@ -66,24 +110,129 @@ public class ObjectStoreBuilder implements ObjectStore.Builder {
         return this;
     }
 
+    @Override
+    public ObjectStore.Builder withUploadBufferLimit(Integer uploadBufferLimit) {
+        this.uploadBufferLimit = uploadBufferLimit;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withConnectionTimeoutMillis(Integer connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withSocketTimeoutMillis(Integer socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withRequestTimeoutMillis(Integer requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withMaxErrorRetry(Integer maxErrorRetry) {
+        this.maxErrorRetry = maxErrorRetry;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withTcpKeepAlive(Boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withConnectionTTLMillis(Long connectionTTLMillis) {
+        this.connectionTTLMillis = connectionTTLMillis;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withConnectionMaxIdleMillis(Long connectionMaxIdleMillis) {
+        this.connectionMaxIdleMillis = connectionMaxIdleMillis;
+        return this;
+    }
+
     @Override
     public ObjectStore.Builder withDiskStorageRoot(File diskStorageRoot) {
         this.diskStorageRoot = diskStorageRoot;
         return this;
     }
 
+    @Override
+    public ObjectStore.Builder withDiskSyncWrites(Boolean diskSyncWrites) {
+        this.diskSyncWrites = diskSyncWrites;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withDiskMappedReads(Boolean diskMappedReads) {
+        this.diskMappedReads = diskMappedReads;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withDiskIndex(Boolean diskIndex) {
+        this.diskIndex = diskIndex;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withDiskChecksums(Boolean diskChecksums) {
+        this.diskChecksums = diskChecksums;
+        return this;
+    }
+
+    @Override
+    public ObjectStore.Builder withMemoryMaxSize(Long memoryMaxSize) {
+        this.memoryMaxSize = memoryMaxSize;
+        return this;
+    }
+
     @Override
     public ObjectStore build() {
+        ObjectStore objectStore;
         switch ( objectStoreProvider ) {
         case S3:
-            return _s3Factory.create(this);
+            objectStore = _s3Factory.create(this);
+            break;
         case DISK:
-            return _diskFactory.create(this);
+            objectStore = _diskFactory.create(this);
+            break;
         case ARTIFACTORY:
-            return _artifactoryFactory.create(this);
+            objectStore = _artifactoryFactory.create(this);
+            break;
+        case IN_MEMORY:
+            objectStore = _inMemoryFactory.create(this);
+            break;
         default:
             throw(new RuntimeException("Unsupported ObjectStore Provider: "+objectStoreProvider));
         }
+        if ( null != cacheDirectory ) {
+            objectStore = _cachingFactory.create(objectStore, this);
+        }
+        // The cache holds the compressed content:
+        if ( null != compressionCodec ) {
+            objectStore = _compressingFactory.create(objectStore, this);
+        }
+        return objectStore;
+    }
+
+    // Every ObjectStore implementation extends AbstractObjectStore:
+    @Override
+    public AsyncObjectStore buildAsync() {
+        return (AsyncObjectStore)build();
     }
 
     public ObjectStoreType getObjectStoreProvider() {
@@ -110,7 +259,75 @@ public class ObjectStoreBuilder implements ObjectStore.Builder {
         return serverSideEncryption;
     }
 
+    public Integer getUploadBufferLimit() {
+        return uploadBufferLimit;
+    }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public Integer getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public Integer getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public Integer getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public Integer getMaxErrorRetry() {
+        return maxErrorRetry;
+    }
+
+    public Boolean getTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public Long getConnectionTTLMillis() {
+        return connectionTTLMillis;
+    }
+
+    public Long getConnectionMaxIdleMillis() {
+        return connectionMaxIdleMillis;
+    }
+
     public Boolean getForceV4Signature() {
         return forceV4Signature;
     }
+
+    public Boolean getDiskSyncWrites() {
+        return diskSyncWrites;
+    }
+
+    public Boolean getDiskMappedReads() {
+        return diskMappedReads;
+    }
+
+    public Boolean getDiskIndex() {
+        return diskIndex;
+    }
+
+    public Boolean getDiskChecksums() {
+        return diskChecksums;
+    }
+
+    public Long getMemoryMaxSize() {
+        return memoryMaxSize;
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public Long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
 }
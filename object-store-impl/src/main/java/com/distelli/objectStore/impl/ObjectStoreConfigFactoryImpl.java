@@ -37,6 +37,23 @@ public class ObjectStoreConfigFactoryImpl implements ObjectStoreConfig.Factory {
             .keyPrefix(getString(obj, "keyPrefix"))
             .forceV4Signature(getBoolean(obj, "forceV4Signature"))
             .serverSideEncryption(getBoolean(obj, "serverSideEncryption"))
+            .uploadBufferLimit(getInteger(obj, "uploadBufferLimit"))
+            .maxConnections(getInteger(obj, "maxConnections"))
+            .connectionTimeoutMillis(getInteger(obj, "connectionTimeoutMillis"))
+            .socketTimeoutMillis(getInteger(obj, "socketTimeoutMillis"))
+            .requestTimeoutMillis(getInteger(obj, "requestTimeoutMillis"))
+            .maxErrorRetry(getInteger(obj, "maxErrorRetry"))
+            .tcpKeepAlive(getBoolean(obj, "tcpKeepAlive"))
+            .connectionTTLMillis(getLong(obj, "connectionTTLMillis"))
+            .connectionMaxIdleMillis(getLong(obj, "connectionMaxIdleMillis"))
+            .diskSyncWrites(getBoolean(obj, "diskSyncWrites"))
+            .diskMappedReads(getBoolean(obj, "diskMappedReads"))
+            .diskIndex(getBoolean(obj, "diskIndex"))
+            .diskChecksums(getBoolean(obj, "diskChecksums"))
+            .memoryMaxSize(getLong(obj, "memoryMaxSize"))
+            .cacheDirectory(toFile(getString(obj, "cacheDirectory")))
+            .cacheMaxSize(getLong(obj, "cacheMaxSize"))
+            .compressionCodec(getString(obj, "compressionCodec"))
             .proxy(toURI(getString(obj, "proxy")))
             .bucket(getString(obj, "bucket"))
             .build();
@@ -67,6 +84,40 @@ public class ObjectStoreConfigFactoryImpl implements ObjectStoreConfig.Factory {
         }
     }
 
+    private static Integer getInteger(JsonObject obj, String field) {
+        if ( null == obj || ! obj.containsKey(field) ) return null;
+        try {
+            return obj.getJsonNumber(field).intValueExact();
+        } catch ( ClassCastException ex ) {
+            String str = getString(obj, field);
+            if ( null == str ) return null;
+            try {
+                return Integer.parseInt(str);
+            } catch ( NumberFormatException numEx ) {
+                return null;
+            }
+        } catch ( ArithmeticException ex ) {
+            return null;
+        }
+    }
+
+    private static Long getLong(JsonObject obj, String field) {
+        if ( null == obj || ! obj.containsKey(field) ) return null;
+        try {
+            return obj.getJsonNumber(field).longValueExact();
+        } catch ( ClassCastException ex ) {
+            String str = getString(obj, field);
+            if ( null == str ) return null;
+            try {
+                return Long.parseLong(str);
+            } catch ( NumberFormatException numEx ) {
+                return null;
+            }
+        } catch ( ArithmeticException ex ) {
+            return null;
+        }
+    }
+
     private static ObjectStoreType toObjectStoreType(String type) {
         if ( null == type ) return null;
         try {
@@ -90,6 +141,7 @@ public class ObjectStoreConfigFactoryImpl implements ObjectStoreConfig.Factory {
         switch ( type ) {
         case S3:           return getS3CredProvider(obj, file);
         case DISK:         return null;
+        case IN_MEMORY:    return null;
         case ARTIFACTORY:  return getArtifactoryCredProvider(obj, file);
         default:
             throw new UnsupportedOperationException(
@@ -27,7 +27,24 @@ public class ObjectStoreFactoryImpl implements ObjectStore.Factory {
             .withProxy(config.getProxy())
             .withObjectStoreType(config.getType())
             .withForceV4Signature(config.getForceV4Signature())
-            .withServerSideEncryption(config.getServerSideEncryption());
+            .withServerSideEncryption(config.getServerSideEncryption())
+            .withUploadBufferLimit(config.getUploadBufferLimit())
+            .withMaxConnections(config.getMaxConnections())
+            .withConnectionTimeoutMillis(config.getConnectionTimeoutMillis())
+            .withSocketTimeoutMillis(config.getSocketTimeoutMillis())
+            .withRequestTimeoutMillis(config.getRequestTimeoutMillis())
+            .withMaxErrorRetry(config.getMaxErrorRetry())
+            .withTcpKeepAlive(config.getTcpKeepAlive())
+            .withConnectionTTLMillis(config.getConnectionTTLMillis())
+            .withConnectionMaxIdleMillis(config.getConnectionMaxIdleMillis())
+            .withDiskSyncWrites(config.getDiskSyncWrites())
+            .withDiskMappedReads(config.getDiskMappedReads())
+            .withDiskIndex(config.getDiskIndex())
+            .withDiskChecksums(config.getDiskChecksums())
+            .withMemoryMaxSize(config.getMemoryMaxSize())
+            .withCacheDirectory(config.getCacheDirectory())
+            .withCacheMaxSize(config.getCacheMaxSize())
+            .withCompressionCodec(config.getCompressionCodec());
     }
 
     @Override
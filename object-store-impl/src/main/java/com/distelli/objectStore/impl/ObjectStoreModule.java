@@ -6,14 +6,43 @@ import com.distelli.objectStore.*;
 import com.distelli.objectStore.impl.s3.S3ObjectStore;
 import com.distelli.objectStore.impl.disk.DiskObjectStore;
 import com.distelli.objectStore.impl.artifactory.ArtifactoryObjectStore;
+import com.distelli.objectStore.impl.cache.CachingObjectStore;
+import com.distelli.objectStore.impl.compress.CompressingObjectStore;
+import com.distelli.objectStore.impl.compress.CompressionCodec;
+import com.distelli.objectStore.impl.compress.DeflateCodec;
+import com.distelli.objectStore.impl.compress.GzipCodec;
+import com.distelli.objectStore.impl.memory.InMemoryObjectStore;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
 import com.google.inject.Key;
+import com.google.inject.multibindings.MapBinder;
+import com.google.inject.multibindings.OptionalBinder;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.File;
 import javax.inject.Provider;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 public class ObjectStoreModule extends AbstractModule {
+    /**
+     * Name of the ExecutorService binding used to run the *Async()
+     * methods. It must not be the same pool as the unnamed
+     * ExecutorService binding, since the async methods block on parallel
+     * work submitted to that pool and could otherwise starve it. Defaults
+     * to a pool of ASYNC_THREADS daemon threads, override with:
+     *
+     * <pre>
+     * OptionalBinder.newOptionalBinder(binder(), Key.get(ExecutorService.class, Names.named(ASYNC_EXECUTOR)))
+     *     .setBinding().toInstance(...);
+     * </pre>
+     */
+    public static final String ASYNC_EXECUTOR = "ObjectStoreAsync";
+    public static final int ASYNC_THREADS = 32;
+
     private Provider<ObjectStoreConfig> _configProvider;
 
     public ObjectStoreModule() {}
@@ -69,7 +98,40 @@ public class ObjectStoreModule extends AbstractModule {
         install(new FactoryModuleBuilder()
                 .implement(ObjectStore.class, ArtifactoryObjectStore.class)
                 .build(ArtifactoryObjectStore.Factory.class));
+        install(new FactoryModuleBuilder()
+                .implement(ObjectStore.class, InMemoryObjectStore.class)
+                .build(InMemoryObjectStore.Factory.class));
+        install(new FactoryModuleBuilder()
+                .implement(ObjectStore.class, CachingObjectStore.class)
+                .build(CachingObjectStore.Factory.class));
+        install(new FactoryModuleBuilder()
+                .implement(ObjectStore.class, CompressingObjectStore.class)
+                .build(CompressingObjectStore.Factory.class));
+        // Other modules may add codecs to this map:
+        MapBinder<String, CompressionCodec> codecs =
+            MapBinder.newMapBinder(binder(), String.class, CompressionCodec.class);
+        codecs.addBinding(GzipCodec.NAME).to(GzipCodec.class);
+        codecs.addBinding(DeflateCodec.NAME).to(DeflateCodec.class);
+
+        OptionalBinder.newOptionalBinder(binder(), Key.get(ExecutorService.class, Names.named(ASYNC_EXECUTOR)))
+            .setDefault().toProvider(AsyncExecutorProvider.class).in(Singleton.class);
 
         requireBinding(ExecutorService.class);
     }
+
+    private static class AsyncExecutorProvider implements Provider<ExecutorService> {
+        @Override
+        public ExecutorService get() {
+            AtomicInteger threadNum = new AtomicInteger();
+            ThreadFactory threadFactory = (runnable) -> {
+                Thread thread = new Thread(runnable, ASYNC_EXECUTOR+"-"+threadNum.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
 }
@@ -0,0 +1,165 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import com.distelli.persistence.PageIterator;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over every object with a key prefix, works with any
+ * ObjectStore.
+ *
+ * Pages are fetched one at a time (since each page needs the marker of
+ * the previous page) using the ExecutorService. As soon as a page is
+ * fetched the next fetch is started, until maxBufferedPages are waiting
+ * to be consumed. No thread is blocked while the buffer is full, so an
+ * abandoned iterator holds at most maxBufferedPages in memory.
+ *
+ * If the executor is null, each page is fetched by the consumer when it
+ * is needed.
+ */
+public class PrefetchingListIterator implements Iterator<ObjectMetadata>, AutoCloseable {
+    private final ObjectStore _objectStore;
+    private final ObjectKey _prefix;
+    private final ExecutorService _executor;
+    private final int _maxBufferedPages;
+    private final PageIterator _pageIterator;
+    private Iterator<ObjectMetadata> _current = Collections.emptyIterator();
+
+    // Guarded by this:
+    private final Deque<List<ObjectMetadata>> _pages = new ArrayDeque<>();
+    private boolean _fetching = false;
+    private boolean _done = false;
+    private boolean _closed = false;
+    private Throwable _failure;
+
+    public PrefetchingListIterator(ObjectStore objectStore, ObjectKey prefix, ExecutorService executor, int pageSize, int maxBufferedPages) {
+        if ( maxBufferedPages < 1 ) {
+            throw new IllegalArgumentException("maxBufferedPages must be >= 1 got="+maxBufferedPages);
+        }
+        _objectStore = objectStore;
+        _prefix = prefix;
+        _executor = executor;
+        _maxBufferedPages = maxBufferedPages;
+        _pageIterator = new PageIterator().pageSize(pageSize);
+        if ( null != _executor ) {
+            synchronized ( this ) {
+                prefetch();
+            }
+        }
+    }
+
+    /**
+     * @return a sequential stream over the remaining objects which closes
+     *     this iterator when it is closed.
+     */
+    public Stream<ObjectMetadata> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+            .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while ( ! _current.hasNext() ) {
+            List<ObjectMetadata> page = nextPage();
+            if ( null == page ) return false;
+            _current = page.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public ObjectMetadata next() {
+        if ( ! hasNext() ) throw new NoSuchElementException();
+        return _current.next();
+    }
+
+    @Override
+    public synchronized void close() {
+        _closed = true;
+        _pages.clear();
+        notifyAll();
+    }
+
+    // Returns null once every page has been consumed.
+    private List<ObjectMetadata> nextPage() {
+        if ( null == _executor ) {
+            while ( ! _done ) {
+                if ( _closed ) throw new IllegalStateException("Listing of "+_prefix+" was closed");
+                List<ObjectMetadata> page = _objectStore.listMetadata(_prefix, _pageIterator);
+                if ( null == _pageIterator.getMarker() ) _done = true;
+                if ( ! page.isEmpty() ) return page;
+            }
+            return null;
+        }
+        synchronized ( this ) {
+            while ( true ) {
+                if ( _closed ) throw new IllegalStateException("Listing of "+_prefix+" was closed");
+                if ( ! _pages.isEmpty() ) {
+                    List<ObjectMetadata> page = _pages.remove();
+                    prefetch();
+                    return page;
+                }
+                if ( null != _failure ) {
+                    if ( _failure instanceof RuntimeException ) throw (RuntimeException)_failure;
+                    if ( _failure instanceof Error ) throw (Error)_failure;
+                    throw new RuntimeException(_failure);
+                }
+                if ( _done ) return null;
+                try {
+                    wait();
+                } catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted during listing of "+_prefix, ex);
+                }
+            }
+        }
+    }
+
+    // Must hold the monitor, starts the next fetch if there is room for it:
+    private void prefetch() {
+        if ( _fetching || _done || _closed || null != _failure ) return;
+        if ( _pages.size() >= _maxBufferedPages ) return;
+        _fetching = true;
+        try {
+            _executor.submit(this::fetch);
+        } catch ( RejectedExecutionException ex ) {
+            _fetching = false;
+            _failure = ex;
+            notifyAll();
+        }
+    }
+
+    private void fetch() {
+        List<ObjectMetadata> page = null;
+        Throwable failure = null;
+        try {
+            page = _objectStore.listMetadata(_prefix, _pageIterator);
+        } catch ( Throwable ex ) {
+            failure = ex;
+        }
+        synchronized ( this ) {
+            _fetching = false;
+            if ( null != failure ) {
+                _failure = failure;
+            } else {
+                if ( null == _pageIterator.getMarker() ) _done = true;
+                if ( ! page.isEmpty() && ! _closed ) _pages.add(page);
+                prefetch();
+            }
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.AccessControlException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Inject;
+import javax.persistence.EntityNotFoundException;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static javax.xml.bind.DatatypeConverter.printHexBinary;
+
+/**
+ * Downloads an object into a file with concurrent ranged gets using the
+ * injected ExecutorService, works with any ObjectStore.
+ *
+ * Each part is written at its offset in the file as it is received. A
+ * failed part is retried from the last byte received, up to maxAttempts
+ * times. Every part must have the etag reported by head(), so parts of
+ * an object replaced during the download are not mixed. If the backend
+ * reports the MD5 of the object in head(), the whole file is verified
+ * once all parts are written.
+ *
+ * Objects which fit in a single part are downloaded with a plain get().
+ */
+public class RangedDownloader {
+    private ExecutorService _executor;
+    private long _partSize = 8*1024*1024;
+    private int _concurrency = 4;
+    private int _maxAttempts = 3;
+
+    @Inject
+    public RangedDownloader(ExecutorService executor) {
+        _executor = executor;
+    }
+
+    public RangedDownloader withPartSize(long partSize) {
+        if ( partSize < 1 ) {
+            throw new IllegalArgumentException("partSize must be >= 1 got="+partSize);
+        }
+        _partSize = partSize;
+        return this;
+    }
+
+    public RangedDownloader withConcurrency(int concurrency) {
+        if ( concurrency < 1 ) {
+            throw new IllegalArgumentException("concurrency must be >= 1 got="+concurrency);
+        }
+        _concurrency = concurrency;
+        return this;
+    }
+
+    public RangedDownloader withMaxAttempts(int maxAttempts) {
+        if ( maxAttempts < 1 ) {
+            throw new IllegalArgumentException("maxAttempts must be >= 1 got="+maxAttempts);
+        }
+        _maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Same semantics as ObjectStore.get(ObjectKey, File), the file must not
+     * already exist. The file is removed if the download fails.
+     */
+    public void get(ObjectStore objectStore, ObjectKey objectKey, File file)
+        throws EntityNotFoundException, IOException
+    {
+        ObjectMetadata meta = objectStore.head(objectKey);
+        if ( null == meta ) {
+            throw new EntityNotFoundException("NotFound: "+objectKey);
+        }
+        long size = meta.getContentLength();
+        if ( size <= _partSize ) {
+            objectStore.get(objectKey, file);
+            return;
+        }
+        boolean success = false;
+        try ( FileChannel out = FileChannel.open(file.toPath(), READ, WRITE, CREATE_NEW) ) {
+            try {
+                new Download(objectStore, objectKey, meta.getEtag(), out).run(size);
+                if ( null != meta.getContentMD5() ) verify(objectKey, out, meta.getContentMD5());
+                success = true;
+            } finally {
+                if ( ! success ) Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private class Download {
+        private final ObjectStore _objectStore;
+        private final ObjectKey _objectKey;
+        // Null if the backend has no etags:
+        private final String _etag;
+        private final FileChannel _out;
+        private final Semaphore _permits = new Semaphore(_concurrency);
+        private final List<Future<?>> _parts = new ArrayList<>();
+        private final AtomicReference<Throwable> _failure = new AtomicReference<>();
+
+        private Download(ObjectStore objectStore, ObjectKey objectKey, String etag, FileChannel out) {
+            _objectStore = objectStore;
+            _objectKey = objectKey;
+            _etag = etag;
+            _out = out;
+        }
+
+        private void run(long size) throws IOException {
+            try {
+                for ( long offset=0; offset < size; offset += _partSize ) {
+                    _permits.acquire();
+                    if ( null != _failure.get() ) break;
+                    long partOffset = offset;
+                    long partLen = Math.min(_partSize, size - offset);
+                    _parts.add(_executor.submit(() -> {
+                                try {
+                                    if ( null == _failure.get() ) getPart(partOffset, partLen);
+                                } catch ( Throwable ex ) {
+                                    _failure.compareAndSet(null, ex);
+                                    throw ex;
+                                } finally {
+                                    _permits.release();
+                                }
+                                return null;
+                            }));
+                }
+            } catch ( InterruptedException ex ) {
+                _failure.compareAndSet(null, ex);
+                Thread.currentThread().interrupt();
+            }
+            // Always wait for every part so none write after we return:
+            boolean interrupted = false;
+            for ( Future<?> part : _parts ) {
+                while ( true ) {
+                    try {
+                        part.get();
+                    } catch ( InterruptedException ex ) {
+                        interrupted = true;
+                        continue;
+                    } catch ( ExecutionException ex ) {}
+                    break;
+                }
+            }
+            if ( interrupted ) Thread.currentThread().interrupt();
+            Throwable failure = _failure.get();
+            if ( null == failure ) return;
+            if ( failure instanceof InterruptedException ) {
+                throw new InterruptedIOException("Interrupted during download of "+_objectKey);
+            }
+            if ( failure instanceof IOException ) throw (IOException)failure;
+            if ( failure instanceof RuntimeException ) throw (RuntimeException)failure;
+            if ( failure instanceof Error ) throw (Error)failure;
+            throw new RuntimeException(failure);
+        }
+
+        private void getPart(long offset, long len) throws IOException, InterruptedException {
+            AtomicLong received = new AtomicLong();
+            for ( int attempt=1;; attempt++ ) {
+                long start = offset + received.get();
+                long remaining = len - received.get();
+                // The last byte of the part, or the byte after it if the
+                // backend treats the end of a range as exclusive:
+                long end = _objectStore.isRangeEndInclusive() ? start + remaining - 1 : start + remaining;
+                try {
+                    _objectStore.get(
+                        _objectKey,
+                        (meta, in) -> {
+                            if ( null != _etag && null != meta.getEtag() && ! _etag.equals(meta.getEtag()) ) {
+                                throw new StreamCorruptedException(
+                                    "Object changed during download of key: "+_objectKey+
+                                    ". ETag: "+meta.getEtag()+" Expected: "+_etag);
+                            }
+                            return copy(in, start, remaining, received);
+                        },
+                        start,
+                        end);
+                    if ( received.get() >= len ) return;
+                    throw new IOException(
+                        "Premature end of "+_objectKey+" at offset "+(offset+received.get()));
+                } catch ( EntityNotFoundException|AccessControlException|IllegalArgumentException|IllegalStateException|StreamCorruptedException ex ) {
+                    throw ex;
+                } catch ( IOException|RuntimeException ex ) {
+                    if ( attempt >= _maxAttempts || null != _failure.get() ) throw ex;
+                }
+                Thread.sleep(100L << Math.min(attempt - 1, 6));
+            }
+        }
+
+        // Adds the bytes written to received, which is less than len if in ends early.
+        private Void copy(InputStream in, long offset, long len, AtomicLong received) throws IOException {
+            byte[] buf = new byte[64*1024];
+            long written = 0;
+            while ( true ) {
+                int n = in.read(buf);
+                if ( n < 0 ) break;
+                int keep = (int)Math.min(n, len - written);
+                ByteBuffer src = ByteBuffer.wrap(buf, 0, keep);
+                while ( src.hasRemaining() ) {
+                    _out.write(src, offset + written + src.position());
+                }
+                written += keep;
+                received.addAndGet(keep);
+                if ( keep < n ) {
+                    throw new IllegalStateException(
+                        "Ranged get of "+_objectKey+" returned more than the requested range");
+                }
+                if ( Thread.interrupted() ) {
+                    throw new InterruptedIOException("Interrupted during download of "+_objectKey);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void verify(ObjectKey objectKey, FileChannel channel, String expectMD5) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException(ex);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1024*1024);
+        long position = 0;
+        while ( true ) {
+            int len = channel.read(buf, position);
+            if ( len < 0 ) break;
+            position += len;
+            buf.flip();
+            md.update(buf);
+            buf.clear();
+        }
+        String computed = printHexBinary(md.digest()).toLowerCase();
+        if ( ! computed.equalsIgnoreCase(expectMD5) ) {
+            throw new StreamCorruptedException(
+                "Checksum failed on get for key: "+objectKey+". Checksum: "+computed+" Expected: "+expectMD5);
+        }
+    }
+}
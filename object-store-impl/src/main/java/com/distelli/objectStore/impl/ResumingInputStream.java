@@ -0,0 +1,116 @@
+package com.distelli.objectStore.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Content of a get() which survives dropped connections: if reading
+ * fails with a transient error (see RetryPolicy.isTransient()), the
+ * remaining content is re-opened at the next byte and reading continues,
+ * so the consumer never sees the failure.
+ *
+ * The attempts of the RetryPolicy are counted from the last read which
+ * made progress, so a long download may resume any number of times as
+ * long as the retry budget allows it.
+ */
+public class ResumingInputStream extends InputStream {
+    public interface Opener {
+        /**
+         * @param offset from the start of the original content.
+         * @return the content starting at offset.
+         */
+        public InputStream open(long offset) throws IOException;
+    }
+
+    private InputStream _in;
+    private final Long _length;
+    private final Opener _opener;
+    private final RetryPolicy _retryPolicy;
+    private long _offset = 0;
+    private boolean _closed = false;
+
+    /**
+     * @param in is the content as initially opened.
+     * @param length of the content if known, or null. Used to detect
+     *     a connection which is closed early.
+     * @param opener is used to re-open the content.
+     * @param retryPolicy decides if a failure is resumed.
+     */
+    public ResumingInputStream(InputStream in, Long length, Opener opener, RetryPolicy retryPolicy) {
+        _in = in;
+        _length = length;
+        _opener = opener;
+        _retryPolicy = retryPolicy;
+    }
+
+    // Bytes returned so far:
+    public long getOffset() {
+        return _offset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] buf = new byte[1];
+        int len = read(buf, 0, 1);
+        return ( len < 0 ) ? -1 : buf[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if ( _closed ) throw new IOException("Stream closed");
+        if ( 0 == len ) return 0;
+        for ( int attempt=1;; attempt++ ) {
+            try {
+                if ( null == _in ) {
+                    if ( null != _length && _offset >= _length ) return -1;
+                    _in = _opener.open(_offset);
+                }
+                int count = _in.read(buf, off, len);
+                if ( count > 0 ) {
+                    _offset += count;
+                } else if ( count < 0 && null != _length && _offset < _length ) {
+                    throw new EOFException(
+                        "Premature end of content at offset "+_offset+" of "+_length);
+                }
+                return count;
+            } catch ( IOException|RuntimeException ex ) {
+                if ( ! _retryPolicy.shouldRetry(attempt, ex) ) throw ex;
+                closeQuietly();
+                try {
+                    _retryPolicy.backoff(attempt);
+                } catch ( InterruptedException interrupted ) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return ( null == _in ) ? 0 : _in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _closed = true;
+        if ( null == _in ) return;
+        try {
+            _in.close();
+        } finally {
+            _in = null;
+        }
+    }
+
+    // Closes the failed connection before it is re-opened:
+    private void closeQuietly() {
+        try {
+            if ( null != _in ) _in.close();
+        } catch ( Exception ex ) {
+        } finally {
+            _in = null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.security.AccessControlException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.persistence.EntityNotFoundException;
+
+/**
+ * Decides if and when a failed request to a remote ObjectStore is
+ * retried.
+ *
+ * Only transient failures are retried, see isTransient(). Retries back
+ * off exponentially with full jitter so clients which failed together do
+ * not retry together. Every retry also spends a token from the retry
+ * budget of the store, and every success earns back a tenth of a token,
+ * so when the backend is down the store stops retrying (and multiplying
+ * the load) until requests succeed again.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final int DEFAULT_BUDGET = 20;
+    private static final long BASE_DELAY_MILLIS = 100;
+    private static final long MAX_DELAY_MILLIS = 10000;
+    // Tokens are counted in tenths:
+    private static final long TOKEN = 10;
+
+    private final int _maxAttempts;
+    private final long _maxTokens;
+    private final AtomicLong _tokens;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param maxAttempts is the number of times a request is attempted,
+     *     1 disables retries.
+     * @param budget is the number of retries which may be made without
+     *     any requests succeeding.
+     */
+    public RetryPolicy(int maxAttempts, int budget) {
+        if ( maxAttempts < 1 ) {
+            throw new IllegalArgumentException("maxAttempts must be >= 1, got "+maxAttempts);
+        }
+        if ( budget < 0 ) {
+            throw new IllegalArgumentException("budget must be >= 0, got "+budget);
+        }
+        _maxAttempts = maxAttempts;
+        _maxTokens = budget * TOKEN;
+        _tokens = new AtomicLong(_maxTokens);
+    }
+
+    public int getMaxAttempts() {
+        return _maxAttempts;
+    }
+
+    // Remaining retries in the budget:
+    public long getBudget() {
+        return _tokens.get() / TOKEN;
+    }
+
+    /**
+     * Transient failures are TransientObjectStoreException and I/O
+     * errors (such as a dropped connection), possibly wrapped in another
+     * exception. Missing objects, denied access, corrupted content and
+     * interrupts are permanent.
+     */
+    public static boolean isTransient(Throwable ex) {
+        for ( ; null != ex; ex = ex.getCause() ) {
+            if ( ex instanceof TransientObjectStoreException ) return true;
+            if ( ex instanceof EntityNotFoundException ||
+                 ex instanceof AccessControlException ||
+                 ex instanceof StreamCorruptedException ||
+                 ex instanceof FileNotFoundException )
+            {
+                return false;
+            }
+            if ( ex instanceof InterruptedIOException ) {
+                return ex instanceof SocketTimeoutException;
+            }
+            if ( ex instanceof IOException ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt is the number of the attempt which failed, starting at 1.
+     * @param ex is the failure.
+     * @return true if the request should be retried after backoff(),
+     *     in which case a token of the budget was spent.
+     */
+    public boolean shouldRetry(int attempt, Throwable ex) {
+        if ( attempt >= _maxAttempts || ! isTransient(ex) ) return false;
+        while ( true ) {
+            long tokens = _tokens.get();
+            if ( tokens < TOKEN ) return false;
+            if ( _tokens.compareAndSet(tokens, tokens - TOKEN) ) return true;
+        }
+    }
+
+    public void onSuccess() {
+        if ( _tokens.get() >= _maxTokens ) return;
+        _tokens.updateAndGet((tokens) -> Math.min(_maxTokens, tokens + 1));
+    }
+
+    // A random delay up to the exponential backoff of attempt:
+    public long getDelayMillis(int attempt) {
+        long max = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    public void backoff(int attempt) throws InterruptedException {
+        Thread.sleep(getDelayMillis(attempt));
+    }
+
+    /**
+     * Call the supplier until it succeeds, fails with a permanent error,
+     * or shouldRetry() returns false. The last failure is rethrown.
+     */
+    public <T> T call(Supplier<T> call) {
+        for ( int attempt=1;; attempt++ ) {
+            try {
+                T result = call.get();
+                onSuccess();
+                return result;
+            } catch ( RuntimeException ex ) {
+                if ( ! shouldRetry(attempt, ex) ) throw ex;
+                try {
+                    backoff(attempt);
+                } catch ( InterruptedException interrupted ) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+}
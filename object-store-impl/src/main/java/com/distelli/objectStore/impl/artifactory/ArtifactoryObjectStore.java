@@ -7,9 +7,14 @@ import javax.json.JsonObject;
 import javax.json.JsonArray;
 import javax.json.JsonReader;
 import javax.json.JsonWriter;
+import javax.json.stream.JsonParser;
 import com.distelli.objectStore.*;
 import com.distelli.objectStore.impl.AbstractObjectStore;
 import com.distelli.objectStore.impl.ObjectStoreBuilder;
+import com.distelli.objectStore.impl.RetryPolicy;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -19,37 +24,57 @@ import okhttp3.MediaType;
 import okhttp3.ConnectionPool;
 import okio.Okio;
 import okio.BufferedSink;
+import okio.BufferedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import com.distelli.cred.CredProvider;
 import java.net.URI;
 import java.security.AccessControlException;
 import javax.persistence.EntityNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.File;
 import java.io.UncheckedIOException;
-import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import com.google.inject.assistedinject.Assisted;
 import com.distelli.persistence.PageIterator;
 import javax.inject.Inject;
 import com.distelli.utils.ResettableInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.io.OutputStream;
 import java.io.InterruptedIOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.io.ByteArrayOutputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static com.distelli.utils.IsEmpty.isEmpty;
 import static com.distelli.utils.LongSortKey.longToSortKey;
+import static javax.xml.bind.DatatypeConverter.parseDateTime;
+import static javax.json.stream.JsonParser.Event.END_ARRAY;
+import static javax.json.stream.JsonParser.Event.END_OBJECT;
+import static javax.json.stream.JsonParser.Event.START_ARRAY;
+import static javax.json.stream.JsonParser.Event.START_OBJECT;
 
 public class ArtifactoryObjectStore extends AbstractObjectStore
 {
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactoryObjectStore.class);
+    private static final int DELETE_CONCURRENCY = 8;
+    // Concurrent async calls, the rest are queued by the dispatcher:
+    private static final int MAX_ASYNC_REQUESTS = 64;
+    // Bytes moved per read when concatenating multipart parts:
+    private static final long TRANSFER_SIZE = 64*1024;
+    // Property holding the contentEncoding, set as a matrix parameter of the deploy:
+    private static final String CONTENT_ENCODING_PROPERTY = "content-encoding";
     private static MediaType DEFAULT_BINARY =
         MediaType.parse("application/octet-stream");
     private static MediaType APPLICATION_JSON =
@@ -61,10 +86,12 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         public ArtifactoryObjectStore create(ObjectStoreBuilder builder);
     }
 
+    private interface ResponseHandler<T> {
+        public T handle(Response res) throws IOException;
+    }
+
     private OkHttpClient _client;
     private URI _endpoint;
-    @Inject
-    private ExecutorService _executor;
 
     private HttpUrl.Builder url() {
         return HttpUrl.parse(_endpoint.toString())
@@ -98,13 +125,13 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
             throw new AccessControlException(
                 "Access denied to "+objectKey+" endpoint="+_endpoint);
         }
-        if ( code/100 == 4 ) {
+        if ( code/100 == 4 && 429 != code ) {
             throw new IllegalStateException(
                 "Unexpected client error '"+code+"' returned from "+res.request().url()+
                 " "+res.body().string());
         }
-        // TODO: Come up with better exceptions so this can be retried...
-        throw new RuntimeException(
+        // Throttled or a server error:
+        throw new TransientObjectStoreException(
             "Unexpected server error '"+code+"' returned from "+res.request().url()+
             " "+res.body().string());
     }
@@ -117,7 +144,16 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                 "Expected ARTIFACTORY store provider, got "+builder.getObjectStoreProvider());
         }
         _endpoint = builder.getEndpoint();
+        if ( null != builder.getMaxErrorRetry() ) {
+            if ( builder.getMaxErrorRetry() < 0 ) {
+                throw new IllegalArgumentException("maxErrorRetry must be >= 0, got "+builder.getMaxErrorRetry());
+            }
+            setRetryPolicy(new RetryPolicy(builder.getMaxErrorRetry() + 1, RetryPolicy.DEFAULT_BUDGET));
+        }
         CredProvider credProvider = builder.getCredProvider();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_ASYNC_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_ASYNC_REQUESTS);
         _client = new OkHttpClient.Builder()
             .addInterceptor((chain) -> {
                     Request req = chain.request();
@@ -132,9 +168,47 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                     return chain.proceed(req);
                 })
             .connectionPool(pool)
+            .dispatcher(dispatcher)
             .build();
     }
 
+    // Only used for idempotent requests, since they are retried:
+    private <T> T execute(Request req, ResponseHandler<T> handler) {
+        return withRetries(() -> {
+                try ( Response res = _client.newCall(req).execute() ) {
+                    return handler.handle(res);
+                } catch ( IOException ex ) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+    }
+
+    // Same as execute(), but the handler is called from an OkHttp dispatcher thread:
+    private <T> CompletableFuture<T> enqueue(Request req, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = _client.newCall(req);
+        call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException ex) {
+                    future.completeExceptionally(new UncheckedIOException(ex));
+                }
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try ( Response res = response ) {
+                        future.complete(handler.handle(res));
+                    } catch ( IOException ex ) {
+                        future.completeExceptionally(new UncheckedIOException(ex));
+                    } catch ( Throwable ex ) {
+                        future.completeExceptionally(ex);
+                    }
+                }
+            });
+        future.whenComplete((result, ex) -> {
+                if ( future.isCancelled() ) call.cancel();
+            });
+        return future;
+    }
+
     @Override
     public void createBucket(String bucketName) {
         byte[] content = Json.createObjectBuilder()
@@ -192,11 +266,38 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
     }
 
     @Override
-    public void put(ObjectKey objectKey, long contentLength, InputStream in) {
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
+        execute(putRequest(objectKey, contentEncoding, contentLength, in),
+                (res) -> handlePut(res, objectKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, long contentLength, InputStream in) {
+        return enqueue(putRequest(objectKey, null, contentLength, in),
+                       (res) -> handlePut(res, objectKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, File in) {
+        return enqueue(putRequest(objectKey, null, RequestBody.create(DEFAULT_BINARY, in)),
+                       (res) -> handlePut(res, objectKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, byte[] in) {
+        return enqueue(putRequest(objectKey, null, RequestBody.create(DEFAULT_BINARY, in)),
+                       (res) -> handlePut(res, objectKey));
+    }
+
+    private Void handlePut(Response res, ObjectKey objectKey) throws IOException {
+        handleErrors(res, objectKey, true);
+        return null;
+    }
+
+    private Request putRequest(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
         InputStream resettableIn = toResettableInputStream(in);
         in.mark(-1);
-        Request req = new Request.Builder()
-            .put(new RequestBody() {
+        return putRequest(objectKey, contentEncoding, new RequestBody() {
                     @Override
                     public MediaType contentType() {
                         return DEFAULT_BINARY;
@@ -210,24 +311,106 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                         resettableIn.reset();
                         sink.writeAll(Okio.source(resettableIn));
                     }
-                })
+                });
+    }
+
+    // A non-null contentEncoding is deployed as a property of the object:
+    private Request putRequest(ObjectKey objectKey, String contentEncoding, RequestBody body) {
+        HttpUrl.Builder url = url()
+            .addPathSegment("artifactory")
+            .addPathSegment(objectKey.getBucket())
+            .addPathSegments(objectKey.getKey());
+        if ( null != contentEncoding ) {
+            HttpUrl built = url.build();
+            int last = built.pathSize() - 1;
+            url.setEncodedPathSegment(
+                last,
+                built.encodedPathSegments().get(last)+";"+CONTENT_ENCODING_PROPERTY+"="+encode(contentEncoding));
+        }
+        return new Request.Builder()
+            .put(body)
+            .url(url.build())
+            .build();
+    }
+
+    private static String encode(String str) {
+        try {
+            return URLEncoder.encode(str, "UTF-8").replace("+", "%20");
+        } catch ( UnsupportedEncodingException ex ) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Artifactory does not return the properties with the content or
+     * file info, so the contentEncoding is read with a separate request
+     * and may be of a different version if the object is replaced
+     * concurrently.
+     *
+     * @return the contentEncoding of objectKey, null if it is stored as is.
+     */
+    private String getContentEncoding(ObjectKey objectKey) {
+        return execute(contentEncodingRequest(objectKey), (res) -> handleContentEncoding(res, objectKey));
+    }
+
+    private CompletableFuture<String> getContentEncodingAsync(ObjectKey objectKey) {
+        return enqueue(contentEncodingRequest(objectKey), (res) -> handleContentEncoding(res, objectKey));
+    }
+
+    private Request contentEncodingRequest(ObjectKey objectKey) {
+        return new Request.Builder()
+            .get()
             .url(url()
-                 .addPathSegment("artifactory")
+                 .addPathSegments("artifactory/api/storage")
                  .addPathSegment(objectKey.getBucket())
                  .addPathSegments(objectKey.getKey())
+                 .addQueryParameter("properties", CONTENT_ENCODING_PROPERTY)
                  .build())
             .build();
-        try ( Response res = _client.newCall(req).execute() ) {
-            handleErrors(res, objectKey, true);
-        } catch ( IOException ex ) {
-            throw new UncheckedIOException(ex);
+    }
+
+    // Artifactory answers 404 if the object has none of the requested properties:
+    private String handleContentEncoding(Response res, ObjectKey objectKey) throws IOException {
+        if ( 404 == res.code() ) return null;
+        handleErrors(res, objectKey, false);
+        JsonObject obj;
+        try ( JsonReader reader = Json.createReader(
+                  new ByteArrayInputStream(res.body().bytes())) )
+        {
+            obj = reader.readObject();
+        }
+        JsonObject properties = getObject(obj, "properties");
+        if ( null == properties ) return null;
+        try {
+            return getString(properties.getJsonArray(CONTENT_ENCODING_PROPERTY), 0);
+        } catch ( ClassCastException ex ) {
+            return null;
         }
     }
 
     // Returns null if entity does not exist.
     @Override
     public ObjectMetadata head(ObjectKey objectKey) {
-        Request req = new Request.Builder()
+        ObjectMetadata meta = execute(headRequest(objectKey), (res) -> handleHead(res, objectKey));
+        if ( null != meta ) meta.setContentEncoding(getContentEncoding(objectKey));
+        return meta;
+    }
+
+    @Override
+    public CompletableFuture<ObjectMetadata> headAsync(ObjectKey objectKey) {
+        return enqueue(headRequest(objectKey), (res) -> handleHead(res, objectKey))
+            .thenCompose((meta) -> {
+                    if ( null == meta ) return CompletableFuture.completedFuture(null);
+                    return getContentEncodingAsync(objectKey)
+                        .thenApply((contentEncoding) -> {
+                                meta.setContentEncoding(contentEncoding);
+                                return meta;
+                            });
+                });
+    }
+
+    private Request headRequest(ObjectKey objectKey) {
+        return new Request.Builder()
             .get()
             .url(url()
                  .addPathSegments("artifactory/api/storage")
@@ -235,31 +418,89 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                  .addPathSegment(objectKey.getKey())
                  .build())
             .build();
-        try ( Response res = _client.newCall(req).execute() ) {
-            if ( 404 == res.code() ) return null;
-            handleErrors(res, objectKey, false);
+    }
 
-            JsonObject obj;
-            try ( JsonReader reader = Json.createReader(
-                      new ByteArrayInputStream(res.body().bytes())) )
-            {
-                obj = reader.readObject();
-            }
+    private ObjectMetadata handleHead(Response res, ObjectKey objectKey) throws IOException {
+        if ( 404 == res.code() ) return null;
+        handleErrors(res, objectKey, false);
+
+        JsonObject obj;
+        try ( JsonReader reader = Json.createReader(
+                  new ByteArrayInputStream(res.body().bytes())) )
+        {
+            obj = reader.readObject();
+        }
+
+        JsonObject checksums = getObject(obj, "checksums");
+        String modified = getString(obj, "lastModified");
+        return ObjectMetadata.builder()
+            .contentLength(getLong(obj, "size"))
+            .contentMD5(getString(checksums, "md5"))
+            .contentSHA1(getString(checksums, "sha1"))
+            .contentSHA256(getString(checksums, "sha256"))
+            .lastModified(null == modified ? null : parseDateTime(modified).getTimeInMillis())
+            .etag(getString(checksums, "sha1"))
+            .key(objectKey.getKey())
+            .bucket(objectKey.getBucket())
+            .build();
+    }
 
-            return ObjectMetadata.builder()
-                .contentLength(getLong(obj, "size"))
-                .key(objectKey.getKey())
-                .bucket(objectKey.getBucket())
-                .build();
+    @Override
+    public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        // Only opening the content is retried, the objectReader is called once:
+        Response res = withRetries(() -> openGet(objectKey, start, end));
+        try {
+            return handleGet(res, objectKey, getContentEncoding(objectKey), objectReader, start, end);
         } catch ( IOException ex ) {
             throw new UncheckedIOException(ex);
+        } finally {
+            res.close();
         }
     }
 
+    /**
+     * Artifactory answers If-None-Match with 304 Not Modified. If the
+     * content is sent anyway, the response is closed unread when the
+     * etag matches.
+     */
     @Override
-    public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+    public <T> T getIfNoneMatch(ObjectKey objectKey, String etag, ObjectReader<T> objectReader)
         throws EntityNotFoundException, IOException
     {
+        if ( null == etag ) return get(objectKey, objectReader);
+        Request req = getRequest(objectKey, null, null).newBuilder()
+            .header("If-None-Match", "\""+etag+"\"")
+            .build();
+        Response res = withRetries(() -> openGet(req, objectKey));
+        try {
+            if ( 304 == res.code() || etag.equals(getETag(res)) ) return null;
+            return handleGet(res, objectKey, getContentEncoding(objectKey), objectReader, null, null);
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            res.close();
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<T> getAsync(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end) {
+        return getContentEncodingAsync(objectKey)
+            .thenCompose((contentEncoding) -> enqueue(
+                             getRequest(objectKey, start, end),
+                             (res) -> handleGet(res, objectKey, contentEncoding, objectReader, start, end)));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(ObjectKey objectKey) {
+        return enqueue(getRequest(objectKey, null, null), (res) -> {
+                handleErrors(res, objectKey, false);
+                return res.body().bytes();
+            });
+    }
+
+    private Request getRequest(ObjectKey objectKey, Long start, Long end) {
         Request.Builder reqBuilder = new Request.Builder()
             .get()
             .url(url()
@@ -274,20 +515,88 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                 reqBuilder.header("Range", "bytes="+start+"-");
             }
         }
-        try ( Response res = _client.newCall(reqBuilder.build()).execute() ) {
+        return reqBuilder.build();
+    }
+
+    // Content which is read after a dropped connection is re-opened at the next byte:
+    private <T> T handleGet(Response res, ObjectKey objectKey, String contentEncoding, ObjectReader<T> objectReader,
+                            Long start, Long end)
+        throws IOException
+    {
+        handleErrors(res, objectKey, false);
+        long length = res.body().contentLength();
+        Date modified = res.headers().getDate("Last-Modified");
+        ObjectMetadata meta = ObjectMetadata.builder()
+            .contentLength(length)
+            .lastModified(null == modified ? null : modified.getTime())
+            .etag(getETag(res))
+            .contentEncoding(contentEncoding)
+            .key(objectKey.getKey())
+            .bucket(objectKey.getBucket())
+            .build();
+        long offset = ( null == start ) ? 0 : start;
+        String etag = meta.getEtag();
+        try ( InputStream in = resumable(
+                  res.body().byteStream(),
+                  length < 0 ? null : length,
+                  (resumeAt) -> openRange(objectKey, etag, offset + resumeAt, end)) )
+        {
+            return objectReader.read(meta, in);
+        }
+    }
+
+    // Artifactory uses the SHA-1 of the content as the ETag:
+    private static String getETag(Response res) {
+        String sha1 = res.header("X-Checksum-Sha1");
+        if ( null != sha1 ) return sha1;
+        String etag = res.header("ETag");
+        if ( null == etag ) return null;
+        return etag.replaceAll("^(W/)?\"|\"$", "");
+    }
+
+    private Response openGet(ObjectKey objectKey, Long start, Long end) {
+        return openGet(getRequest(objectKey, start, end), objectKey);
+    }
+
+    // The response is closed unless it is successful or 304 Not Modified:
+    private Response openGet(Request req, ObjectKey objectKey) {
+        Response res;
+        try {
+            res = _client.newCall(req).execute();
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+        if ( 304 == res.code() ) return res;
+        try {
             handleErrors(res, objectKey, false);
-            ObjectMetadata meta = ObjectMetadata.builder()
-                .contentLength(res.body().contentLength())
-                .key(objectKey.getKey())
-                .bucket(objectKey.getBucket())
-                .build();
-            return objectReader.read(meta, res.body().byteStream());
         } catch ( IOException ex ) {
+            res.close();
             throw new UncheckedIOException(ex);
+        } catch ( RuntimeException ex ) {
+            res.close();
+            throw ex;
         }
+        return res;
     }
 
-    private Long parseLong(String str) {
+    // Resumes a get() after a dropped connection, unless the object was replaced:
+    private InputStream openRange(ObjectKey objectKey, String etag, long start, Long end) {
+        Response res = openGet(objectKey, start, end);
+        if ( 206 != res.code() ) {
+            res.close();
+            throw new IllegalStateException(
+                "Expected a partial response for the range "+start+"-"+end+" of "+objectKey+
+                ", got '"+res.code()+"' from "+res.request().url());
+        }
+        if ( null != etag && ! etag.equals(getETag(res)) ) {
+            res.close();
+            throw new StreamCorruptedException(
+                "Object changed while resuming get for key: "+objectKey);
+        }
+        return res.body().byteStream();
+    }
+
+    private static Long parseLong(String str) {
         if ( null == str ) return null;
         try {
             return Long.parseLong(str);
@@ -298,6 +607,43 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
 
     @Override
     public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator) {
+        return toKeys(listMetadata(objectKey, iterator));
+    }
+
+    private static List<ObjectKey> toKeys(List<ObjectMetadata> metadata) {
+        return Collections.unmodifiableList(
+            metadata.stream()
+            .map((meta) -> ObjectKey.builder()
+                 .bucket(meta.getBucket())
+                 .key(meta.getKey())
+                 .build())
+            .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Stream<ObjectMetadata> stream(ObjectKey prefix) {
+        return stream(prefix, getExecutor());
+    }
+
+    @Override
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator) {
+        return execute(listRequest(objectKey, iterator),
+                       (res) -> handleList(res, objectKey, iterator));
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectMetadata>> listMetadataAsync(ObjectKey objectKey, PageIterator iterator) {
+        return enqueue(listRequest(objectKey, iterator),
+                       (res) -> handleList(res, objectKey, iterator));
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectKey>> listAsync(ObjectKey objectKey, PageIterator iterator) {
+        return listMetadataAsync(objectKey, iterator)
+            .thenApply(ArtifactoryObjectStore::toKeys);
+    }
+
+    private Request listRequest(ObjectKey objectKey, PageIterator iterator) {
         ByteArrayOutputStream bodyOS = new ByteArrayOutputStream();
         Long offset = parseLong(iterator.getMarker());
         try {
@@ -326,7 +672,8 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                     .build();
                 writer.writeObject(content);
             }
-            bodyOS.write(").include(\"repo\",\"path\",\"name\")"
+            bodyOS.write((").include(\"repo\",\"path\",\"name\",\"size\",\"modified\","+
+                          "\"actual_md5\",\"actual_sha1\",\"sha256\",\"property.key\",\"property.value\")")
                          .getBytes(UTF_8));
             // Not supported in OS edition of Artifactory:
             // ".sort({\"$asc\":[\"path\", \"name\"]})"
@@ -339,54 +686,169 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         } catch ( IOException ex ) {
             throw new UncheckedIOException(ex);
         }
-        Request req = new Request.Builder()
+        return new Request.Builder()
             .post(RequestBody.create(TEXT_PLAIN, bodyOS.toByteArray()))
             .url(url()
                  .addPathSegments("artifactory/api/search/aql")
                  .build())
             .build();
-        try ( Response res = _client.newCall(req).execute() ) {
-            handleErrors(res, objectKey, false);
-            JsonObject obj;
-            try ( JsonReader reader = Json.createReader(
-                      new ByteArrayInputStream(res.body().bytes())) )
-            {
-                obj = reader.readObject();
+    }
+
+    /**
+     * Parses the AQL results as they are received, so only the
+     * ObjectMetadata of the page is held in memory rather than the
+     * response and its JSON tree.
+     */
+    private List<ObjectMetadata> handleList(Response res, ObjectKey objectKey, PageIterator iterator) throws IOException {
+        Long offset = parseLong(iterator.getMarker());
+        handleErrors(res, objectKey, false);
+        List<ObjectMetadata> result = new ArrayList<>();
+        Long total = null;
+        try ( JsonParser parser = Json.createParser(res.body().byteStream()) ) {
+            JsonParser.Event event = parser.next();
+            if ( START_OBJECT != event ) {
+                throw new IllegalStateException(
+                    "Expected an object from "+res.request().url()+", got "+event);
             }
-            JsonArray results = getArray(obj, "results");
-            List<ObjectKey> result = ( null == results ) ?
-                Collections.emptyList() :
-                new ArrayList<>();
-            for ( int i=0; i < results.size(); i++ ) {
-                JsonObject info = getObject(results, i);
-                if ( null == info ) continue;
-                String path = getString(info, "path");
-                String name = getString(info, "name");
-                if ( null == name ) continue;
-                result.add(ObjectKey.builder()
-                           .key(isEmpty(path) || ".".equals(path) ? name : path + "/" + name)
-                           .bucket(objectKey.getBucket())
-                           .build());
+            for ( event = parser.next(); END_OBJECT != event; event = parser.next() ) {
+                String field = parser.getString();
+                event = parser.next();
+                if ( "results".equals(field) && START_ARRAY == event ) {
+                    for ( event = parser.next(); END_ARRAY != event; event = parser.next() ) {
+                        if ( START_OBJECT != event ) {
+                            skip(parser, event);
+                            continue;
+                        }
+                        ObjectMetadata meta = parseListResult(parser, objectKey.getBucket());
+                        if ( null != meta ) result.add(meta);
+                    }
+                } else if ( "range".equals(field) && START_OBJECT == event ) {
+                    for ( event = parser.next(); END_OBJECT != event; event = parser.next() ) {
+                        String rangeField = parser.getString();
+                        event = parser.next();
+                        if ( "total".equals(rangeField) ) {
+                            total = getLong(parser, event);
+                        } else {
+                            skip(parser, event);
+                        }
+                    }
+                } else {
+                    skip(parser, event);
+                }
+            }
+        }
+
+        long count = ( null == total ) ? result.size() : total;
+        if ( count >= iterator.getPageSize() ) {
+            if ( null != offset ) {
+                count += offset.longValue();
+            }
+            iterator.setMarker(""+count);
+        } else {
+            iterator.setMarker(null);
+        }
+
+        if ( result.isEmpty() ) {
+            checkBucket(ObjectKey.builder().bucket(objectKey.getBucket()).build());
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    // Parses the fields of an AQL result, the START_OBJECT was already consumed:
+    private static ObjectMetadata parseListResult(JsonParser parser, String bucket) {
+        String path = null;
+        String name = null;
+        String modified = null;
+        ObjectMetadata.ObjectMetadataBuilder meta = ObjectMetadata.builder()
+            .bucket(bucket);
+        for ( JsonParser.Event event = parser.next(); END_OBJECT != event; event = parser.next() ) {
+            String field = parser.getString();
+            event = parser.next();
+            switch ( field ) {
+            case "path": path = getString(parser, event); break;
+            case "name": name = getString(parser, event); break;
+            case "modified": modified = getString(parser, event); break;
+            case "size": meta.contentLength(getLong(parser, event)); break;
+            case "actual_md5": meta.contentMD5(getString(parser, event)); break;
+            case "actual_sha1":
+                String sha1 = getString(parser, event);
+                meta.contentSHA1(sha1).etag(sha1);
+                break;
+            case "sha256": meta.contentSHA256(getString(parser, event)); break;
+            case "properties": meta.contentEncoding(parseContentEncoding(parser, event)); break;
+            default: skip(parser, event);
             }
+        }
+        if ( null == name ) return null;
+        return meta
+            .key(isEmpty(path) || ".".equals(path) ? name : path + "/" + name)
+            .lastModified(null == modified ? null : parseDateTime(modified).getTimeInMillis())
+            .build();
+    }
 
-            long total = getLong(getObject(obj, "range"), "total");
-            if ( total >= iterator.getPageSize() ) {
-                if ( null != offset ) {
-                    total += offset.longValue();
+    // Parses the [{"key":...,"value":...}] properties of an AQL result:
+    private static String parseContentEncoding(JsonParser parser, JsonParser.Event event) {
+        if ( START_ARRAY != event ) {
+            skip(parser, event);
+            return null;
+        }
+        String contentEncoding = null;
+        for ( event = parser.next(); END_ARRAY != event; event = parser.next() ) {
+            if ( START_OBJECT != event ) {
+                skip(parser, event);
+                continue;
+            }
+            String key = null;
+            String value = null;
+            for ( event = parser.next(); END_OBJECT != event; event = parser.next() ) {
+                String field = parser.getString();
+                event = parser.next();
+                switch ( field ) {
+                case "key": key = getString(parser, event); break;
+                case "value": value = getString(parser, event); break;
+                default: skip(parser, event);
                 }
-                iterator.setMarker(""+total);
-            } else {
-                iterator.setMarker(null);
             }
+            if ( CONTENT_ENCODING_PROPERTY.equals(key) ) contentEncoding = value;
+        }
+        return contentEncoding;
+    }
 
-            if ( result.isEmpty() ) {
-                checkBucket(ObjectKey.builder().bucket(objectKey.getBucket()).build());
+    // Skips the value which begins with event:
+    private static void skip(JsonParser parser, JsonParser.Event event) {
+        int depth = 0;
+        while ( true ) {
+            switch ( event ) {
+            case START_OBJECT:
+            case START_ARRAY:
+                depth++;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                depth--;
+                break;
             }
+            if ( depth <= 0 ) return;
+            event = parser.next();
+        }
+    }
 
-            return Collections.unmodifiableList(result);
-        } catch ( IOException ex ) {
-            throw new UncheckedIOException(ex);
+    private static String getString(JsonParser parser, JsonParser.Event event) {
+        if ( JsonParser.Event.VALUE_STRING == event ) return parser.getString();
+        skip(parser, event);
+        return null;
+    }
+
+    private static Long getLong(JsonParser parser, JsonParser.Event event) {
+        switch ( event ) {
+        case VALUE_NUMBER:
+            return parser.getLong();
+        case VALUE_STRING:
+            return parseLong(parser.getString());
         }
+        skip(parser, event);
+        return null;
     }
 
     private static Long getLong(JsonObject obj, String field) {
@@ -425,15 +887,6 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         }
     }
 
-    private static JsonObject getObject(JsonArray arr, int idx) {
-        if ( null == arr ) return null;
-        try {
-            return arr.getJsonObject(idx);
-        } catch ( IndexOutOfBoundsException|ClassCastException ex ) {
-            return null;
-        }
-    }
-
     private static JsonObject getObject(JsonObject obj, String field) {
         if ( null == obj ) return null;
         try {
@@ -443,20 +896,20 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         }
     }
 
-    private static JsonArray getArray(JsonObject obj, String field) {
-        if ( null == obj ) return null;
-        try {
-            return obj.getJsonArray(field);
-        } catch ( ClassCastException ex ) {
-            return null;
-        }
-    }
-
     @Override
     public void delete(ObjectKey objectKey)
         throws EntityNotFoundException
     {
-        Request req = new Request.Builder()
+        execute(deleteRequest(objectKey), (res) -> handleDelete(res, objectKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(ObjectKey objectKey) {
+        return enqueue(deleteRequest(objectKey), (res) -> handleDelete(res, objectKey));
+    }
+
+    private Request deleteRequest(ObjectKey objectKey) {
+        return new Request.Builder()
             .delete()
             .url(url()
                  .addPathSegment("artifactory")
@@ -464,13 +917,64 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
                  .addPathSegment(objectKey.getKey())
                  .build())
             .build();
-        try ( Response res = _client.newCall(req).execute() ) {
-            if ( 404 != res.code() ) {
-                handleErrors(res, objectKey, true);
+    }
+
+    private Void handleDelete(Response res, ObjectKey objectKey) throws IOException {
+        if ( 404 != res.code() ) {
+            handleErrors(res, objectKey, true);
+        }
+        return null;
+    }
+
+    // Artifactory has no batch delete, so delete concurrently:
+    @Override
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys) {
+        return deleteAll(objectKeys, getExecutor(), DELETE_CONCURRENCY);
+    }
+
+    /**
+     * A prefix ending in "/" is a folder, which Artifactory deletes in a
+     * single request. Otherwise, since the list marker is an offset which
+     * deletes would invalidate, the keys are listed before deleting them.
+     */
+    @Override
+    public Map<ObjectKey, Exception> deletePrefix(ObjectKey prefix) {
+        if ( prefix.getKey().endsWith("/") && prefix.getKey().length() > 1 ) {
+            try {
+                delete(ObjectKey.builder()
+                       .bucket(prefix.getBucket())
+                       .key(prefix.getKey().substring(0, prefix.getKey().length()-1))
+                       .build());
+            } catch ( RuntimeException ex ) {
+                return Collections.singletonMap(prefix, ex);
             }
-        } catch ( IOException ex ) {
-            throw new UncheckedIOException(ex);
+            return Collections.emptyMap();
+        }
+        List<ObjectKey> keys = new ArrayList<>();
+        for ( PageIterator it : new PageIterator().pageSize(1000) ) {
+            keys.addAll(list(prefix, it));
         }
+        return deleteAll(keys);
+    }
+
+    // Uses the copy API, so the content (and contentEncoding property) is copied by Artifactory:
+    @Override
+    public void copy(ObjectKey from, ObjectKey to)
+        throws EntityNotFoundException
+    {
+        Request req = new Request.Builder()
+            .post(RequestBody.create(null, new byte[0]))
+            .url(url()
+                 .addPathSegments("artifactory/api/copy")
+                 .addPathSegment(from.getBucket())
+                 .addPathSegment(from.getKey())
+                 .addQueryParameter("to", "/"+to.getBucket()+"/"+to.getKey())
+                 .build())
+            .build();
+        execute(req, (res) -> {
+                handleErrors(res, from, true);
+                return null;
+            });
     }
 
     @Override
@@ -487,23 +991,31 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
             .uri();
     }
 
+    // The contentEncoding is a property of the .KEY until completePut():
     @Override
-    public ObjectPartKey newMultipartPut(ObjectKey objectKey) {
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding) {
         ObjectPartKey partKey = ObjectPartKey.builder()
             .bucket(objectKey.getBucket())
             .key(objectKey.getKey())
             .uploadId(CompactUUID.randomUUID()+"")
             .build();
 
-        ObjectKey dirKey = getMultipartKey(partKey, null);
-        put(ObjectKey.builder()
-            .bucket(dirKey.getBucket())
-            .key(dirKey.getKey())
-            .build(),
-            objectKey.getKey().getBytes(UTF_8));
+        byte[] content = objectKey.getKey().getBytes(UTF_8);
+        put(getMultipartKey(partKey, null), contentEncoding, content.length, new ByteArrayInputStream(content));
         return partKey;
     }
 
+    @Override
+    public CompletableFuture<ObjectPartKey> newMultipartPutAsync(ObjectKey objectKey) {
+        ObjectPartKey partKey = ObjectPartKey.builder()
+            .bucket(objectKey.getBucket())
+            .key(objectKey.getKey())
+            .uploadId(CompactUUID.randomUUID()+"")
+            .build();
+        return putAsync(getMultipartKey(partKey, null), objectKey.getKey().getBytes(UTF_8))
+            .thenApply((ignored) -> partKey);
+    }
+
     private ObjectKey getMultipartKey(ObjectPartKey partKey, Integer partNum) {
         String suffix = ( null == partNum ) ?
             ".KEY" : String.format("%03d.part", partNum);
@@ -521,6 +1033,10 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         } catch ( IOException ex ) {
             throw new UncheckedIOException(ex);
         }
+        validate(partKey, content);
+    }
+
+    private static void validate(ObjectPartKey partKey, byte[] content) {
         String key = new String(content, UTF_8);
         if ( ! key.equals(partKey.getKey()) ) {
             throw new EntityNotFoundException(
@@ -528,6 +1044,41 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         }
     }
 
+    private CompletableFuture<ObjectPartId> multipartPutAsync(
+        ObjectPartKey partKey, int partNum, long contentLength, Function<ObjectKey, CompletableFuture<Void>> put)
+    {
+        return getAsync(getMultipartKey(partKey, null))
+            .thenCompose((content) -> {
+                    validate(partKey, content);
+                    return put.apply(getMultipartKey(partKey, partNum));
+                })
+            .thenApply((ignored) -> ObjectPartId.builder()
+                       .partNum(partNum)
+                       .partId(""+contentLength)
+                       .build());
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
+        return multipartPutAsync(partKey, partNum, contentLength, (key) -> putAsync(key, contentLength, in));
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, File in) {
+        return multipartPutAsync(partKey, partNum, in.length(), (key) -> putAsync(key, in));
+    }
+
+    @Override
+    public CompletableFuture<ObjectPartId> multipartPutAsync(ObjectPartKey partKey, int partNum, byte[] in) {
+        return multipartPutAsync(partKey, partNum, in.length, (key) -> putAsync(key, in));
+    }
+
+    /**
+     * The partId is the content length, so completePut() does not need to
+     * head() each part. A known length is sent as the Content-Length of
+     * the part, so OkHttp fails the put if the stream has a different
+     * length. An unknown (negative) length is looked up by completePut().
+     */
     @Override
     public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
         validate(partKey);
@@ -536,6 +1087,7 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
             in);
         return ObjectPartId.builder()
             .partNum(partNum)
+            .partId(""+contentLength)
             .build();
     }
 
@@ -554,14 +1106,28 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
         validate(partKey);
 
         // [1] calculate the content length (and validate part ids):
+        List<ObjectKey> partKeys = new ArrayList<>(partIds.size());
+        long[] partLengths = new long[partIds.size()];
         long contentLength = 0;
-        for ( ObjectPartId partId : partIds ) {
+        for ( int i=0; i < partIds.size(); i++ ) {
+            ObjectPartId partId = partIds.get(i);
             if ( null == partId.getPartNum() ) {
                 throw new IllegalArgumentException(
                     "Null partNum is not allowed in completePut("+partKey+")");
             }
-            ObjectMetadata meta = head(getMultipartKey(partKey, partId.getPartNum()));
-            contentLength += meta.getContentLength();
+            ObjectKey key = getMultipartKey(partKey, partId.getPartNum());
+            Long partLength = parseLong(partId.getPartId());
+            if ( null == partLength || partLength < 0 ) {
+                ObjectMetadata meta = head(key);
+                if ( null == meta ) {
+                    throw new EntityNotFoundException(
+                        "NotFound: "+key+" endpoint="+_endpoint);
+                }
+                partLength = meta.getContentLength();
+            }
+            partKeys.add(key);
+            partLengths[i] = partLength;
+            contentLength += partLength;
         }
 
         ObjectKey objectKey = ObjectKey.builder()
@@ -569,46 +1135,110 @@ public class ArtifactoryObjectStore extends AbstractObjectStore
             .key(partKey.getKey())
             .build();
 
-        // [2] Open upload stream:
-        try ( PipedInputStream in = new PipedInputStream();
-              PipedOutputStream out = new PipedOutputStream() )
-        {
-            in.connect(out);
+        // [2] Stream the parts into a single upload:
+        String contentEncoding = getContentEncoding(getMultipartKey(partKey, null));
+        execute(putRequest(objectKey, contentEncoding, new PartsRequestBody(partKeys, partLengths, contentLength)),
+                (res) -> handlePut(res, objectKey));
 
-            long finalContentLength = contentLength;
-            Future<?> future = _executor.submit(() -> put(objectKey, finalContentLength, in));
+        // [3] Remove the parts and the upload:
+        Map<ObjectKey, Exception> failures = deleteAll(partKeys);
+        for ( Map.Entry<ObjectKey, Exception> failure : failures.entrySet() ) {
+            LOG.warn("Failed to delete part "+failure.getKey()+" of completed upload "+partKey, failure.getValue());
+        }
+        delete(getMultipartKey(partKey, null));
+    }
 
-            for ( ObjectPartId partId : partIds ) {
-                get(getMultipartKey(partKey, partId.getPartNum()),
-                    (meta, is) -> transferTo(is, out));
-            }
-            out.close();
+    /**
+     * Concatenation of the parts of a multipart put. While a part is
+     * streamed into the upload, the GET of the next part is already in
+     * flight so the upload does not stall between parts. Okio moves the
+     * buffered segments of each part response into the upload without
+     * copying them through an intermediate byte[].
+     */
+    private class PartsRequestBody extends RequestBody {
+        private final List<ObjectKey> _partKeys;
+        private final long[] _partLengths;
+        private final long _contentLength;
+
+        private PartsRequestBody(List<ObjectKey> partKeys, long[] partLengths, long contentLength) {
+            _partKeys = partKeys;
+            _partLengths = partLengths;
+            _contentLength = contentLength;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return DEFAULT_BINARY;
+        }
+
+        @Override
+        public long contentLength() {
+            return _contentLength;
+        }
+
+        // May be called more than once if OkHttp retries the upload:
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            CompletableFuture<Response> next = _partKeys.isEmpty() ? null : open(_partKeys.get(0));
             try {
-                future.get();
-            } catch ( InterruptedException|ExecutionException ex ) {
-                // TODO: Handle these differently?
-                throw new RuntimeException(ex);
+                for ( int i=0; i < _partKeys.size(); i++ ) {
+                    CompletableFuture<Response> current = next;
+                    next = ( i+1 < _partKeys.size() ) ? open(_partKeys.get(i+1)) : null;
+                    try ( Response res = join(current) ) {
+                        handleErrors(res, _partKeys.get(i), false);
+                        long length = transferTo(res.body().source(), sink);
+                        if ( length != _partLengths[i] ) {
+                            throw new IOException(
+                                "Expected "+_partLengths[i]+" bytes in "+_partKeys.get(i)+", but got "+length);
+                        }
+                    }
+                }
+            } finally {
+                if ( null != next ) {
+                    next.whenComplete((res, ex) -> {
+                            if ( null != res ) res.close();
+                        });
+                }
             }
-        } catch ( IOException ex ) {
-            throw new UncheckedIOException(ex);
         }
+    }
 
-        // [3] Iterate over the parts and push to the upload stream.
-        abortPut(partKey);
+    // Starts a GET of the full object, the caller must close the response:
+    private CompletableFuture<Response> open(ObjectKey objectKey) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        _client.newCall(getRequest(objectKey, null, null)).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException ex) {
+                    future.completeExceptionally(ex);
+                }
+                @Override
+                public void onResponse(Call call, Response res) {
+                    future.complete(res);
+                }
+            });
+        return future;
+    }
+
+    private static Response join(CompletableFuture<Response> future) throws IOException {
+        try {
+            return future.get();
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch ( ExecutionException ex ) {
+            if ( ex.getCause() instanceof IOException ) {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
     }
 
-    private long transferTo(InputStream is, OutputStream out) throws IOException {
+    private static long transferTo(BufferedSource source, BufferedSink sink) throws IOException {
         long total = 0L;
-        byte[] buf = new byte[8192];
-        int n;
-        while ((n = is.read(buf)) > 0) {
-            out.write(buf, 0, n);
+        long n;
+        while ( (n = source.read(sink.buffer(), TRANSFER_SIZE)) != -1 ) {
             total += n;
-            if ( Thread.interrupted() ) {
-                InterruptedIOException ex = new InterruptedIOException();
-                ex.bytesTransferred = (int)total;
-                throw ex;
-            }
+            sink.emitCompleteSegments();
         }
         return total;
     }
@@ -0,0 +1,505 @@
+package com.distelli.objectStore.impl.cache;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.AbstractObjectStore;
+import com.distelli.objectStore.impl.ObjectStoreBuilder;
+import com.distelli.objectStore.impl.disk.LimitingInputStream;
+import com.distelli.persistence.PageIterator;
+import com.google.inject.assistedinject.Assisted;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.persistence.EntityNotFoundException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static javax.xml.bind.DatatypeConverter.printHexBinary;
+
+/**
+ * Read-through cache of objects in a local directory in front of another
+ * ObjectStore, intended for immutable artifacts which are fetched over
+ * and over.
+ *
+ * Every get() calls head() on the backend and only uses the cached copy
+ * if the contentLength, contentMD5, lastModified and etag still match
+ * (fields the backend does not report are not compared). Concurrent misses of
+ * the same object are coalesced into a single download, and ranged gets
+ * are served from the cached copy of the whole object. The least
+ * recently used objects are evicted once the cache exceeds maxSize, and
+ * objects larger than maxSize bypass the cache.
+ *
+ * Writes go to the backend and remove the cached copy. Only a single
+ * process may use a cache directory at a time.
+ */
+public class CachingObjectStore extends AbstractObjectStore {
+    private static final long DEFAULT_MAX_SIZE = 10L*1024*1024*1024;
+    private static final String META_POSTFIX = ".meta";
+    private static final String TMP_POSTFIX = ".tmp";
+
+    public interface Factory {
+        public CachingObjectStore create(ObjectStore backend, ObjectStoreBuilder builder);
+    }
+
+    // What the backend reported when the object was cached:
+    private static class Entry {
+        private final long _contentLength;
+        private final String _contentMD5;
+        private final Long _lastModified;
+        private final String _etag;
+
+        private Entry(long contentLength, String contentMD5, Long lastModified, String etag) {
+            _contentLength = contentLength;
+            _contentMD5 = contentMD5;
+            _lastModified = lastModified;
+            _etag = etag;
+        }
+
+        private boolean matches(ObjectMetadata meta) {
+            if ( null == meta.getContentLength() || _contentLength != meta.getContentLength() ) return false;
+            if ( null != meta.getContentMD5() && ! meta.getContentMD5().equalsIgnoreCase(_contentMD5) ) return false;
+            if ( null != meta.getLastModified() && ! meta.getLastModified().equals(_lastModified) ) return false;
+            if ( null != meta.getEtag() && ! meta.getEtag().equals(_etag) ) return false;
+            return true;
+        }
+
+        private String format() {
+            return _contentLength + "\t" +
+                ( null == _contentMD5 ? "" : _contentMD5 ) + "\t" +
+                ( null == _lastModified ? "" : _lastModified ) + "\t" +
+                ( null == _etag ? "" : _etag );
+        }
+
+        // Returns null if the line is not valid. Lines without the etag
+        // were written by earlier versions:
+        private static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if ( 3 != fields.length && 4 != fields.length ) return null;
+            try {
+                return new Entry(
+                    Long.parseLong(fields[0]),
+                    fields[1].isEmpty() ? null : fields[1],
+                    fields[2].isEmpty() ? null : Long.parseLong(fields[2]),
+                    ( 3 == fields.length || fields[3].isEmpty() ) ? null : fields[3]);
+            } catch ( NumberFormatException ex ) {
+                return null;
+            }
+        }
+    }
+
+    private final ObjectStore _backend;
+    private final Path _root;
+    private final long _maxSize;
+    // Guarded by itself, iterates from least to most recently used. The
+    // files of an entry are only created or removed while holding the
+    // monitor and not in this map:
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long _size = 0;
+    private final ConcurrentMap<String, CompletableFuture<Void>> _downloads = new ConcurrentHashMap<>();
+
+    @Inject
+    public CachingObjectStore(@Assisted ObjectStore backend, @Assisted ObjectStoreBuilder builder) {
+        this(backend,
+             builder.getCacheDirectory(),
+             null == builder.getCacheMaxSize() ? DEFAULT_MAX_SIZE : builder.getCacheMaxSize());
+    }
+
+    public CachingObjectStore(ObjectStore backend, File cacheDirectory, long maxSize) {
+        if ( null == cacheDirectory ) {
+            throw new IllegalArgumentException("Invalid cache directory: "+cacheDirectory);
+        }
+        if ( maxSize < 1 ) {
+            throw new IllegalArgumentException("cacheMaxSize must be >= 1, got "+maxSize);
+        }
+        _backend = backend;
+        _root = cacheDirectory.toPath();
+        _maxSize = maxSize;
+        try {
+            Files.createDirectories(_root);
+            load();
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void createBucket(String bucketName) {
+        _backend.createBucket(bucketName);
+    }
+
+    @Override
+    public void deleteBucket(String bucketName) {
+        _backend.deleteBucket(bucketName);
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
+        _backend.put(objectKey, contentEncoding, contentLength, in);
+        remove(toId(objectKey));
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, File in) throws IOException {
+        _backend.put(objectKey, in);
+        remove(toId(objectKey));
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, byte[] in) {
+        _backend.put(objectKey, in);
+        remove(toId(objectKey));
+    }
+
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in) {
+        boolean written = _backend.putIfMatch(objectKey, etag, contentEncoding, contentLength, in);
+        remove(toId(objectKey));
+        return written;
+    }
+
+    @Override
+    public void copy(ObjectKey from, ObjectKey to) {
+        _backend.copy(from, to);
+        remove(toId(to));
+    }
+
+    @Override
+    public ObjectMetadata head(ObjectKey objectKey) {
+        return _backend.head(objectKey);
+    }
+
+    // Ranges have the same semantics as those of the backend:
+    @Override
+    public boolean isRangeEndInclusive() {
+        return _backend.isRangeEndInclusive();
+    }
+
+    @Override
+    public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        ObjectMetadata meta = _backend.head(objectKey);
+        if ( null == meta ) {
+            throw new EntityNotFoundException("NotFound: "+objectKey);
+        }
+        return get(objectKey, meta, objectReader, start, end);
+    }
+
+    // Only the head() of the backend is needed to find the object was not modified:
+    @Override
+    public <T> T getIfNoneMatch(ObjectKey objectKey, String etag, ObjectReader<T> objectReader)
+        throws EntityNotFoundException, IOException
+    {
+        ObjectMetadata meta = _backend.head(objectKey);
+        if ( null == meta ) {
+            throw new EntityNotFoundException("NotFound: "+objectKey);
+        }
+        if ( null != etag && etag.equals(meta.getEtag()) ) return null;
+        return get(objectKey, meta, objectReader, null, null);
+    }
+
+    private <T> T get(ObjectKey objectKey, ObjectMetadata meta, ObjectReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        if ( null == meta.getContentLength() || meta.getContentLength() > _maxSize ) {
+            return _backend.get(objectKey, objectReader, start, end);
+        }
+        FileChannel channel = open(objectKey, meta);
+        if ( null == channel ) {
+            // The object was modified during the download:
+            return _backend.get(objectKey, objectReader, start, end);
+        }
+        try ( FileChannel in = channel ) {
+            long size = meta.getContentLength();
+            long from = null == start ? 0 : Math.min(start, size);
+            long to = null == end ? size : Math.min(_backend.isRangeEndInclusive() ? end + 1 : end, size);
+            if ( to < from ) {
+                throw new IllegalArgumentException("end ["+end+"] cannot be less than start ["+start+"]");
+            }
+            in.position(from);
+            return objectReader.read(
+                ObjectMetadata.builder()
+                .bucket(objectKey.getBucket())
+                .key(objectKey.getKey())
+                .contentLength(to - from)
+                .contentMD5(meta.getContentMD5())
+                .lastModified(meta.getLastModified())
+                .etag(meta.getEtag())
+                .contentEncoding(meta.getContentEncoding())
+                .build(),
+                new LimitingInputStream(Channels.newInputStream(in), to - from));
+        }
+    }
+
+    @Override
+    public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator) {
+        return _backend.list(objectKey, iterator);
+    }
+
+    @Override
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator) {
+        return _backend.listMetadata(objectKey, iterator);
+    }
+
+    @Override
+    public Stream<ObjectMetadata> stream(ObjectKey prefix) {
+        return _backend.stream(prefix);
+    }
+
+    @Override
+    public void delete(ObjectKey objectKey) {
+        _backend.delete(objectKey);
+        remove(toId(objectKey));
+    }
+
+    @Override
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys) {
+        Map<ObjectKey, Exception> failures = _backend.deleteAll(objectKeys);
+        for ( ObjectKey objectKey : objectKeys ) {
+            remove(toId(objectKey));
+        }
+        return failures;
+    }
+
+    // Cached copies of the deleted objects are no longer returned since
+    // head() fails, they are evicted as the cache fills:
+    @Override
+    public Map<ObjectKey, Exception> deletePrefix(ObjectKey prefix) {
+        return _backend.deletePrefix(prefix);
+    }
+
+    @Override
+    public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit) {
+        return _backend.createSignedGet(objectKey, timeout, unit);
+    }
+
+    @Override
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding) {
+        return _backend.newMultipartPut(objectKey, contentEncoding);
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
+        return _backend.multipartPut(partKey, partNum, contentLength, in);
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, File in) throws IOException {
+        return _backend.multipartPut(partKey, partNum, in);
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, byte[] in) {
+        return _backend.multipartPut(partKey, partNum, in);
+    }
+
+    @Override
+    public void abortPut(ObjectPartKey partKey) {
+        _backend.abortPut(partKey);
+    }
+
+    @Override
+    public void completePut(ObjectPartKey partKey, List<ObjectPartId> partKeys) {
+        _backend.completePut(partKey, partKeys);
+        remove(toId(ObjectKey.builder()
+                    .bucket(partKey.getBucket())
+                    .key(partKey.getKey())
+                    .build()));
+    }
+
+    /**
+     * Opens the cached copy if it matches meta, otherwise downloads it
+     * (or waits for a concurrent download of the same object).
+     *
+     * @return null if the object was modified since meta was obtained.
+     */
+    private FileChannel open(ObjectKey objectKey, ObjectMetadata meta) throws IOException {
+        String id = toId(objectKey);
+        while ( true ) {
+            if ( isCached(id, meta) ) {
+                try {
+                    return FileChannel.open(_root.resolve(id), READ);
+                } catch ( NoSuchFileException ex ) {
+                    // Removed since isCached(), try again.
+                    continue;
+                }
+            }
+            CompletableFuture<Void> download = new CompletableFuture<>();
+            CompletableFuture<Void> existing = _downloads.putIfAbsent(id, download);
+            if ( null != existing ) {
+                await(existing, objectKey);
+                continue;
+            }
+            try {
+                boolean cached = download(objectKey, id, meta);
+                download.complete(null);
+                if ( ! cached ) return null;
+            } catch ( Throwable ex ) {
+                download.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                _downloads.remove(id, download);
+            }
+        }
+    }
+
+    // Returns false if the downloaded object does not match meta.
+    private boolean download(ObjectKey objectKey, String id, ObjectMetadata meta) throws IOException {
+        String tmpId = String.format("%s.%016x", id, ThreadLocalRandom.current().nextLong());
+        Path tmpFile = _root.resolve(tmpId + TMP_POSTFIX);
+        Path tmpMetaFile = _root.resolve(tmpId + META_POSTFIX + TMP_POSTFIX);
+        try {
+            _backend.get(objectKey, tmpFile.toFile());
+            if ( Files.size(tmpFile) != meta.getContentLength() ) return false;
+            Entry entry = new Entry(meta.getContentLength(), meta.getContentMD5(), meta.getLastModified(), meta.getEtag());
+            Files.write(tmpMetaFile, entry.format().getBytes(UTF_8));
+            synchronized ( _entries ) {
+                removeLocked(id);
+                Files.move(tmpFile, _root.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmpMetaFile, _root.resolve(id + META_POSTFIX), StandardCopyOption.ATOMIC_MOVE);
+                _entries.put(id, entry);
+                _size += entry._contentLength;
+                evictLocked(id);
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(tmpFile);
+            Files.deleteIfExists(tmpMetaFile);
+        }
+    }
+
+    private boolean isCached(String id, ObjectMetadata meta) {
+        synchronized ( _entries ) {
+            Entry entry = _entries.get(id);
+            return null != entry && entry.matches(meta);
+        }
+    }
+
+    private void remove(String id) {
+        synchronized ( _entries ) {
+            try {
+                removeLocked(id);
+            } catch ( IOException ex ) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private void removeLocked(String id) throws IOException {
+        Entry entry = _entries.remove(id);
+        if ( null == entry ) return;
+        _size -= entry._contentLength;
+        Files.deleteIfExists(_root.resolve(id + META_POSTFIX));
+        Files.deleteIfExists(_root.resolve(id));
+    }
+
+    // Evicts least recently used entries other than keepId until the
+    // cache fits in _maxSize:
+    private void evictLocked(String keepId) throws IOException {
+        Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator();
+        while ( _size > _maxSize && it.hasNext() ) {
+            Map.Entry<String, Entry> elm = it.next();
+            if ( elm.getKey().equals(keepId) ) continue;
+            it.remove();
+            _size -= elm.getValue()._contentLength;
+            Files.deleteIfExists(_root.resolve(elm.getKey() + META_POSTFIX));
+            Files.deleteIfExists(_root.resolve(elm.getKey()));
+        }
+    }
+
+    // Loads the entries left by a previous process in least recently
+    // modified order, removing incomplete entries and temporary files:
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try ( DirectoryStream<Path> dir = Files.newDirectoryStream(_root) ) {
+            for ( Path file : dir ) {
+                files.add(file);
+            }
+        }
+        List<Path> dataFiles = new ArrayList<>();
+        for ( Path file : files ) {
+            String name = file.getFileName().toString();
+            if ( name.endsWith(TMP_POSTFIX) ) {
+                Files.deleteIfExists(file);
+            } else if ( name.endsWith(META_POSTFIX) ) {
+                if ( ! Files.exists(_root.resolve(name.substring(0, name.length() - META_POSTFIX.length()))) ) {
+                    Files.deleteIfExists(file);
+                }
+            } else {
+                dataFiles.add(file);
+            }
+        }
+        dataFiles.sort(Comparator.comparingLong((file) -> file.toFile().lastModified()));
+        synchronized ( _entries ) {
+            for ( Path file : dataFiles ) {
+                String id = file.getFileName().toString();
+                Path metaFile = _root.resolve(id + META_POSTFIX);
+                Entry entry = null;
+                if ( Files.exists(metaFile) ) {
+                    entry = Entry.parse(new String(Files.readAllBytes(metaFile), UTF_8));
+                }
+                if ( null == entry || entry._contentLength != Files.size(file) ) {
+                    Files.deleteIfExists(metaFile);
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                _entries.put(id, entry);
+                _size += entry._contentLength;
+            }
+            evictLocked(null);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> download, ObjectKey objectKey) throws IOException {
+        try {
+            download.get();
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for download of "+objectKey);
+        } catch ( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if ( cause instanceof IOException ) throw (IOException)cause;
+            if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+            if ( cause instanceof Error ) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static String toId(ObjectKey objectKey) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException(ex);
+        }
+        md.update(objectKey.getBucket().getBytes(UTF_8));
+        md.update((byte)0);
+        md.update(objectKey.getKey().getBytes(UTF_8));
+        return printHexBinary(md.digest()).toLowerCase();
+    }
+}
@@ -0,0 +1,309 @@
+package com.distelli.objectStore.impl.compress;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.AbstractObjectStore;
+import com.distelli.objectStore.impl.MultipartUploader;
+import com.distelli.objectStore.impl.ObjectStoreBuilder;
+import com.distelli.persistence.PageIterator;
+import com.google.inject.assistedinject.Assisted;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.persistence.EntityNotFoundException;
+
+/**
+ * Compresses objects put in another ObjectStore and decompresses them
+ * when they are read.
+ *
+ * The content is compressed as it is uploaded, so the compressed length
+ * is not known up front. Content which compresses to less than a part is
+ * stored with a single put(), anything larger is uploaded as a multipart
+ * put by the MultipartUploader. putIfMatch() compresses into a temporary
+ * file first, since the backend must know the length to make the write
+ * conditional.
+ *
+ * The codec is recorded as the contentEncoding of the stored object and
+ * objects are decompressed with the codec they were written with.
+ * Objects without a contentEncoding (put before compression was enabled,
+ * or by multipartPut() which is passed through as is) are read as they
+ * are, so compression can be turned on for an existing bucket. Content
+ * passed with an explicit contentEncoding is already encoded, so it is
+ * stored as is.
+ *
+ * head(), listMetadata() and signed gets report the stored (compressed)
+ * object, including its contentEncoding. The ObjectMetadata passed to an
+ * ObjectReader describes the content it reads: for a compressed object
+ * it has no contentLength or checksums, since those describe the
+ * compressed content. Ranged gets of a compressed object throw
+ * UnsupportedOperationException, since a range of the decompressed
+ * content can only be found by decompressing everything before it.
+ */
+public class CompressingObjectStore extends AbstractObjectStore {
+    public interface Factory {
+        public CompressingObjectStore create(ObjectStore backend, ObjectStoreBuilder builder);
+    }
+
+    private final ObjectStore _backend;
+    private final String _codecName;
+    private final CompressionCodec _codec;
+    private final Map<String, CompressionCodec> _codecs;
+    private final ExecutorService _executor;
+
+    @Inject
+    public CompressingObjectStore(@Assisted ObjectStore backend,
+                                  @Assisted ObjectStoreBuilder builder,
+                                  Map<String, CompressionCodec> codecs,
+                                  ExecutorService executor)
+    {
+        this(backend, builder.getCompressionCodec(), codecs, executor);
+    }
+
+    /**
+     * @param codecName is the codec used to compress new objects.
+     * @param codecs are the codecs by name, used to decompress objects
+     *     written with any of them.
+     * @param executor uploads the parts of large objects.
+     */
+    public CompressingObjectStore(ObjectStore backend,
+                                  String codecName,
+                                  Map<String, CompressionCodec> codecs,
+                                  ExecutorService executor)
+    {
+        if ( null == codecName || null == codecs.get(codecName) ) {
+            throw new IllegalArgumentException(
+                "Unknown compressionCodec="+codecName+", expected one of "+codecs.keySet());
+        }
+        if ( null == executor ) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        _backend = backend;
+        _codecName = codecName;
+        _codec = codecs.get(codecName);
+        _codecs = Collections.unmodifiableMap(new HashMap<>(codecs));
+        _executor = executor;
+    }
+
+    public String getCodecName() {
+        return _codecName;
+    }
+
+    @Override
+    public void createBucket(String bucketName) {
+        _backend.createBucket(bucketName);
+    }
+
+    @Override
+    public void deleteBucket(String bucketName) {
+        _backend.deleteBucket(bucketName);
+    }
+
+    // contentLength is ignored since the compressed length is not known:
+    @Override
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
+        if ( null != contentEncoding ) {
+            _backend.put(objectKey, contentEncoding, contentLength, in);
+            return;
+        }
+        try ( InputStream compressed = _codec.compress(in) ) {
+            new MultipartUploader(_executor).put(_backend, objectKey, _codecName, compressed);
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, File in) throws IOException {
+        try ( InputStream compressed = _codec.compress(new FileInputStream(in)) ) {
+            new MultipartUploader(_executor).put(_backend, objectKey, _codecName, compressed);
+        }
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, byte[] in) {
+        put(objectKey, in.length, new ByteArrayInputStream(in));
+    }
+
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in) {
+        if ( null != contentEncoding ) {
+            return _backend.putIfMatch(objectKey, etag, contentEncoding, contentLength, in);
+        }
+        try {
+            Path tmpFile = Files.createTempFile("compressed", ".tmp");
+            try {
+                try ( InputStream compressed = _codec.compress(in) ) {
+                    Files.copy(compressed, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try ( InputStream compressed = new FileInputStream(tmpFile.toFile()) ) {
+                    return _backend.putIfMatch(objectKey, etag, _codecName, Files.size(tmpFile), compressed);
+                }
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void copy(ObjectKey from, ObjectKey to) {
+        _backend.copy(from, to);
+    }
+
+    @Override
+    public ObjectMetadata head(ObjectKey objectKey) {
+        return _backend.head(objectKey);
+    }
+
+    // Ranges have the same semantics as those of the backend:
+    @Override
+    public boolean isRangeEndInclusive() {
+        return _backend.isRangeEndInclusive();
+    }
+
+    /**
+     * Ranges of objects without a contentEncoding are read from the
+     * backend as is.
+     *
+     * @throws UnsupportedOperationException if a range of a compressed
+     *     object is requested.
+     */
+    @Override
+    public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        if ( null == start && null == end ) {
+            return _backend.get(objectKey, (meta, in) -> read(meta, in, objectReader));
+        }
+        return _backend.get(objectKey, (meta, in) -> {
+                if ( null != meta.getContentEncoding() ) {
+                    throw new UnsupportedOperationException(
+                        "Ranged get of "+objectKey+" which is stored with contentEncoding="+meta.getContentEncoding());
+                }
+                return objectReader.read(meta, in);
+            }, start, end);
+    }
+
+    @Override
+    public <T> T getIfNoneMatch(ObjectKey objectKey, String etag, ObjectReader<T> objectReader)
+        throws EntityNotFoundException, IOException
+    {
+        return _backend.getIfNoneMatch(objectKey, etag, (meta, in) -> read(meta, in, objectReader));
+    }
+
+    // The decompressed length is not known, so read until the end:
+    @Override
+    public byte[] get(ObjectKey objectKey) throws IOException, EntityNotFoundException {
+        return get(objectKey, (meta, in) -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[64*1024];
+                for ( int len; (len = in.read(buf)) > 0; ) {
+                    out.write(buf, 0, len);
+                }
+                return out.toByteArray();
+            });
+    }
+
+    @Override
+    public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator) {
+        return _backend.list(objectKey, iterator);
+    }
+
+    @Override
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator) {
+        return _backend.listMetadata(objectKey, iterator);
+    }
+
+    @Override
+    public Stream<ObjectMetadata> stream(ObjectKey prefix) {
+        return _backend.stream(prefix);
+    }
+
+    @Override
+    public void delete(ObjectKey objectKey) {
+        _backend.delete(objectKey);
+    }
+
+    @Override
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys) {
+        return _backend.deleteAll(objectKeys);
+    }
+
+    @Override
+    public Map<ObjectKey, Exception> deletePrefix(ObjectKey prefix) {
+        return _backend.deletePrefix(prefix);
+    }
+
+    // The signed get returns the stored (compressed) content:
+    @Override
+    public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit) {
+        return _backend.createSignedGet(objectKey, timeout, unit);
+    }
+
+    // Multipart puts are not compressed since each part is put independently:
+    @Override
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding) {
+        return _backend.newMultipartPut(objectKey, contentEncoding);
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
+        return _backend.multipartPut(partKey, partNum, contentLength, in);
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, File in) throws IOException {
+        return _backend.multipartPut(partKey, partNum, in);
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, byte[] in) {
+        return _backend.multipartPut(partKey, partNum, in);
+    }
+
+    @Override
+    public void abortPut(ObjectPartKey partKey) {
+        _backend.abortPut(partKey);
+    }
+
+    @Override
+    public void completePut(ObjectPartKey partKey, List<ObjectPartId> partKeys) {
+        _backend.completePut(partKey, partKeys);
+    }
+
+    // Decompresses the content of meta with the codec it was written with:
+    private <T> T read(ObjectMetadata meta, InputStream in, ObjectReader<T> objectReader) throws IOException {
+        String contentEncoding = meta.getContentEncoding();
+        if ( null == contentEncoding ) return objectReader.read(meta, in);
+        CompressionCodec codec = _codecs.get(contentEncoding);
+        if ( null == codec ) {
+            throw new IllegalStateException(
+                "Object "+meta.getBucket()+"/"+meta.getKey()+" was compressed with unknown codec="+contentEncoding);
+        }
+        return objectReader.read(
+            ObjectMetadata.builder()
+            .bucket(meta.getBucket())
+            .key(meta.getKey())
+            .lastModified(meta.getLastModified())
+            .etag(meta.getEtag())
+            .build(),
+            codec.decompress(in));
+    }
+}
@@ -0,0 +1,23 @@
+package com.distelli.objectStore.impl.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A compression format of the CompressingObjectStore. Codecs are bound
+ * by name with MapBinder.newMapBinder(binder(), String.class,
+ * CompressionCodec.class), and the name is recorded with every object
+ * compressed by the codec so it must never change.
+ */
+public interface CompressionCodec {
+    /**
+     * @return the compressed content of in, which is compressed as the
+     *     returned stream is read. Closing it closes in.
+     */
+    public InputStream compress(InputStream in) throws IOException;
+
+    /**
+     * @return the decompressed content of in. Closing it closes in.
+     */
+    public InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,64 @@
+package com.distelli.objectStore.impl.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The content is stored as a zlib stream. Unlike gzip there is no CRC of
+ * the content, and the level can be lowered to trade ratio for speed.
+ * Every level is decompressed the same way, so they share a name.
+ */
+public class DeflateCodec implements CompressionCodec {
+    public static final String NAME = "deflate";
+
+    private final int _level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level is the compression level from Deflater.BEST_SPEED to
+     *     Deflater.BEST_COMPRESSION.
+     */
+    public DeflateCodec(int level) {
+        if ( Deflater.DEFAULT_COMPRESSION != level &&
+             ( level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION ) )
+        {
+            throw new IllegalArgumentException("level must be between 1-9, got "+level);
+        }
+        _level = level;
+    }
+
+    @Override
+    public InputStream compress(InputStream in) {
+        return new DeflaterInputStream(in, new Deflater(_level), 64*1024) {
+            // The Deflater is not ours to end unless it is the default:
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return new InflaterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+}
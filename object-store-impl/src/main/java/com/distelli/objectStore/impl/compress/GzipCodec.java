@@ -0,0 +1,21 @@
+package com.distelli.objectStore.impl.compress;
+
+import com.distelli.utils.GZIPDeflaterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+// The content is stored in the gzip format, at the default compression level:
+public class GzipCodec implements CompressionCodec {
+    public static final String NAME = "gzip";
+
+    @Override
+    public InputStream compress(InputStream in) {
+        return new GZIPDeflaterInputStream(in);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new GZIPInputStream(in, 64*1024);
+    }
+}
@@ -0,0 +1,235 @@
+package com.distelli.objectStore.impl.disk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Sorted index of the objects in a single bucket, persisted as an
+ * append-only journal of put/delete records which is replayed when the
+ * index is opened and compacted once it contains mostly stale records.
+ *
+ * Callers must hold the index monitor while modifying the underlying
+ * object file AND calling put()/remove() so the index observes
+ * modifications in the same order as the file system.
+ */
+class BucketIndex {
+    public static class Entry {
+        private final long _contentLength;
+        private final long _lastModified;
+        private final String _checksum;
+        private final String _contentEncoding;
+
+        public Entry(long contentLength, long lastModified, String checksum, String contentEncoding) {
+            _contentLength = contentLength;
+            _lastModified = lastModified;
+            _checksum = checksum;
+            _contentEncoding = contentEncoding;
+        }
+
+        public long getContentLength() {
+            return _contentLength;
+        }
+
+        public long getLastModified() {
+            return _lastModified;
+        }
+
+        // May be null.
+        public String getChecksum() {
+            return _checksum;
+        }
+
+        // May be null.
+        public String getContentEncoding() {
+            return _contentEncoding;
+        }
+    }
+
+    private static final String PUT = "P";
+    private static final String DELETE = "D";
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private final Path _journal;
+    private final boolean _syncWrites;
+    private final NavigableMap<String, Entry> _entries = new ConcurrentSkipListMap<>();
+    private FileChannel _channel;
+    private Writer _writer;
+    private long _records = 0;
+
+    public BucketIndex(Path journal, boolean syncWrites) {
+        _journal = journal;
+        _syncWrites = syncWrites;
+    }
+
+    /**
+     * Replays the journal if it exists.
+     *
+     * @return false if the journal does not exist, in which case the
+     *     index is empty and should be rebuilt.
+     */
+    public synchronized boolean load() throws IOException {
+        _entries.clear();
+        _records = 0;
+        if ( ! Files.exists(_journal) ) return false;
+        try ( BufferedReader reader = Files.newBufferedReader(_journal, UTF_8) ) {
+            String line;
+            while ( null != (line = reader.readLine()) ) {
+                String[] fields = line.split("\t");
+                try {
+                    // Journals written before the contentEncoding was recorded have 5 fields:
+                    if ( PUT.equals(fields[0]) && ( fields.length == 5 || fields.length == 6 ) ) {
+                        _entries.put(decode(fields[1]), new Entry(
+                                         Long.parseLong(fields[2]),
+                                         Long.parseLong(fields[3]),
+                                         "-".equals(fields[4]) ? null : fields[4],
+                                         fields.length < 6 ? null : decode(fields[5])));
+                    } else if ( DELETE.equals(fields[0]) && fields.length == 2 ) {
+                        _entries.remove(decode(fields[1]));
+                    } else {
+                        // Torn final record from a crash, ignore it.
+                        continue;
+                    }
+                } catch ( IllegalArgumentException ex ) {
+                    continue;
+                }
+                _records++;
+            }
+        }
+        // Rewrite so a torn final record is never appended to:
+        compact();
+        return true;
+    }
+
+    public Entry get(String key) {
+        return _entries.get(key);
+    }
+
+    /**
+     * @return a live view of all entries with keys &gt;= fromKey.
+     */
+    public NavigableMap<String, Entry> tailMap(String fromKey) {
+        return _entries.tailMap(fromKey, true);
+    }
+
+    public synchronized void put(String key, Entry entry) throws IOException {
+        append(toPutRecord(key, entry));
+        _entries.put(key, entry);
+        maybeCompact();
+    }
+
+    public synchronized void remove(String key) throws IOException {
+        if ( null == _entries.remove(key) ) return;
+        append(DELETE+"\t"+encode(key));
+        maybeCompact();
+    }
+
+    /**
+     * Replace the content of this index and rewrite the journal.
+     */
+    public synchronized void reset(Map<String, Entry> entries) throws IOException {
+        _entries.clear();
+        _entries.putAll(entries);
+        compact();
+    }
+
+    public synchronized void delete() throws IOException {
+        closeWriter();
+        _entries.clear();
+        _records = 0;
+        Files.deleteIfExists(_journal);
+    }
+
+    private void append(String record) throws IOException {
+        if ( null == _writer ) {
+            Files.createDirectories(_journal.getParent());
+            _channel = FileChannel.open(_journal, WRITE, CREATE, APPEND);
+            _writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(_channel), UTF_8));
+        }
+        _writer.write(record);
+        _writer.write('\n');
+        _writer.flush();
+        if ( _syncWrites ) _channel.force(false);
+        _records++;
+    }
+
+    private void maybeCompact() throws IOException {
+        if ( _records < MIN_COMPACT_RECORDS || _records < 2L*_entries.size() ) return;
+        compact();
+    }
+
+    private void compact() throws IOException {
+        closeWriter();
+        Files.createDirectories(_journal.getParent());
+        Path tmpFile = _journal.resolveSibling(_journal.getFileName()+".tmp");
+        Files.deleteIfExists(tmpFile);
+        boolean success = false;
+        try {
+            try ( FileChannel channel = FileChannel.open(tmpFile, WRITE, CREATE_NEW);
+                  Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), UTF_8)) )
+            {
+                for ( Map.Entry<String, Entry> elm : _entries.entrySet() ) {
+                    writer.write(toPutRecord(elm.getKey(), elm.getValue()));
+                    writer.write('\n');
+                }
+                writer.flush();
+                if ( _syncWrites ) channel.force(false);
+            }
+            Files.move(tmpFile, _journal, StandardCopyOption.ATOMIC_MOVE);
+            success = true;
+        } finally {
+            if ( ! success ) Files.deleteIfExists(tmpFile);
+        }
+        _records = _entries.size();
+    }
+
+    private void closeWriter() throws IOException {
+        if ( null == _writer ) return;
+        try {
+            _writer.close();
+        } finally {
+            _writer = null;
+            _channel = null;
+        }
+    }
+
+    private static String toPutRecord(String key, Entry entry) {
+        return PUT+"\t"+encode(key)+"\t"+entry.getContentLength()+"\t"+entry.getLastModified()+"\t"+
+            (null == entry.getChecksum() ? "-" : entry.getChecksum())+
+            (null == entry.getContentEncoding() ? "" : "\t"+encode(entry.getContentEncoding()));
+    }
+
+    private static String encode(String key) {
+        try {
+            return URLEncoder.encode(key, "UTF-8");
+        } catch ( UnsupportedEncodingException ex ) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String decode(String key) {
+        try {
+            return URLDecoder.decode(key, "UTF-8");
+        } catch ( UnsupportedEncodingException ex ) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
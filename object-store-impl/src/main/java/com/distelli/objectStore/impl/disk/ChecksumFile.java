@@ -0,0 +1,121 @@
+package com.distelli.objectStore.impl.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The MD5 of an object file, stored in a "&lt;objFile&gt;.md5" sidecar.
+ *
+ * The sidecar is written before the object is renamed into place, so it
+ * also records the size, mtime and file key of the object file it
+ * describes. A sidecar which does not describe the current object file
+ * (a crash happened between the two renames) is ignored.
+ */
+class ChecksumFile {
+    public static final String POSTFIX = ".md5";
+
+    private final String _md5;
+    private final long _size;
+    private final long _lastModified;
+    private final String _fileKey;
+
+    private ChecksumFile(String md5, long size, long lastModified, String fileKey) {
+        _md5 = md5;
+        _size = size;
+        _lastModified = lastModified;
+        _fileKey = fileKey;
+    }
+
+    public String getMD5() {
+        return _md5;
+    }
+
+    public boolean describes(BasicFileAttributes attrs) {
+        return _size == attrs.size() &&
+            _lastModified == attrs.lastModifiedTime().toMillis() &&
+            Objects.equals(_fileKey, toString(attrs.fileKey()));
+    }
+
+    /**
+     * @return the checksum of objFile, or null if there is no valid
+     *     checksum for the current objFile.
+     */
+    public static ChecksumFile read(Path objFile) throws IOException {
+        String[] fields;
+        BasicFileAttributes attrs;
+        try {
+            fields = new String(Files.readAllBytes(toChecksumFile(objFile)), UTF_8).split("\t");
+            attrs = Files.readAttributes(objFile, BasicFileAttributes.class);
+        } catch ( NoSuchFileException ex ) {
+            return null;
+        }
+        if ( fields.length != 4 ) return null;
+        ChecksumFile checksum;
+        try {
+            checksum = new ChecksumFile(
+                fields[0],
+                Long.parseLong(fields[1]),
+                Long.parseLong(fields[2]),
+                "-".equals(fields[3]) ? null : fields[3]);
+        } catch ( NumberFormatException ex ) {
+            return null;
+        }
+        return checksum.describes(attrs) ? checksum : null;
+    }
+
+    /**
+     * @param stagedFile is the file which is about to be renamed to objFile.
+     *
+     * @param objFile is the final location of the object.
+     *
+     * @param md5 is the hex encoded MD5 of stagedFile.
+     *
+     * @param syncWrites if true the sidecar is fsync'ed.
+     */
+    public static void write(Path stagedFile, Path objFile, String md5, boolean syncWrites) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(stagedFile, BasicFileAttributes.class);
+        Object fileKey = attrs.fileKey();
+        byte[] content = (md5+"\t"+attrs.size()+"\t"+attrs.lastModifiedTime().toMillis()+"\t"+
+                          (null == fileKey ? "-" : toString(fileKey))).getBytes(UTF_8);
+        Path checksumFile = toChecksumFile(objFile);
+        Path tmpFile = checksumFile.resolveSibling(
+            String.format("%s.%016x.tmp", checksumFile.getFileName(), ThreadLocalRandom.current().nextLong()));
+        boolean success = false;
+        try {
+            try ( FileChannel out = FileChannel.open(tmpFile, WRITE, CREATE_NEW) ) {
+                ByteBuffer buf = ByteBuffer.wrap(content);
+                while ( buf.hasRemaining() ) {
+                    out.write(buf);
+                }
+                if ( syncWrites ) out.force(true);
+            }
+            Files.move(tmpFile, checksumFile, StandardCopyOption.ATOMIC_MOVE);
+            success = true;
+        } finally {
+            if ( ! success ) Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    public static void delete(Path objFile) throws IOException {
+        Files.deleteIfExists(toChecksumFile(objFile));
+    }
+
+    private static Path toChecksumFile(Path objFile) {
+        return objFile.resolveSibling(objFile.getFileName()+POSTFIX);
+    }
+
+    private static String toString(Object fileKey) {
+        return null == fileKey ? null : fileKey.toString();
+    }
+}
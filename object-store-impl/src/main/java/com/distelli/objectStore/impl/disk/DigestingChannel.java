@@ -0,0 +1,44 @@
+package com.distelli.objectStore.impl.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Updates a MessageDigest with every byte written through to the
+ * underlying channel, so the digest is computed in the same pass as
+ * the copy.
+ */
+class DigestingChannel implements WritableByteChannel {
+    private final WritableByteChannel _out;
+    private final MessageDigest _digest;
+
+    public DigestingChannel(WritableByteChannel out, MessageDigest digest) {
+        _out = out;
+        _digest = digest;
+    }
+
+    public MessageDigest getDigest() {
+        return _digest;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ByteBuffer digestSrc = src.duplicate();
+        int written = _out.write(src);
+        digestSrc.limit(digestSrc.position() + written);
+        _digest.update(digestSrc);
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return _out.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _out.close();
+    }
+}
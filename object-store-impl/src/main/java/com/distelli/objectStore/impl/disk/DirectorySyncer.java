@@ -0,0 +1,73 @@
+package com.distelli.objectStore.impl.disk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Makes renames into a directory durable by fsync'ing the directory.
+ *
+ * Concurrent callers for the same directory are batched: while one
+ * thread is in fsync() all other callers wait, and then a single
+ * fsync() is issued on behalf of every caller that arrived in the
+ * meantime.
+ */
+class DirectorySyncer {
+    private static class DirState {
+        private long _requested = 0;
+        private long _completed = 0;
+        private boolean _syncing = false;
+        private IOException _lastError = null;
+    }
+
+    private final ConcurrentMap<Path, DirState> _dirs = new ConcurrentHashMap<>();
+
+    public void sync(Path dir) throws IOException {
+        DirState state = _dirs.computeIfAbsent(dir, (ignored) -> new DirState());
+        long ticket;
+        synchronized ( state ) {
+            ticket = ++state._requested;
+        }
+        while ( true ) {
+            long upTo;
+            synchronized ( state ) {
+                while ( state._syncing && state._completed < ticket ) {
+                    try {
+                        state.wait();
+                    } catch ( InterruptedException ex ) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for fsync of "+dir);
+                    }
+                }
+                if ( state._completed >= ticket ) {
+                    if ( null != state._lastError ) throw state._lastError;
+                    return;
+                }
+                state._syncing = true;
+                upTo = state._requested;
+            }
+            IOException error = null;
+            try {
+                fsync(dir);
+            } catch ( IOException ex ) {
+                error = ex;
+            }
+            synchronized ( state ) {
+                state._syncing = false;
+                state._completed = upTo;
+                state._lastError = error;
+                state.notifyAll();
+            }
+        }
+    }
+
+    private static void fsync(Path dir) throws IOException {
+        try ( FileChannel channel = FileChannel.open(dir, READ) ) {
+            channel.force(true);
+        }
+    }
+}
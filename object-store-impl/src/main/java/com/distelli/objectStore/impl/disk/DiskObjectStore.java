@@ -11,14 +11,18 @@ import java.io.OutputStream;
 import java.util.function.Function;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Arrays;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.AccessControlException;
@@ -35,18 +39,70 @@ import com.distelli.persistence.PageIterator;
 import com.google.inject.assistedinject.Assisted;
 import java.util.concurrent.ThreadLocalRandom;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.FileVisitResult;
 import java.nio.file.StandardCopyOption;
+import java.nio.ByteBuffer;
+import com.distelli.utils.ByteBufferInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.Collection;
+import java.util.stream.Stream;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.xml.bind.DatatypeConverter.printHexBinary;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 public class DiskObjectStore extends AbstractObjectStore
 {
     private File _root = null;
     private File _bucketsRoot = null;
     private File _partsRoot = null;
+    private File _indexRoot = null;
+    private boolean _indexed = false;
+    private boolean _syncWrites = false;
+    private boolean _mappedReads = false;
+    private boolean _checksums = false;
+    private DirectorySyncer _dirSyncer = new DirectorySyncer();
+    // Shared by all instances so a write through any DiskObjectStore
+    // invalidates the mappings used by the others:
+    private static final MappedFileCache MAPPED_FILES = new MappedFileCache(1024L*1024*1024);
+    // Keyed by the index journal path, shared for the same reason:
+    private static final ConcurrentMap<Path, BucketIndex> INDEXES = new ConcurrentHashMap<>();
+    // Writes and deletes of an object file hold the lock of its stripe,
+    // shared so putIfMatch() is atomic across all instances. Reads hold
+    // it while they stat the object file, read its EncodingFile and open
+    // it so all three are of the same version:
+    private static final Object[] COMMIT_LOCKS = new Object[64];
+    static {
+        for ( int i=0; i < COMMIT_LOCKS.length; i++ ) {
+            COMMIT_LOCKS[i] = new Object();
+        }
+    }
 
     private static final String KEY_POSTFIX = ".obj";
+    private static final String TMP_POSTFIX = ".tmp";
+    private static final int DELETE_CONCURRENCY = 8;
+    // Coarsest lastModified granularity changeETag() steps through:
+    private static final long MAX_MTIME_GRANULARITY_MILLIS = 60*1000;
+
+    private interface ChannelWriter {
+        public void write(WritableByteChannel out) throws IOException;
+    }
+
+    // Checked with the commit lock of objFile held, false aborts the write:
+    private interface Precondition {
+        public boolean check(Path objFile) throws IOException;
+    }
 
     public interface Factory {
         public DiskObjectStore create(ObjectStoreBuilder builder);
@@ -78,6 +134,7 @@ public class DiskObjectStore extends AbstractObjectStore
 
         _bucketsRoot = bucketsRoot;
         _partsRoot = partsRoot;
+        _indexRoot = new File(rootDir.getAbsolutePath(), "index");
         _root = rootDir;
     }
 
@@ -85,6 +142,10 @@ public class DiskObjectStore extends AbstractObjectStore
     public DiskObjectStore(@Assisted ObjectStoreBuilder builder)
     {
         this(builder.getDiskStorageRoot());
+        _syncWrites = Boolean.TRUE.equals(builder.getDiskSyncWrites());
+        _mappedReads = Boolean.TRUE.equals(builder.getDiskMappedReads());
+        _indexed = Boolean.TRUE.equals(builder.getDiskIndex());
+        _checksums = Boolean.TRUE.equals(builder.getDiskChecksums());
         ObjectStoreType type = builder.getObjectStoreProvider();
         if(type == null || type != ObjectStoreType.DISK)
             throw(new IllegalArgumentException("Invalid ObjectStoreType: "+type));
@@ -116,13 +177,253 @@ public class DiskObjectStore extends AbstractObjectStore
             }
 
             Files.delete(bucketDir.toPath());
+            Path journal = toIndexJournal(bucketName);
+            BucketIndex index = INDEXES.remove(journal);
+            if ( null != index ) {
+                index.delete();
+            } else {
+                Files.deleteIfExists(journal);
+            }
         } catch(Throwable t) {
             throw(new AccessControlException(t.getMessage()));
         }
     }
 
     @Override
-    public void put(ObjectKey objectKey, long contentLength, InputStream in) {
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
+        File objFile = toObjFileForPut(objectKey);
+        try {
+            if ( isSeekable(in) ) {
+                // Zero-copy from the current position of the file:
+                try ( FileChannel src = ((FileInputStream)in).getChannel() ) {
+                    atomicWrite(objFile.toPath(), contentEncoding, (dst) -> transferFully(src, dst));
+                }
+                return;
+            }
+            atomicWrite(objFile.toPath(), contentEncoding, (out) -> {
+                    byte[] buf = new byte[1024*1024];
+                    int bytesRead = 0;
+                    while((bytesRead = in.read(buf)) != -1)
+                        writeFully(out, ByteBuffer.wrap(buf, 0, bytesRead));
+                });
+            in.close();
+        } catch(Throwable t) {
+            throw(new RuntimeException(t));
+        }
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, File in) throws IOException {
+        File objFile = toObjFileForPut(objectKey);
+        try ( FileChannel src = FileChannel.open(in.toPath(), READ) ) {
+            atomicWrite(objFile.toPath(), null, (dst) -> transferFully(src, dst));
+        }
+    }
+
+    /**
+     * The content is staged before the etag is checked, so the check and
+     * the rename are atomic with respect to all other writes in this JVM.
+     * Writes by other processes are not serialized.
+     */
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in) {
+        File objFile = toObjFileForPut(objectKey);
+        try {
+            boolean written = atomicWrite(
+                objFile.toPath(),
+                contentEncoding,
+                (out) -> {
+                    byte[] buf = new byte[1024*1024];
+                    int bytesRead = 0;
+                    while((bytesRead = in.read(buf)) != -1)
+                        writeFully(out, ByteBuffer.wrap(buf, 0, bytesRead));
+                },
+                (path) -> matches(toMetadata(objectKey, readAttributes(path)), etag));
+            in.close();
+            return written;
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Stage the content into a temporary file in the same directory as
+     * objFile and then rename it into place so readers never observe a
+     * partially written object. If syncWrites is enabled, the content
+     * and the rename are fsync'ed before returning. If checksums are
+     * enabled, the MD5 is computed as the content is written. A non-null
+     * contentEncoding is recorded in an EncodingFile.
+     */
+    private void atomicWrite(Path objFile, String contentEncoding, ChannelWriter writer) throws IOException {
+        atomicWrite(objFile, contentEncoding, writer, null);
+    }
+
+    // Returns false if the precondition failed, in which case nothing is written:
+    private boolean atomicWrite(Path objFile, String contentEncoding, ChannelWriter writer, Precondition precondition)
+        throws IOException
+    {
+        Path dir = objFile.getParent();
+        Path tmpFile = toTmpFile(objFile);
+        boolean success = false;
+        try {
+            String checksum = null;
+            try ( FileChannel out = FileChannel.open(tmpFile, WRITE, CREATE_NEW) ) {
+                if ( _checksums ) {
+                    DigestingChannel digestOut = new DigestingChannel(out, newMD5());
+                    writer.write(digestOut);
+                    checksum = toHex(digestOut.getDigest());
+                } else {
+                    writer.write(out);
+                }
+                if ( _syncWrites ) out.force(true);
+            }
+            synchronized ( commitLock(objFile) ) {
+                if ( null != precondition && ! precondition.check(objFile) ) return false;
+                changeETag(tmpFile, objFile);
+                commit(tmpFile, objFile, checksum, contentEncoding);
+            }
+            success = true;
+        } finally {
+            if ( ! success ) Files.deleteIfExists(tmpFile);
+        }
+        if ( _syncWrites ) _dirSyncer.sync(dir);
+        return true;
+    }
+
+    private static Object commitLock(Path objFile) {
+        return COMMIT_LOCKS[Math.floorMod(objFile.toAbsolutePath().hashCode(), COMMIT_LOCKS.length)];
+    }
+
+    /**
+     * The etag is derived from the size and lastModified (see toETag()),
+     * so if tmpFile would replace an objFile with the same of both (a
+     * rewrite within the timestamp granularity of the file system) the
+     * lastModified of tmpFile is moved past that of objFile. File systems
+     * round the lastModified (to 1s on HFS+ and 2s on FAT), so it is read
+     * back and the step is doubled until it moves.
+     */
+    private static void changeETag(Path tmpFile, Path objFile) throws IOException {
+        BasicFileAttributes prev;
+        try {
+            prev = Files.readAttributes(objFile, BasicFileAttributes.class);
+        } catch ( NoSuchFileException ex ) {
+            return;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(tmpFile, BasicFileAttributes.class);
+        long prevMillis = prev.lastModifiedTime().toMillis();
+        if ( attrs.size() != prev.size() || attrs.lastModifiedTime().toMillis() > prevMillis ) return;
+        for ( long step=1; step <= MAX_MTIME_GRANULARITY_MILLIS; step *= 2 ) {
+            Files.setLastModifiedTime(tmpFile, FileTime.fromMillis(prevMillis + step));
+            if ( Files.getLastModifiedTime(tmpFile).toMillis() > prevMillis ) return;
+        }
+        throw new IOException("Unable to move the lastModified of "+tmpFile+" past "+prevMillis);
+    }
+
+    private static Path toTmpFile(Path objFile) {
+        return objFile.resolveSibling(
+            String.format("%s.%016x%s",
+                          objFile.getFileName(),
+                          ThreadLocalRandom.current().nextLong(),
+                          TMP_POSTFIX));
+    }
+
+    /**
+     * The copy is a hard link to the file of from, which is safe since
+     * objects are never modified in place: every write renames a new
+     * file into place. A linked copy keeps the lastModified of from. If
+     * the file system does not support hard links, the content is
+     * copied with FileChannel.transferTo() instead. Either way the
+     * contentEncoding of from is copied with it.
+     */
+    @Override
+    public void copy(ObjectKey from, ObjectKey to) {
+        File srcFile = toObjFileForGet(from);
+        Path objFile = toObjFileForPut(to).toPath();
+        try {
+            ChecksumFile checksum = _checksums ? readChecksum(srcFile) : null;
+            Path tmpFile = toTmpFile(objFile);
+            FileChannel src = null;
+            String contentEncoding;
+            // The commit locks of from and to are never held together, so
+            // concurrent copies in opposite directions can not deadlock:
+            synchronized ( commitLock(srcFile.toPath()) ) {
+                try {
+                    Files.createLink(tmpFile, srcFile.toPath());
+                } catch ( UnsupportedOperationException|FileSystemException ex ) {
+                    if ( ex instanceof NoSuchFileException ) {
+                        throw new EntityNotFoundException("NotFound: "+from+" bucketsRoot="+_bucketsRoot);
+                    }
+                    src = FileChannel.open(srcFile.toPath(), READ);
+                }
+                contentEncoding = readEncoding(
+                    srcFile.toPath(),
+                    Files.readAttributes(null == src ? tmpFile : srcFile.toPath(), BasicFileAttributes.class));
+            }
+            if ( null != src ) {
+                try ( FileChannel in = src ) {
+                    atomicWrite(objFile, contentEncoding, (dst) -> transferFully(in, dst));
+                }
+                return;
+            }
+            boolean success = false;
+            try {
+                // from may have been replaced after the checksum was read:
+                checksum = stillDescribes(checksum, tmpFile.toFile());
+                // The linked file is shared with from, so changeETag() must not touch it:
+                synchronized ( commitLock(objFile) ) {
+                    commit(tmpFile, objFile, null == checksum ? null : checksum.getMD5(), contentEncoding);
+                }
+                success = true;
+            } finally {
+                if ( ! success ) Files.deleteIfExists(tmpFile);
+            }
+            if ( _syncWrites ) _dirSyncer.sync(objFile.getParent());
+        } catch ( NoSuchFileException ex ) {
+            throw new EntityNotFoundException("NotFound: "+from+" bucketsRoot="+_bucketsRoot);
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Callers must hold the commitLock() of objFile:
+    private void commit(Path tmpFile, Path objFile, String checksum, String contentEncoding) throws IOException {
+        ObjectKey objectKey = toObjectkey(objFile.toFile());
+        BucketIndex index = getIndex(objectKey.getBucket());
+        BasicFileAttributes prev = readAttributes(objFile);
+        BasicFileAttributes attrs = Files.readAttributes(tmpFile, BasicFileAttributes.class);
+        String etag = toETag(attrs);
+        // The checksum describes tmpFile, so it is only used once the
+        // rename succeeds:
+        if ( null != checksum ) {
+            ChecksumFile.write(tmpFile, objFile, checksum, _syncWrites);
+        } else {
+            ChecksumFile.delete(objFile);
+        }
+        EncodingFile.write(objFile, etag, contentEncoding, _syncWrites);
+        if ( null == index ) {
+            Files.move(tmpFile, objFile, StandardCopyOption.ATOMIC_MOVE);
+            MAPPED_FILES.invalidate(objFile.toAbsolutePath());
+        } else {
+            synchronized ( index ) {
+                Files.move(tmpFile, objFile, StandardCopyOption.ATOMIC_MOVE);
+                MAPPED_FILES.invalidate(objFile.toAbsolutePath());
+                index.put(objectKey.getKey(), new BucketIndex.Entry(
+                              attrs.size(), attrs.lastModifiedTime().toMillis(), checksum, contentEncoding));
+            }
+        }
+        // A linked copy of the same version has the same etag:
+        if ( null != prev && ! etag.equals(toETag(prev)) ) {
+            EncodingFile.delete(objFile, toETag(prev));
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while ( buf.hasRemaining() ) {
+            out.write(buf);
+        }
+    }
+
+    private File toObjFileForPut(ObjectKey objectKey) {
         validate(objectKey);
         File bucketRoot = new File(_bucketsRoot, objectKey.getBucket());
         if(!bucketRoot.exists())
@@ -131,18 +432,7 @@ public class DiskObjectStore extends AbstractObjectStore
         File parentDir = objFile.getParentFile();
         if(parentDir != null && !parentDir.exists())
             parentDir.mkdirs();
-
-        try {
-            FileOutputStream out = new FileOutputStream(objFile);
-            byte[] buf = new byte[1024*1024];
-            int bytesRead = 0;
-            while((bytesRead = in.read(buf)) != -1)
-                out.write(buf, 0, bytesRead);
-            out.close();
-            in.close();
-        } catch(Throwable t) {
-            throw(new RuntimeException(t));
-        }
+        return objFile;
     }
 
     // Returns null if entity does not exist.
@@ -152,22 +442,311 @@ public class DiskObjectStore extends AbstractObjectStore
         File bucketRoot = new File(_bucketsRoot, objectKey.getBucket());
         if(!bucketRoot.exists())
             return null;
+        if ( _indexed ) {
+            BucketIndex.Entry entry = getIndexOrThrow(objectKey.getBucket()).get(toIndexKey(objectKey.getKey()));
+            if ( null == entry ) return null;
+            return toMetadata(objectKey, entry.getContentLength(), entry.getChecksum(), entry.getContentEncoding(),
+                              entry.getLastModified());
+        }
         File objFile = new File(bucketRoot, toKeyId(objectKey.getKey()));
-        if(!objFile.exists())
+        BasicFileAttributes attrs;
+        String contentEncoding;
+        try {
+            synchronized ( commitLock(objFile.toPath()) ) {
+                attrs = readAttributes(objFile.toPath());
+                if ( null == attrs ) return null;
+                contentEncoding = readEncoding(objFile.toPath(), attrs);
+            }
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+        ChecksumFile checksum = _checksums ? readChecksum(objFile) : null;
+        return toMetadata(objectKey, attrs.size(), null == checksum ? null : checksum.getMD5(), contentEncoding,
+                          attrs.lastModifiedTime().toMillis());
+    }
+
+    // Returns null if objFile does not exist.
+    private static BasicFileAttributes readAttributes(Path objFile) throws IOException {
+        try {
+            return Files.readAttributes(objFile, BasicFileAttributes.class);
+        } catch ( NoSuchFileException ex ) {
             return null;
-        long len = objFile.length();
-        return ObjectMetadata
-        .builder()
-        .bucket(objectKey.getBucket())
-        .key(objectKey.getKey())
-        .contentLength(len)
-        .build();
+        }
+    }
+
+    // The end offset is exclusive, see rangeEnd():
+    @Override
+    public boolean isRangeEndInclusive() {
+        return false;
+    }
+
+    /**
+     * Callers hold the commitLock() of objFile until it is opened, so the
+     * etag, lastModified and contentEncoding are of the content read.
+     */
+    private BasicFileAttributes readAttributesForGet(ObjectKey objectKey, File objFile) throws IOException {
+        BasicFileAttributes attrs = readAttributes(objFile.toPath());
+        if ( null == attrs ) {
+            throw new EntityNotFoundException("NotFound: "+objectKey+" bucketsRoot="+_bucketsRoot);
+        }
+        return attrs;
     }
 
     @Override
     public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
         throws EntityNotFoundException, IOException
     {
+        File objFile = toObjFileForGet(objectKey);
+        // A null start means 0, as it does for the mapped reads:
+        long offset = ( null == start ) ? 0 : start;
+        if(end != null && end < offset)
+            throw(new IllegalArgumentException("end ["+end+"] cannot be less than start ["+start+"]"));
+        BasicFileAttributes attrs;
+        String contentEncoding;
+        ChecksumFile checksum;
+        MappedFileCache.Mapping mapping = null;
+        FileInputStream fileIn = null;
+        synchronized ( commitLock(objFile.toPath()) ) {
+            attrs = readAttributesForGet(objectKey, objFile);
+            contentEncoding = readEncoding(objFile.toPath(), attrs);
+            // Only full reads can be verified:
+            checksum = ( _checksums && null == start && null == end ) ? readChecksum(objFile) : null;
+            if ( _mappedReads ) {
+                mapping = MAPPED_FILES.acquire(objFile.toPath().toAbsolutePath());
+            }
+            if ( null == mapping ) {
+                fileIn = new FileInputStream(objFile);
+            }
+        }
+        if ( null != mapping ) {
+            try ( MappedFileCache.Mapping acquired = mapping ) {
+                return read(
+                    objectKey,
+                    objectReader,
+                    toMetadata(objectKey, acquired.size(), null == checksum ? null : checksum.getMD5(),
+                               contentEncoding, attrs),
+                    new ByteBufferInputStream(slice(acquired, start, end)),
+                    checksum);
+            }
+        }
+        if(offset > 0)
+            fileIn.skip(offset);
+        InputStream in = fileIn;
+        if(end != null)
+            in = new LimitingInputStream(fileIn, end-offset);
+        ObjectMetadata objectMetadata = toMetadata(
+            objectKey, fileIn.getChannel().size(), null == checksum ? null : checksum.getMD5(), contentEncoding, attrs);
+
+        return read(objectKey, objectReader, objectMetadata, in, checksum);
+    }
+
+    /**
+     * Pass the stream to the objectReader, verifying the content against
+     * the checksum if the objectReader consumed the entire stream.
+     */
+    private static <T> T read(ObjectKey objectKey, ObjectReader<T> objectReader, ObjectMetadata objectMetadata,
+                              InputStream in, ChecksumFile checksum)
+        throws IOException
+    {
+        if ( null == checksum ) return objectReader.read(objectMetadata, in);
+        VerifyingInputStream verifyingIn = new VerifyingInputStream(in, objectKey, checksum);
+        T result = objectReader.read(objectMetadata, verifyingIn);
+        verifyingIn.verifyIfEof();
+        return result;
+    }
+
+    /**
+     * Digests the bytes read through it and verifies them once the end of
+     * the stream is reached, which includes readers that read to the end
+     * and then close the stream (for example, through a Reader). Closing
+     * the stream early skips the verification rather than reading the rest
+     * of a possibly large object.
+     */
+    private static class VerifyingInputStream extends FilterInputStream {
+        private final ObjectKey _objectKey;
+        private final ChecksumFile _checksum;
+        private final MessageDigest _digest = newMD5();
+        private boolean _verified = false;
+        private boolean _closed = false;
+
+        private VerifyingInputStream(InputStream in, ObjectKey objectKey, ChecksumFile checksum) {
+            super(in);
+            _objectKey = objectKey;
+            _checksum = checksum;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ch = in.read();
+            if ( ch < 0 ) {
+                verifyOnce();
+            } else {
+                _digest.update((byte)ch);
+            }
+            return ch;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int bytesRead = in.read(buf, off, len);
+            if ( bytesRead < 0 ) {
+                verifyOnce();
+            } else {
+                _digest.update(buf, off, bytesRead);
+            }
+            return bytesRead;
+        }
+
+        // Skipped bytes must be digested too:
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buf = new byte[(int)Math.min(n, 8192)];
+            long skipped = 0;
+            while ( skipped < n ) {
+                int bytesRead = read(buf, 0, (int)Math.min(buf.length, n - skipped));
+                if ( bytesRead < 0 ) break;
+                skipped += bytesRead;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readlimit) {}
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if ( _closed ) return;
+            _closed = true;
+            in.close();
+        }
+
+        // Called after the objectReader returned, a partial read is not verified:
+        private void verifyIfEof() throws IOException {
+            if ( _closed || _verified ) return;
+            read();
+        }
+
+        private void verifyOnce() {
+            if ( _verified ) return;
+            _verified = true;
+            verify(_objectKey, _checksum, _digest);
+        }
+    }
+
+    private static void verify(ObjectKey objectKey, ChecksumFile checksum, MessageDigest md)
+        throws StreamCorruptedException
+    {
+        String computed = toHex(md);
+        if ( ! computed.equals(checksum.getMD5()) ) {
+            throw new StreamCorruptedException(
+                "Checksum failed on get for key: "+objectKey+". Checksum: "+computed+" Expected: "+checksum.getMD5());
+        }
+    }
+
+    private static ChecksumFile readChecksum(File objFile) {
+        try {
+            return ChecksumFile.read(objFile.toPath());
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * The object may have been replaced between reading the checksum and
+     * opening the file, in which case the checksum must not be used.
+     * Since every write creates a new file, the opened file is the one the
+     * checksum describes if the file at objFile is still that file.
+     */
+    private static ChecksumFile stillDescribes(ChecksumFile checksum, File objFile) throws IOException {
+        if ( null == checksum ) return null;
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(objFile.toPath(), BasicFileAttributes.class);
+        } catch ( NoSuchFileException ex ) {
+            return null;
+        }
+        return checksum.describes(attrs) ? checksum : null;
+    }
+
+    private static MessageDigest newMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(MessageDigest md) {
+        return printHexBinary(md.digest()).toLowerCase();
+    }
+
+    @Override
+    public <T> T getBuffer(ObjectKey objectKey, ObjectBufferReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        File objFile = toObjFileForGet(objectKey);
+        BasicFileAttributes attrs;
+        String contentEncoding;
+        ChecksumFile checksum;
+        MappedFileCache.Mapping mapping = null;
+        FileChannel fileChannel = null;
+        synchronized ( commitLock(objFile.toPath()) ) {
+            attrs = readAttributesForGet(objectKey, objFile);
+            contentEncoding = readEncoding(objFile.toPath(), attrs);
+            checksum = ( _checksums && null == start && null == end ) ? readChecksum(objFile) : null;
+            if ( _mappedReads ) {
+                mapping = MAPPED_FILES.acquire(objFile.toPath().toAbsolutePath());
+            }
+            if ( null == mapping ) {
+                fileChannel = FileChannel.open(objFile.toPath(), READ);
+            }
+        }
+        if ( null != mapping ) {
+            try ( MappedFileCache.Mapping acquired = mapping ) {
+                ByteBuffer buf = slice(acquired, start, end);
+                verify(objectKey, checksum, buf);
+                return objectReader.read(
+                    toMetadata(objectKey, acquired.size(), null == checksum ? null : checksum.getMD5(),
+                               contentEncoding, attrs),
+                    buf);
+            }
+        }
+        try ( FileChannel channel = fileChannel ) {
+            long size = channel.size();
+            long offset = rangeStart(start, size);
+            ByteBuffer buf = ByteBuffer.allocate(Math.toIntExact(rangeEnd(start, end, size) - offset));
+            while ( buf.hasRemaining() ) {
+                int len = channel.read(buf, offset + buf.position());
+                if ( len < 0 ) break;
+            }
+            buf.flip();
+            verify(objectKey, checksum, buf);
+            return objectReader.read(
+                toMetadata(objectKey, size, null == checksum ? null : checksum.getMD5(), contentEncoding, attrs),
+                buf.asReadOnlyBuffer());
+        }
+    }
+
+    private static void verify(ObjectKey objectKey, ChecksumFile checksum, ByteBuffer buf)
+        throws StreamCorruptedException
+    {
+        if ( null == checksum ) return;
+        MessageDigest md = newMD5();
+        md.update(buf.duplicate());
+        verify(objectKey, checksum, md);
+    }
+
+    private File toObjFileForGet(ObjectKey objectKey) {
         validate(objectKey);
         File bucketRoot = new File(_bucketsRoot, objectKey.getBucket());
         if(!bucketRoot.exists())
@@ -175,37 +754,153 @@ public class DiskObjectStore extends AbstractObjectStore
         File objFile = new File(bucketRoot, toKeyId(objectKey.getKey()));
         if(!objFile.exists())
             throw(new EntityNotFoundException("NotFound: "+objectKey+" bucketsRoot="+_bucketsRoot));
-        FileInputStream fileIn = new FileInputStream(objFile);
-        if(start != null)
-            fileIn.skip(start.longValue());
-        InputStream in = null;
-        if(end != null)
-        {
-            if(start != null && end < start)
-                throw(new IllegalArgumentException("end ["+end+"] cannot be less than start ["+start+"]"));
-            in = new LimitingInputStream(fileIn, end-start);
-        }
-        if(in == null)
-            in = fileIn;
-        ObjectMetadata objectMetadata = ObjectMetadata
+        return objFile;
+    }
+
+    private static ByteBuffer slice(MappedFileCache.Mapping mapping, Long start, Long end) {
+        long size = mapping.size();
+        return mapping.slice(rangeStart(start, size), rangeEnd(start, end, size));
+    }
+
+    private static long rangeStart(Long start, long size) {
+        if ( null == start ) return 0;
+        return Math.min(start, size);
+    }
+
+    // The end offset is exclusive, consistent with the LimitingInputStream path.
+    private static long rangeEnd(Long start, Long end, long size) {
+        if ( null == end ) return size;
+        if ( null != start && end < start )
+            throw(new IllegalArgumentException("end ["+end+"] cannot be less than start ["+start+"]"));
+        return Math.max(rangeStart(start, size), Math.min(end, size));
+    }
+
+    // Only used to check the etag, returns null if attrs is null:
+    private static ObjectMetadata toMetadata(ObjectKey objectKey, BasicFileAttributes attrs) {
+        if ( null == attrs ) return null;
+        return toMetadata(objectKey, attrs.size(), null, null, attrs.lastModifiedTime().toMillis());
+    }
+
+    // The etag and lastModified are of attrs, see readAttributesForGet():
+    private static ObjectMetadata toMetadata(ObjectKey objectKey, long contentLength, String contentMD5,
+                                             String contentEncoding, BasicFileAttributes attrs)
+    {
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        return ObjectMetadata
+        .builder()
+        .bucket(objectKey.getBucket())
+        .key(objectKey.getKey())
+        .contentLength(contentLength)
+        .contentMD5(contentMD5)
+        .contentEncoding(contentEncoding)
+        .lastModified(lastModified)
+        .etag(toETag(attrs.size(), lastModified))
+        .build();
+    }
+
+    private static ObjectMetadata toMetadata(ObjectKey objectKey, long contentLength, String contentMD5,
+                                             String contentEncoding, long lastModified)
+    {
+        return ObjectMetadata
         .builder()
         .bucket(objectKey.getBucket())
         .key(objectKey.getKey())
-        .contentLength(objFile.length())
+        .contentLength(contentLength)
+        .contentMD5(contentMD5)
+        .contentEncoding(contentEncoding)
+        .lastModified(lastModified)
+        .etag(toETag(contentLength, lastModified))
         .build();
+    }
 
-        return objectReader.read(objectMetadata, in);
+    // Callers must hold the commitLock() of objFile or tolerate a stale result:
+    private static String readEncoding(Path objFile, BasicFileAttributes attrs) {
+        try {
+            return EncodingFile.read(objFile, toETag(attrs));
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Objects are never modified in place and every write changes the
+     * size or lastModified (see changeETag()), so these identify the
+     * content. This is also available from the index without a stat.
+     */
+    private static String toETag(long contentLength, long lastModified) {
+        return String.format("%x-%x", lastModified, contentLength);
+    }
+
+    private static String toETag(BasicFileAttributes attrs) {
+        return toETag(attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public void get(ObjectKey objectKey, File file) throws EntityNotFoundException, IOException {
+        validate(objectKey);
+        File bucketRoot = new File(_bucketsRoot, objectKey.getBucket());
+        File objFile = new File(bucketRoot, toKeyId(objectKey.getKey()));
+        if(!bucketRoot.exists() || !objFile.exists())
+            throw(new EntityNotFoundException("NotFound: "+objectKey+" bucketsRoot="+_bucketsRoot));
+        ChecksumFile checksum = _checksums ? readChecksum(objFile) : null;
+        try ( FileChannel src = FileChannel.open(objFile.toPath(), READ) ) {
+            checksum = stillDescribes(checksum, objFile);
+            // Same semantics as Files.copy(), the destination must not exist:
+            FileChannel dst = FileChannel.open(file.toPath(), WRITE, CREATE_NEW);
+            boolean success = false;
+            try {
+                if ( null == checksum ) {
+                    transferFully(src, dst);
+                } else {
+                    DigestingChannel digestDst = new DigestingChannel(dst, newMD5());
+                    transferFully(src, digestDst);
+                    verify(objectKey, checksum, digestDst.getDigest());
+                }
+                success = true;
+            } finally {
+                dst.close();
+                // Do not leave a partial or corrupt copy behind:
+                if ( ! success ) Files.deleteIfExists(file.toPath());
+            }
+        }
     }
 
     @Override
     public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator)
+    {
+        List<ObjectKey> keys = new ArrayList<ObjectKey>();
+        for ( ObjectMetadata meta : list(objectKey, iterator, false) ) {
+            keys.add(ObjectKey.builder()
+                     .bucket(meta.getBucket())
+                     .key(meta.getKey())
+                     .build());
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    @Override
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator)
+    {
+        return list(objectKey, iterator, true);
+    }
+
+    @Override
+    public Stream<ObjectMetadata> stream(ObjectKey prefix) {
+        return stream(prefix, getExecutor());
+    }
+
+    // Only stats each file if withMetadata is true:
+    private List<ObjectMetadata> list(ObjectKey objectKey, PageIterator iterator, boolean withMetadata)
     {
         validate(objectKey);
-        final List<ObjectKey> keys = new ArrayList<ObjectKey>();
+        final List<ObjectMetadata> keys = new ArrayList<ObjectMetadata>();
         File bucketRoot = new File(_bucketsRoot, objectKey.getBucket());
         if(!bucketRoot.exists()) {
             throw new EntityNotFoundException("NotFound: "+objectKey+" bucketsRoot="+_bucketsRoot);
         }
+        if ( _indexed ) {
+            return listIndex(objectKey, iterator);
+        }
 
         final File objFile = new File(bucketRoot, objectKey.getKey());
 
@@ -236,12 +931,19 @@ public class DiskObjectStore extends AbstractObjectStore
         int pageSize = iterator.getPageSize();
         AtomicInteger remaining = new AtomicInteger(pageSize);
         if ( walk(parentDir, beginsWith, 0, afterFile, (file) -> {
+                    // Skip files staged by atomicWrite():
+                    if ( ! file.getName().endsWith(KEY_POSTFIX) ) return true;
                     ObjectKey elm = toObjectkey(file);
                     if ( remaining.getAndDecrement() <= 0 ) {
                         iterator.setMarker(elm.getKey());
                         return false;
                     }
-                    keys.add(elm);
+                    keys.add(withMetadata
+                             ? toMetadata(file, elm)
+                             : ObjectMetadata.builder()
+                               .bucket(elm.getBucket())
+                               .key(elm.getKey())
+                               .build());
                     return true;
                 }) )
         {
@@ -250,6 +952,47 @@ public class DiskObjectStore extends AbstractObjectStore
         return Collections.unmodifiableList(keys);
     }
 
+    // Without the commit lock, so the contentEncoding may be stale if file is replaced concurrently:
+    private static ObjectMetadata toMetadata(File file, ObjectKey objectKey) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = readAttributes(file.toPath());
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+        if ( null == attrs ) {
+            // Deleted concurrently:
+            return toMetadata(objectKey, file.length(), null, null, file.lastModified());
+        }
+        return toMetadata(objectKey, attrs.size(), null, readEncoding(file.toPath(), attrs), attrs);
+    }
+
+    private List<ObjectMetadata> listIndex(ObjectKey objectKey, PageIterator iterator) {
+        String prefix = objectKey.getKey();
+        String marker = iterator.getMarker();
+        BucketIndex index = getIndexOrThrow(objectKey.getBucket());
+        List<ObjectMetadata> keys = new ArrayList<ObjectMetadata>();
+        iterator.setMarker(null);
+        for ( Map.Entry<String, BucketIndex.Entry> entry : index.tailMap(null == marker ? prefix : marker).entrySet() ) {
+            String key = entry.getKey();
+            if ( ! key.startsWith(prefix) ) break;
+            if ( keys.size() >= iterator.getPageSize() ) {
+                iterator.setMarker(key);
+                break;
+            }
+            keys.add(toMetadata(
+                         ObjectKey.builder()
+                         .bucket(objectKey.getBucket())
+                         .key(key)
+                         .build(),
+                         entry.getValue().getContentLength(),
+                         entry.getValue().getChecksum(),
+                         entry.getValue().getContentEncoding(),
+                         entry.getValue().getLastModified()));
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
     @Override
     public void delete(ObjectKey objectKey)
         throws EntityNotFoundException
@@ -262,13 +1005,33 @@ public class DiskObjectStore extends AbstractObjectStore
             File objFile = new File(bucketRoot, toKeyId(objectKey.getKey()));
             // May have already been deleted concurrently, so we ignore this which
             // is consistent with S3 behavior.
-            if(!objFile.exists()) return;
-            Files.delete(objFile.toPath());
+            BucketIndex index = getIndex(objectKey.getBucket());
+            synchronized ( commitLock(objFile.toPath()) ) {
+                BasicFileAttributes attrs = readAttributes(objFile.toPath());
+                if ( null == index ) {
+                    if(!Files.deleteIfExists(objFile.toPath())) return;
+                    MAPPED_FILES.invalidate(objFile.toPath().toAbsolutePath());
+                    ChecksumFile.delete(objFile.toPath());
+                } else {
+                    synchronized ( index ) {
+                        Files.deleteIfExists(objFile.toPath());
+                        ChecksumFile.delete(objFile.toPath());
+                        MAPPED_FILES.invalidate(objFile.toPath().toAbsolutePath());
+                        index.remove(toIndexKey(objectKey.getKey()));
+                    }
+                }
+                if ( null != attrs ) EncodingFile.delete(objFile.toPath(), toETag(attrs));
+            }
         } catch(IOException ioe) {
             throw(new RuntimeException(ioe));
         }
     }
 
+    @Override
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys) {
+        return deleteAll(objectKeys, getExecutor(), DELETE_CONCURRENCY);
+    }
+
     @Override
     public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit)
         throws EntityNotFoundException
@@ -282,9 +1045,9 @@ public class DiskObjectStore extends AbstractObjectStore
     }
 
     @Override
-    public ObjectPartKey newMultipartPut(ObjectKey objectKey) {
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding) {
         try {
-            return newMultipartPutThrows(objectKey);
+            return newMultipartPutThrows(objectKey, contentEncoding);
         } catch ( RuntimeException ex) {
             throw ex;
         } catch ( Exception ex ) {
@@ -292,11 +1055,15 @@ public class DiskObjectStore extends AbstractObjectStore
         }
     }
 
-    private ObjectPartKey newMultipartPutThrows(ObjectKey objectKey) throws IOException {
+    private ObjectPartKey newMultipartPutThrows(ObjectKey objectKey, String contentEncoding) throws IOException {
         validate(objectKey);
         Path uploadDir = null;
         try {
             uploadDir = Files.createTempDirectory(_partsRoot.toPath(), null);
+            // Written before the .KEY, so an upload is never found without it:
+            if ( null != contentEncoding ) {
+                Files.write(Paths.get(uploadDir.toString(), ".ENCODING"), contentEncoding.getBytes(UTF_8));
+            }
             Files.write(
                 Paths.get(uploadDir.toString(), ".KEY"),
                 (objectKey.getBucket()+"/"+objectKey.getKey()).getBytes(UTF_8));
@@ -331,7 +1098,13 @@ public class DiskObjectStore extends AbstractObjectStore
         Path uploadFile = Files.createTempFile(uploadDir, null, String.format(".part%04d", partNum));
         boolean success = false;
         try {
-            Files.copy(in, uploadFile, StandardCopyOption.REPLACE_EXISTING);
+            if ( isSeekable(in) ) {
+                try ( FileChannel dst = FileChannel.open(uploadFile, WRITE, TRUNCATE_EXISTING) ) {
+                    transferFully(((FileInputStream)in).getChannel(), dst);
+                }
+            } else {
+                Files.copy(in, uploadFile, StandardCopyOption.REPLACE_EXISTING);
+            }
             success = true;
         } finally {
             if ( ! success ) Files.deleteIfExists(uploadFile);
@@ -344,6 +1117,13 @@ public class DiskObjectStore extends AbstractObjectStore
             .build();
     }
 
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, File in) throws IOException {
+        try ( FileInputStream is = new FileInputStream(in) ) {
+            return multipartPutThrows(partKey, partNum, in.length(), is);
+        }
+    }
+
     @Override
     public void abortPut(ObjectPartKey partKey) {
         try {
@@ -381,18 +1161,67 @@ public class DiskObjectStore extends AbstractObjectStore
         Path parentDir = objFile.getParent();
         if(parentDir != null && !Files.exists(parentDir))
             parentDir.toFile().mkdirs();
-        try ( OutputStream out = Files.newOutputStream(objFile) ) {
-            for ( ObjectPartId partId : partIds ) {
-                Path partPath = Paths.get(
-                    uploadDir.toString(),
-                    String.format("%s.part%04d", partId.getPartId(), partId.getPartNum()));
-                Files.copy(partPath, out);
-            }
-        }
+        Path encodingFile = Paths.get(uploadDir.toString(), ".ENCODING");
+        String contentEncoding = Files.exists(encodingFile)
+            ? new String(Files.readAllBytes(encodingFile), UTF_8)
+            : null;
+        atomicWrite(objFile, contentEncoding, (out) -> {
+                for ( ObjectPartId partId : partIds ) {
+                    Path partPath = Paths.get(
+                        uploadDir.toString(),
+                        String.format("%s.part%04d", partId.getPartId(), partId.getPartNum()));
+                    try ( FileChannel in = FileChannel.open(partPath, READ) ) {
+                        transferFully(in, out);
+                    }
+                }
+            });
         // Delete the uploadDir:
         deleteDir(uploadDir);
     }
 
+    /**
+     * A FileInputStream may also be a pipe or FIFO, which has no position
+     * or size, so it must be copied as a stream.
+     */
+    private static boolean isSeekable(InputStream in) {
+        if ( ! ( in instanceof FileInputStream ) ) return false;
+        try {
+            ((FileInputStream)in).getChannel().position();
+            return true;
+        } catch ( IOException ex ) {
+            return false;
+        }
+    }
+
+    /**
+     * Transfer everything from the current position of src to the current
+     * position of dst. If dst is a FileChannel this allows the kernel to
+     * copy the bytes directly (sendfile/copy_file_range) rather than pumping
+     * them through a heap buffer.
+     */
+    private static void transferFully(FileChannel src, WritableByteChannel dst) throws IOException {
+        if ( ! ( dst instanceof FileChannel ) ) {
+            // For example, a DigestingChannel:
+            ByteBuffer buf = ByteBuffer.allocate(1024*1024);
+            while ( src.read(buf) >= 0 ) {
+                buf.flip();
+                writeFully(dst, buf);
+                buf.clear();
+            }
+            return;
+        }
+        long position = src.position();
+        long size = src.size();
+        while ( position < size ) {
+            long transferred = src.transferTo(position, size - position, dst);
+            if ( transferred <= 0 ) {
+                throw new EOFException("File was truncated to "+position+" bytes while copying "+size+" bytes");
+            }
+            position += transferred;
+        }
+        src.position(position);
+    }
+
     private void deleteDir(Path directory) throws IOException {
         Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
                 @Override
@@ -403,7 +1232,8 @@ public class DiskObjectStore extends AbstractObjectStore
 
                 @Override
                 public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
-                    if ( null != ex ) Files.delete(dir);
+                    if ( null != ex ) throw ex;
+                    Files.delete(dir);
                     return FileVisitResult.CONTINUE;
                 }
             });
@@ -429,6 +1259,83 @@ public class DiskObjectStore extends AbstractObjectStore
         return uploadDir;
     }
 
+    /**
+     * Rebuild the index of a bucket by walking the bucket directory. Use
+     * this to recover if the index is lost or after objects in the bucket
+     * were modified by another process. Writes to the bucket which happen
+     * during the rebuild may be missed.
+     *
+     * @param bucketName is the bucket to re-index.
+     */
+    public void rebuildIndex(String bucketName) throws IOException {
+        if ( ! validFileName(bucketName) ) {
+            throw new IllegalArgumentException("BucketName is invalid "+bucketName);
+        }
+        File bucketRoot = new File(_bucketsRoot, bucketName);
+        if(!bucketRoot.exists())
+            throw(new EntityNotFoundException("Bucket "+bucketName+" does not exist"));
+        BucketIndex index = getIndex(bucketName);
+        if ( null == index ) {
+            index = new BucketIndex(toIndexJournal(bucketName), _syncWrites);
+        }
+        rebuildIndex(bucketRoot, index);
+    }
+
+    private void rebuildIndex(File bucketRoot, BucketIndex index) throws IOException {
+        Map<String, BucketIndex.Entry> entries = new TreeMap<>();
+        walk(bucketRoot, null, 0, null, (file) -> {
+                if ( ! file.getName().endsWith(KEY_POSTFIX) ) return true;
+                ChecksumFile checksum = readChecksum(file);
+                ObjectMetadata meta = toMetadata(file, toObjectkey(file));
+                entries.put(meta.getKey(),
+                            new BucketIndex.Entry(meta.getContentLength(), meta.getLastModified(),
+                                                  null == checksum ? null : checksum.getMD5(),
+                                                  meta.getContentEncoding()));
+                return true;
+            });
+        index.reset(entries);
+    }
+
+    /**
+     * @return the index for bucketName, loading it (or building it from
+     *     disk) if necessary. If this store is not indexed, returns null
+     *     unless an index for the bucket already exists, since it must be
+     *     kept up to date.
+     */
+    private BucketIndex getIndex(String bucketName) throws IOException {
+        Path journal = toIndexJournal(bucketName);
+        BucketIndex index = INDEXES.get(journal);
+        if ( null != index ) return index;
+        if ( ! _indexed && ! Files.exists(journal) ) return null;
+        synchronized ( INDEXES ) {
+            index = INDEXES.get(journal);
+            if ( null != index ) return index;
+            index = new BucketIndex(journal, _syncWrites);
+            if ( ! index.load() ) {
+                rebuildIndex(new File(_bucketsRoot, bucketName), index);
+            }
+            INDEXES.put(journal, index);
+            return index;
+        }
+    }
+
+    private BucketIndex getIndexOrThrow(String bucketName) {
+        try {
+            return getIndex(bucketName);
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Path toIndexJournal(String bucketName) {
+        return new File(_indexRoot, bucketName+".idx").toPath();
+    }
+
+    private String toIndexKey(String key) {
+        String keyId = toKeyId(key);
+        return keyId.substring(0, keyId.length() - KEY_POSTFIX.length());
+    }
+
     private void validate(ObjectKey objectKey) {
         if ( ! validFileName(objectKey.getBucket()) ) {
             throw new IllegalArgumentException("objectKey.bucket is invalid "+objectKey);
@@ -0,0 +1,85 @@
+package com.distelli.objectStore.impl.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The contentEncoding of an object file, stored in a
+ * "&lt;objFile&gt;.&lt;etag&gt;.enc" sidecar. Objects without a sidecar
+ * are stored as is.
+ *
+ * Unlike the ChecksumFile, a missing or stale sidecar can not simply be
+ * ignored, since that would return encoded content as is. So the sidecar
+ * is named after the version (etag) of the object file it belongs to: it
+ * is written before the object is renamed into place and the sidecar of
+ * the replaced version is deleted after. A crash in between leaves an
+ * unused sidecar behind rather than attaching the encoding to the wrong
+ * version.
+ */
+class EncodingFile {
+    public static final String POSTFIX = ".enc";
+
+    private EncodingFile() {}
+
+    /**
+     * @return the contentEncoding of the etag version of objFile, or
+     *     null if it is stored as is.
+     */
+    public static String read(Path objFile, String etag) throws IOException {
+        try {
+            return new String(Files.readAllBytes(toEncodingFile(objFile, etag)), UTF_8);
+        } catch ( NoSuchFileException ex ) {
+            return null;
+        }
+    }
+
+    /**
+     * @param objFile is the final location of the object.
+     *
+     * @param etag is the version of objFile the contentEncoding belongs to.
+     *
+     * @param contentEncoding if null, any sidecar of this version is deleted.
+     *
+     * @param syncWrites if true the sidecar is fsync'ed.
+     */
+    public static void write(Path objFile, String etag, String contentEncoding, boolean syncWrites) throws IOException {
+        Path encodingFile = toEncodingFile(objFile, etag);
+        if ( null == contentEncoding ) {
+            Files.deleteIfExists(encodingFile);
+            return;
+        }
+        Path tmpFile = encodingFile.resolveSibling(
+            String.format("%s.%016x.tmp", encodingFile.getFileName(), ThreadLocalRandom.current().nextLong()));
+        boolean success = false;
+        try {
+            try ( FileChannel out = FileChannel.open(tmpFile, WRITE, CREATE_NEW) ) {
+                ByteBuffer buf = ByteBuffer.wrap(contentEncoding.getBytes(UTF_8));
+                while ( buf.hasRemaining() ) {
+                    out.write(buf);
+                }
+                if ( syncWrites ) out.force(true);
+            }
+            Files.move(tmpFile, encodingFile, StandardCopyOption.ATOMIC_MOVE);
+            success = true;
+        } finally {
+            if ( ! success ) Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    public static void delete(Path objFile, String etag) throws IOException {
+        Files.deleteIfExists(toEncodingFile(objFile, etag));
+    }
+
+    private static Path toEncodingFile(Path objFile, String etag) {
+        return objFile.resolveSibling(objFile.getFileName()+"."+etag+POSTFIX);
+    }
+}
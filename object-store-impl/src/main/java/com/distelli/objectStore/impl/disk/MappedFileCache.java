@@ -0,0 +1,136 @@
+package com.distelli.objectStore.impl.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Reference counted cache of read-only memory mapped object files.
+ *
+ * Mappings are keyed by the absolute path of the object file and must
+ * be invalidated whenever that path is replaced or deleted. Since writes
+ * are renamed into place, an in-flight reader of an invalidated mapping
+ * continues to see the old (complete) content.
+ *
+ * Least recently used mappings which are not currently acquired are
+ * dropped once the total mapped size exceeds maxMappedBytes. The JVM
+ * unmaps a dropped mapping once it is garbage collected.
+ */
+class MappedFileCache {
+    public class Mapping implements AutoCloseable {
+        private final Path _path;
+        private final MappedByteBuffer _buffer;
+        private int _refs = 1;
+
+        private Mapping(Path path, MappedByteBuffer buffer) {
+            _path = path;
+            _buffer = buffer;
+        }
+
+        public long size() {
+            return _buffer.capacity();
+        }
+
+        /**
+         * @param start is the inclusive offset to begin at.
+         *
+         * @param end is the exclusive offset to end at.
+         *
+         * @return a read-only view of the mapped file for this range.
+         */
+        public ByteBuffer slice(long start, long end) {
+            ByteBuffer view = _buffer.asReadOnlyBuffer();
+            view.limit(Math.toIntExact(end));
+            view.position(Math.toIntExact(start));
+            return view.slice();
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    private final long _maxMappedBytes;
+    private final Map<Path, Mapping> _mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long _mappedBytes = 0;
+    private long _generation = 0;
+
+    public MappedFileCache(long maxMappedBytes) {
+        _maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * @param path is the file to map.
+     *
+     * @return the acquired mapping which must be closed when finished,
+     *     or null if the file is too large to map into a single buffer.
+     *
+     * @throws IOException if the file can not be opened.
+     */
+    public Mapping acquire(Path path) throws IOException {
+        long generation;
+        synchronized ( this ) {
+            Mapping mapping = _mappings.get(path);
+            if ( null != mapping ) {
+                mapping._refs++;
+                return mapping;
+            }
+            generation = _generation;
+        }
+        MappedByteBuffer buffer;
+        try ( FileChannel channel = FileChannel.open(path, READ) ) {
+            long size = channel.size();
+            if ( size > Integer.MAX_VALUE ) return null;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        synchronized ( this ) {
+            Mapping mapping = _mappings.get(path);
+            if ( null != mapping ) {
+                mapping._refs++;
+                return mapping;
+            }
+            mapping = new Mapping(path, buffer);
+            // The file may have been replaced while we were mapping it, in
+            // which case this mapping is used once but never cached:
+            if ( generation == _generation ) {
+                _mappings.put(path, mapping);
+                _mappedBytes += mapping.size();
+                evict();
+            }
+            return mapping;
+        }
+    }
+
+    /**
+     * Must be called whenever the file at path is replaced or deleted.
+     */
+    public synchronized void invalidate(Path path) {
+        _generation++;
+        Mapping mapping = _mappings.remove(path);
+        if ( null != mapping ) {
+            _mappedBytes -= mapping.size();
+        }
+    }
+
+    private synchronized void release(Mapping mapping) {
+        mapping._refs--;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Mapping> it = _mappings.values().iterator();
+        while ( _mappedBytes > _maxMappedBytes && it.hasNext() ) {
+            Mapping mapping = it.next();
+            if ( mapping._refs > 0 ) continue;
+            it.remove();
+            _mappedBytes -= mapping.size();
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package com.distelli.objectStore.impl.memory;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.AbstractObjectStore;
+import com.distelli.objectStore.impl.ObjectStoreBuilder;
+import com.distelli.persistence.PageIterator;
+import com.distelli.utils.ByteBufferInputStream;
+import com.google.inject.assistedinject.Assisted;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.AccessControlException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.persistence.EntityNotFoundException;
+import static javax.xml.bind.DatatypeConverter.printHexBinary;
+
+/**
+ * ObjectStore which keeps the content of each object in an off-heap
+ * (direct) ByteBuffer, for tests and as a near-cache of small hot
+ * objects. Nothing is persisted.
+ *
+ * Each bucket is a sorted map so list() returns keys in order with the
+ * same marker semantics as the indexed DiskObjectStore. Like the
+ * DiskObjectStore, the end of a range is exclusive.
+ *
+ * Like the file URI of the DiskObjectStore, createSignedGet() returns a
+ * URI which is only meaningful in this JVM: mem://bucket/key, which
+ * toObjectKey() turns back into the key to get.
+ *
+ * If memoryMaxSize is set, the least recently used objects are evicted
+ * when storing an object (or part) would exceed it. Parts of multipart
+ * puts count towards the limit but are never evicted. Note that the
+ * memory of evicted objects is released when the buffers are garbage
+ * collected.
+ */
+public class InMemoryObjectStore extends AbstractObjectStore {
+    public interface Factory {
+        public InMemoryObjectStore create(ObjectStoreBuilder builder);
+    }
+
+    public static final String URI_SCHEME = "mem";
+
+    private static class Entry {
+        // The bucket and key, so evict() can remove the entry:
+        private final ConcurrentNavigableMap<String, Entry> _bucket;
+        private final String _key;
+        private final ByteBuffer _content;
+        private final String _contentMD5;
+        private final String _contentEncoding;
+        private final long _lastModified;
+        private volatile long _lastAccess;
+
+        private Entry(ConcurrentNavigableMap<String, Entry> bucket, String key, ByteBuffer content, String contentEncoding) {
+            _bucket = bucket;
+            _key = key;
+            _content = content.asReadOnlyBuffer();
+            _contentMD5 = md5(content);
+            _contentEncoding = contentEncoding;
+            _lastModified = System.currentTimeMillis();
+            _lastAccess = System.nanoTime();
+        }
+
+        // A copy of source which shares its content:
+        private Entry(ConcurrentNavigableMap<String, Entry> bucket, String key, Entry source) {
+            _bucket = bucket;
+            _key = key;
+            _content = source._content;
+            _contentMD5 = source._contentMD5;
+            _contentEncoding = source._contentEncoding;
+            _lastModified = System.currentTimeMillis();
+            _lastAccess = System.nanoTime();
+        }
+
+        private long size() {
+            return _content.capacity();
+        }
+    }
+
+    private static class Upload {
+        private final ObjectKey _objectKey;
+        private final String _contentEncoding;
+        private final ConcurrentMap<String, ByteBuffer> _parts = new ConcurrentHashMap<>();
+
+        private Upload(ObjectKey objectKey, String contentEncoding) {
+            _objectKey = objectKey;
+            _contentEncoding = contentEncoding;
+        }
+    }
+
+    private final ConcurrentMap<String, ConcurrentNavigableMap<String, Entry>> _buckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Upload> _uploads = new ConcurrentHashMap<>();
+    private final long _maxSize;
+    private final AtomicLong _size = new AtomicLong();
+
+    @Inject
+    public InMemoryObjectStore(@Assisted ObjectStoreBuilder builder) {
+        this(null == builder.getMemoryMaxSize() ? Long.MAX_VALUE : builder.getMemoryMaxSize());
+        ObjectStoreType type = builder.getObjectStoreProvider();
+        if ( type != ObjectStoreType.IN_MEMORY ) {
+            throw new IllegalArgumentException("Invalid ObjectStoreType: "+type);
+        }
+    }
+
+    /**
+     * @param maxSize is the maximum bytes of content to hold, use
+     *     Long.MAX_VALUE for no limit.
+     */
+    public InMemoryObjectStore(long maxSize) {
+        if ( maxSize < 1 ) {
+            throw new IllegalArgumentException("memoryMaxSize must be >= 1, got "+maxSize);
+        }
+        _maxSize = maxSize;
+    }
+
+    // Bytes of content currently held, including parts of multipart puts:
+    public long size() {
+        return _size.get();
+    }
+
+    @Override
+    public void createBucket(String bucketName) {
+        if ( null == bucketName || bucketName.isEmpty() ) {
+            throw new IllegalArgumentException("BucketName is invalid "+bucketName);
+        }
+        _buckets.computeIfAbsent(bucketName, (name) -> new ConcurrentSkipListMap<>());
+    }
+
+    // Consistent with DiskObjectStore:
+    @Override
+    public void deleteBucket(String bucketName) throws AccessControlException {
+        ConcurrentNavigableMap<String, Entry> bucket = _buckets.get(bucketName);
+        if ( null == bucket ) return;
+        if ( ! bucket.isEmpty() ) {
+            throw new AccessControlException("Bucket "+bucketName+" is not empty");
+        }
+        _buckets.remove(bucketName, bucket);
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
+        ConcurrentNavigableMap<String, Entry> bucket = getBucket(objectKey);
+        ByteBuffer content;
+        try {
+            content = readFully(in, contentLength);
+            in.close();
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+        store(bucket, objectKey.getKey(), content, contentEncoding);
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, byte[] in) {
+        ConcurrentNavigableMap<String, Entry> bucket = getBucket(objectKey);
+        ByteBuffer content = ByteBuffer.allocateDirect(in.length);
+        content.put(in);
+        content.flip();
+        store(bucket, objectKey.getKey(), content, null);
+    }
+
+    // The etag is the MD5 of the content, the write is atomic with the check:
+    @Override
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in) {
+        ConcurrentNavigableMap<String, Entry> bucket = getBucket(objectKey);
+        ByteBuffer content;
+        try {
+            content = readFully(in, contentLength);
+            in.close();
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+        Entry entry = new Entry(bucket, objectKey.getKey(), content, contentEncoding);
+        reserve(entry.size());
+        while ( true ) {
+            Entry old = bucket.get(entry._key);
+            if ( null == old ? null != etag : ! old._contentMD5.equals(etag) ) break;
+            if ( null == old ? null == bucket.putIfAbsent(entry._key, entry) : bucket.replace(entry._key, old, entry) ) {
+                if ( null != old ) _size.addAndGet(-old.size());
+                return true;
+            }
+        }
+        _size.addAndGet(-entry.size());
+        return false;
+    }
+
+    // Returns null if entity does not exist.
+    @Override
+    public ObjectMetadata head(ObjectKey objectKey) {
+        ConcurrentNavigableMap<String, Entry> bucket = _buckets.get(objectKey.getBucket());
+        if ( null == bucket ) return null;
+        Entry entry = bucket.get(objectKey.getKey());
+        if ( null == entry ) return null;
+        return toMetadata(objectKey, entry, entry.size());
+    }
+
+    @Override
+    public boolean isRangeEndInclusive() {
+        return false;
+    }
+
+    @Override
+    public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        return getBuffer(objectKey, (meta, buf) -> objectReader.read(meta, new ByteBufferInputStream(buf)), start, end);
+    }
+
+    // Passes the stored buffer without copying:
+    @Override
+    public <T> T getBuffer(ObjectKey objectKey, ObjectBufferReader<T> objectReader, Long start, Long end)
+        throws EntityNotFoundException, IOException
+    {
+        Entry entry = getBucket(objectKey).get(objectKey.getKey());
+        if ( null == entry ) {
+            throw new EntityNotFoundException("NotFound: "+objectKey);
+        }
+        entry._lastAccess = System.nanoTime();
+        long size = entry.size();
+        long from = null == start ? 0 : Math.min(start, size);
+        long to = null == end ? size : Math.min(end, size);
+        if ( null != start && null != end && end < start ) {
+            throw new IllegalArgumentException("end ["+end+"] cannot be less than start ["+start+"]");
+        }
+        ByteBuffer buf = entry._content.duplicate();
+        buf.position((int)from);
+        buf.limit((int)Math.max(from, to));
+        return objectReader.read(toMetadata(objectKey, entry, buf.remaining()), buf.slice());
+    }
+
+    /**
+     * The copy shares the (read-only) content of from. Each object is
+     * still counted towards memoryMaxSize, so the limit is conservative
+     * while copies exist.
+     */
+    @Override
+    public void copy(ObjectKey from, ObjectKey to) {
+        ConcurrentNavigableMap<String, Entry> bucket = getBucket(to);
+        Entry source = getBucket(from).get(from.getKey());
+        if ( null == source ) {
+            throw new EntityNotFoundException("NotFound: "+from);
+        }
+        store(new Entry(bucket, to.getKey(), source));
+    }
+
+    @Override
+    public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator) {
+        List<ObjectKey> keys = new ArrayList<>();
+        for ( ObjectMetadata meta : listMetadata(objectKey, iterator) ) {
+            keys.add(ObjectKey.builder()
+                     .bucket(meta.getBucket())
+                     .key(meta.getKey())
+                     .build());
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    @Override
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator) {
+        String prefix = objectKey.getKey();
+        String marker = iterator.getMarker();
+        List<ObjectMetadata> result = new ArrayList<>();
+        iterator.setMarker(null);
+        for ( Map.Entry<String, Entry> elm : getBucket(objectKey).tailMap(null == marker ? prefix : marker, true).entrySet() ) {
+            if ( ! elm.getKey().startsWith(prefix) ) break;
+            if ( result.size() >= iterator.getPageSize() ) {
+                iterator.setMarker(elm.getKey());
+                break;
+            }
+            ObjectKey key = ObjectKey.builder()
+                .bucket(objectKey.getBucket())
+                .key(elm.getKey())
+                .build();
+            result.add(toMetadata(key, elm.getValue(), elm.getValue().size()));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public void delete(ObjectKey objectKey) throws EntityNotFoundException {
+        Entry entry = getBucket(objectKey).remove(objectKey.getKey());
+        if ( null != entry ) _size.addAndGet(-entry.size());
+    }
+
+    @Override
+    public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit) {
+        // Like S3, this does not check if the object exists:
+        try {
+            return new URI(URI_SCHEME, objectKey.getBucket(), "/"+objectKey.getKey(), null, null);
+        } catch ( URISyntaxException ex ) {
+            throw new IllegalArgumentException("Invalid objectKey="+objectKey+": "+ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the key of a URI returned by createSignedGet().
+     */
+    public static ObjectKey toObjectKey(URI uri) {
+        if ( ! URI_SCHEME.equals(uri.getScheme()) || null == uri.getPath() || ! uri.getPath().startsWith("/") ) {
+            throw new IllegalArgumentException("Expected "+URI_SCHEME+"://bucket/key, got "+uri);
+        }
+        return ObjectKey.builder()
+            .bucket(uri.getAuthority())
+            .key(uri.getPath().substring(1))
+            .build();
+    }
+
+    @Override
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding) {
+        getBucket(objectKey);
+        String uploadId = String.format("%016x", ThreadLocalRandom.current().nextLong());
+        _uploads.put(uploadId, new Upload(objectKey, contentEncoding));
+        return ObjectPartKey.builder()
+            .bucket(objectKey.getBucket())
+            .key(objectKey.getKey())
+            .uploadId(uploadId)
+            .build();
+    }
+
+    @Override
+    public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
+        if ( partNum < 1 || partNum > 10000 ) {
+            throw new IllegalArgumentException("partNum must be between 1-10000 got="+partNum);
+        }
+        Upload upload = getUpload(partKey);
+        ByteBuffer content;
+        try {
+            content = readFully(in, contentLength);
+        } catch ( IOException ex ) {
+            throw new UncheckedIOException(ex);
+        }
+        // Each attempt gets a new partId, like the DiskObjectStore:
+        String partId = String.format("%04d.%016x", partNum, ThreadLocalRandom.current().nextLong());
+        reserve(content.remaining());
+        upload._parts.put(partId, content);
+        if ( upload != _uploads.get(partKey.getUploadId()) ) {
+            // Aborted or completed concurrently:
+            if ( null != upload._parts.remove(partId) ) _size.addAndGet(-content.remaining());
+            throw new EntityNotFoundException("NotFound: "+partKey);
+        }
+        return ObjectPartId.builder()
+            .partNum(partNum)
+            .partId(partId)
+            .build();
+    }
+
+    @Override
+    public void abortPut(ObjectPartKey partKey) {
+        Upload upload = _uploads.remove(partKey.getUploadId());
+        if ( null == upload ) {
+            throw new EntityNotFoundException("NotFound: "+partKey);
+        }
+        release(upload);
+    }
+
+    @Override
+    public void completePut(ObjectPartKey partKey, List<ObjectPartId> partIds) {
+        Upload upload = getUpload(partKey);
+        ConcurrentNavigableMap<String, Entry> bucket = getBucket(upload._objectKey);
+        List<ByteBuffer> parts = new ArrayList<>(partIds.size());
+        long size = 0;
+        for ( ObjectPartId partId : partIds ) {
+            ByteBuffer part = upload._parts.get(partId.getPartId());
+            if ( null == part ) {
+                throw new IllegalArgumentException("Unknown partId="+partId+" for "+partKey);
+            }
+            parts.add(part);
+            size += part.remaining();
+        }
+        if ( ! _uploads.remove(partKey.getUploadId(), upload) ) {
+            throw new EntityNotFoundException("NotFound: "+partKey);
+        }
+        ByteBuffer content = ByteBuffer.allocateDirect(Math.toIntExact(size));
+        for ( ByteBuffer part : parts ) {
+            content.put(part.duplicate());
+        }
+        content.flip();
+        release(upload);
+        store(bucket, upload._objectKey.getKey(), content, upload._contentEncoding);
+    }
+
+    private void store(ConcurrentNavigableMap<String, Entry> bucket, String key, ByteBuffer content, String contentEncoding) {
+        store(new Entry(bucket, key, content, contentEncoding));
+    }
+
+    private void store(Entry entry) {
+        reserve(entry.size());
+        Entry old = entry._bucket.put(entry._key, entry);
+        if ( null != old ) _size.addAndGet(-old.size());
+    }
+
+    private void release(Upload upload) {
+        for ( String partId : upload._parts.keySet() ) {
+            ByteBuffer part = upload._parts.remove(partId);
+            if ( null != part ) _size.addAndGet(-part.remaining());
+        }
+    }
+
+    // Adds size to _size, evicting objects if needed to stay within _maxSize:
+    private void reserve(long size) {
+        if ( size > _maxSize ) {
+            throw new IllegalArgumentException("Object of "+size+" bytes exceeds memoryMaxSize="+_maxSize);
+        }
+        while ( true ) {
+            long current = _size.get();
+            if ( current + size <= _maxSize ) {
+                if ( _size.compareAndSet(current, current + size) ) return;
+                continue;
+            }
+            if ( ! evict(current + size - _maxSize) ) {
+                throw new IllegalStateException(
+                    "Unable to store "+size+" bytes within memoryMaxSize="+_maxSize+", the remaining content is in multipart puts");
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used objects until at least size bytes
+     * (and at least a tenth of _maxSize, so eviction is amortized over
+     * many puts) are freed.
+     *
+     * @return false if there was nothing to evict.
+     */
+    private synchronized boolean evict(long size) {
+        List<Entry> entries = new ArrayList<>();
+        for ( ConcurrentNavigableMap<String, Entry> bucket : _buckets.values() ) {
+            entries.addAll(bucket.values());
+        }
+        if ( entries.isEmpty() ) return false;
+        entries.sort(Comparator.comparingLong((entry) -> entry._lastAccess));
+        long goal = Math.max(size, _maxSize / 10);
+        long freed = 0;
+        for ( Entry entry : entries ) {
+            if ( freed >= goal ) break;
+            if ( entry._bucket.remove(entry._key, entry) ) {
+                _size.addAndGet(-entry.size());
+                freed += entry.size();
+            }
+        }
+        return true;
+    }
+
+    private ConcurrentNavigableMap<String, Entry> getBucket(ObjectKey objectKey) {
+        ConcurrentNavigableMap<String, Entry> bucket = _buckets.get(objectKey.getBucket());
+        if ( null == bucket ) {
+            throw new EntityNotFoundException("NotFound: "+objectKey);
+        }
+        return bucket;
+    }
+
+    private Upload getUpload(ObjectPartKey partKey) {
+        Upload upload = _uploads.get(partKey.getUploadId());
+        if ( null == upload ) {
+            throw new EntityNotFoundException("NotFound: "+partKey);
+        }
+        return upload;
+    }
+
+    private static ObjectMetadata toMetadata(ObjectKey objectKey, Entry entry, long contentLength) {
+        return ObjectMetadata.builder()
+            .bucket(objectKey.getBucket())
+            .key(objectKey.getKey())
+            .contentLength(contentLength)
+            .contentMD5(entry._contentMD5)
+            .lastModified(entry._lastModified)
+            .etag(entry._contentMD5)
+            .contentEncoding(entry._contentEncoding)
+            .build();
+    }
+
+    // Reads in into a direct buffer, contentLength is only a hint of the size.
+    // Content which does not match the hint is collected on the heap and
+    // copied into a direct buffer once, since direct memory is only
+    // released when the buffer is garbage collected:
+    private static ByteBuffer readFully(InputStream in, long contentLength) throws IOException {
+        byte[] heap;
+        int len = 0;
+        if ( contentLength > 0 ) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(Math.toIntExact(contentLength));
+            ReadableByteChannel channel = Channels.newChannel(in);
+            while ( buf.hasRemaining() && channel.read(buf) >= 0 );
+            int next = buf.hasRemaining() ? -1 : in.read();
+            buf.flip();
+            if ( next < 0 ) {
+                if ( buf.remaining() == buf.capacity() ) return buf;
+                return toDirect(buf);
+            }
+            heap = new byte[Math.toIntExact(2L*buf.capacity())];
+            len = buf.remaining();
+            buf.get(heap, 0, len);
+            heap[len++] = (byte)next;
+        } else {
+            heap = new byte[8192];
+        }
+        while ( true ) {
+            if ( len == heap.length ) heap = Arrays.copyOf(heap, Math.toIntExact(2L*heap.length));
+            int bytesRead = in.read(heap, len, heap.length - len);
+            if ( bytesRead < 0 ) break;
+            len += bytesRead;
+        }
+        return toDirect(ByteBuffer.wrap(heap, 0, len));
+    }
+
+    private static ByteBuffer toDirect(ByteBuffer buf) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(buf.remaining());
+        direct.put(buf);
+        direct.flip();
+        return direct;
+    }
+
+    private static String md5(ByteBuffer content) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException(ex);
+        }
+        md.update(content.duplicate());
+        return printHexBinary(md.digest()).toLowerCase();
+    }
+}
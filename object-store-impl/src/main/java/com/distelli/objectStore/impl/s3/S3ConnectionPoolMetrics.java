@@ -0,0 +1,80 @@
+package com.distelli.objectStore.impl.s3;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Singleton;
+
+/**
+ * Connection pool statistics of every S3ObjectStore, inject this to
+ * observe if maxConnections is too small.
+ *
+ * The SDK does not time the connection lease on its own, so the lease
+ * wait of a request is measured from the start of the last HTTP attempt
+ * until the request is sent. This includes connecting if a new
+ * connection was created.
+ */
+@Singleton
+public class S3ConnectionPoolMetrics extends RequestMetricCollector {
+    private final LongAdder _requests = new LongAdder();
+    private final LongAdder _leaseWaitNanos = new LongAdder();
+    private final LongAccumulator _maxLeaseWaitNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLong _pending = new AtomicLong();
+    private final LongAccumulator _maxPending = new LongAccumulator(Math::max, 0);
+    private final AtomicLong _leased = new AtomicLong();
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+        if ( null == metrics ) return;
+        TimingInfo timing = metrics.getTimingInfo();
+        _requests.increment();
+        TimingInfo attempt = timing.getLastSubMeasurement(AWSRequestMetrics.Field.HttpRequestTime.name());
+        TimingInfo send = timing.getLastSubMeasurement(AWSRequestMetrics.Field.HttpClientSendRequestTime.name());
+        if ( null != attempt && null != send ) {
+            long waitNanos = send.getStartTimeNano() - attempt.getStartTimeNano();
+            if ( waitNanos >= 0 ) {
+                _leaseWaitNanos.add(waitNanos);
+                _maxLeaseWaitNanos.accumulate(waitNanos);
+            }
+        }
+        Number pending = timing.getCounter(AWSRequestMetrics.Field.HttpClientPoolPendingCount.name());
+        if ( null != pending ) {
+            _pending.set(pending.longValue());
+            _maxPending.accumulate(pending.longValue());
+        }
+        Number leased = timing.getCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount.name());
+        if ( null != leased ) _leased.set(leased.longValue());
+    }
+
+    public long getRequestCount() {
+        return _requests.sum();
+    }
+
+    public long getTotalLeaseWaitNanos() {
+        return _leaseWaitNanos.sum();
+    }
+
+    public long getMaxLeaseWaitNanos() {
+        return _maxLeaseWaitNanos.get();
+    }
+
+    // Requests waiting for a connection when the last request was sent:
+    public long getPendingCount() {
+        return _pending.get();
+    }
+
+    public long getMaxPendingCount() {
+        return _maxPending.get();
+    }
+
+    // Connections in use when the last request was sent:
+    public long getLeasedCount() {
+        return _leased.get();
+    }
+}
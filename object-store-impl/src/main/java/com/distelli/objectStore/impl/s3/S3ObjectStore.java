@@ -1,12 +1,18 @@
 package com.distelli.objectStore.impl.s3;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
@@ -15,32 +21,52 @@ import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.transfer.Transfer;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.distelli.aws.AWSCredentialsProviderFactory;
 import com.distelli.aws.AmazonWebServiceClients;
 import com.distelli.aws.ClientConfigurations;
 import com.distelli.cred.CredProvider;
 import com.distelli.objectStore.*;
 import com.distelli.objectStore.impl.AbstractObjectStore;
+import com.distelli.objectStore.impl.MultipartUploader;
 import com.distelli.objectStore.impl.ObjectStoreBuilder;
 import com.distelli.utils.ResettableInputStream;
 import com.distelli.persistence.PageIterator;
 import com.google.inject.assistedinject.Assisted;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.net.URL;
 import java.security.AccessControlException;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.persistence.EntityNotFoundException;
 import static javax.xml.bind.DatatypeConverter.parseHexBinary;
@@ -49,7 +75,27 @@ import static javax.xml.bind.DatatypeConverter.printHexBinary;
 public class S3ObjectStore extends AbstractObjectStore {
     private AmazonS3 amazonS3 = null;
     private boolean serverSideEncryption = false;
+    private int uploadBufferLimit = DEFAULT_UPLOAD_BUFFER_LIMIT;
     private URI endpoint = null;
+    // Created on first use by getTransferManager():
+    private TransferManager transferManager = null;
+    // Upload streams up to this size are buffered in memory for retries:
+    private static final int DEFAULT_UPLOAD_BUFFER_LIMIT = 8*1024*1024;
+    // Maximum number of keys in a DeleteObjects request:
+    private static final int MAX_DELETE_KEYS = 1000;
+    // Files larger than this are uploaded as concurrent multipart parts:
+    private static final long MULTIPART_THRESHOLD = 64L*1024*1024;
+    // Largest object which can be copied with a single CopyObject request:
+    private static final long MAX_COPY_OBJECT_SIZE = 5L*1024*1024*1024;
+    // Objects larger than MAX_COPY_OBJECT_SIZE are copied in parts of at least this size:
+    private static final long COPY_PART_SIZE = 512L*1024*1024;
+    private static final int MAX_PARTS = 10000;
+    // Threads of the TransferManager used by the file *Async() methods:
+    private static final int TRANSFER_THREADS = 10;
+    // User metadata (x-amz-meta-content-encoding) holding the contentEncoding. The
+    // Content-Encoding header is not used, since HTTP clients of a signed get would
+    // transparently decode it:
+    private static final String CONTENT_ENCODING_METADATA = "content-encoding";
 
     public static interface Factory {
         public S3ObjectStore create(ObjectStoreBuilder builder);
@@ -59,29 +105,70 @@ public class S3ObjectStore extends AbstractObjectStore {
     protected S3ObjectStore(@Assisted ObjectStoreBuilder builder,
                             AWSCredentialsProviderFactory credProviderFactory,
                             ClientConfigurations clientConfigs,
-                            AmazonWebServiceClients amazonClients)
+                            AmazonWebServiceClients amazonClients,
+                            S3ConnectionPoolMetrics connectionPoolMetrics)
     {
         endpoint = builder.getEndpoint();
         if ( null == builder.getCredProvider() ) {
             throw new NullPointerException("null CredProvider");
         }
         Boolean serverSideEncryption = builder.getServerSideEncryption();
-        Boolean forceV4Signature = builder.getForceV4Signature();
-        ClientConfiguration config = new ClientConfiguration();
-        clientConfigs.withProxy(config, builder.getProxy());
-        if ( null != forceV4Signature && forceV4Signature ) {
-            config.setSignerOverride("AWSS3V4SignerType");
-        }
         if ( null != serverSideEncryption && serverSideEncryption ) {
             this.serverSideEncryption = true;
         }
+        if ( null != builder.getUploadBufferLimit() ) {
+            if ( builder.getUploadBufferLimit() < 0 ) {
+                throw new IllegalArgumentException("uploadBufferLimit must be >= 0, got "+builder.getUploadBufferLimit());
+            }
+            this.uploadBufferLimit = builder.getUploadBufferLimit();
+        }
+        ClientConfiguration config = toClientConfiguration(builder);
+        clientConfigs.withProxy(config, builder.getProxy());
         amazonS3 = amazonClients.withEndpoint(
             new AmazonS3Client(
                 credProviderFactory.create(builder.getCredProvider()),
-                config),
+                config,
+                connectionPoolMetrics),
             builder.getEndpoint());
     }
 
+    // Visible for testing:
+    static ClientConfiguration toClientConfiguration(ObjectStoreBuilder builder) {
+        ClientConfiguration config = new ClientConfiguration();
+        Boolean forceV4Signature = builder.getForceV4Signature();
+        if ( null != forceV4Signature && forceV4Signature ) {
+            config.setSignerOverride("AWSS3V4SignerType");
+        }
+        if ( null != builder.getMaxConnections() ) {
+            if ( builder.getMaxConnections() < 1 ) {
+                throw new IllegalArgumentException("maxConnections must be >= 1, got "+builder.getMaxConnections());
+            }
+            config.setMaxConnections(builder.getMaxConnections());
+        }
+        if ( null != builder.getConnectionTimeoutMillis() ) {
+            config.setConnectionTimeout(builder.getConnectionTimeoutMillis());
+        }
+        if ( null != builder.getSocketTimeoutMillis() ) {
+            config.setSocketTimeout(builder.getSocketTimeoutMillis());
+        }
+        if ( null != builder.getRequestTimeoutMillis() ) {
+            config.setRequestTimeout(builder.getRequestTimeoutMillis());
+        }
+        if ( null != builder.getMaxErrorRetry() ) {
+            config.setMaxErrorRetry(builder.getMaxErrorRetry());
+        }
+        if ( null != builder.getTcpKeepAlive() ) {
+            config.setUseTcpKeepAlive(builder.getTcpKeepAlive());
+        }
+        if ( null != builder.getConnectionTTLMillis() ) {
+            config.setConnectionTTL(builder.getConnectionTTLMillis());
+        }
+        if ( null != builder.getConnectionMaxIdleMillis() ) {
+            config.setConnectionMaxIdleMillis(builder.getConnectionMaxIdleMillis());
+        }
+        return config;
+    }
+
     @Override
     public void createBucket(String bucketName) throws AccessControlException {
         try {
@@ -106,29 +193,203 @@ public class S3ObjectStore extends AbstractObjectStore {
         }
     }
 
+    /**
+     * The S3 client resets the stream in order to retry. File streams and
+     * in-memory streams are resettable as is, other streams are recorded in
+     * memory up to the uploadBufferLimit and then spilled to disk.
+     */
     private InputStream makeResettable(InputStream in) throws IOException {
-        if ( !(in instanceof ResettableInputStream) && !(in instanceof FileInputStream) ) {
-            return new ResettableInputStream(in);
+        if ( in instanceof ResettableInputStream ||
+             in instanceof FileInputStream ||
+             in instanceof ByteArrayInputStream )
+        {
+            return in;
+        }
+        return new ResettableInputStream(in, uploadBufferLimit);
+    }
+
+    @Override
+    public void put(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
+        try {
+            amazonS3.putObject(putRequest(objectKey, contentEncoding, contentLength, in));
+        } catch ( AmazonS3Exception ex ) {
+            handleAmazonS3Exception(ex, objectKey);
         }
-        return in;
     }
 
+    /**
+     * Uses the If-Match (or If-None-Match: *) header of PutObject, so S3
+     * checks the condition atomically when the upload completes.
+     */
     @Override
-    public void put(ObjectKey objectKey, long contentLength, InputStream in) {
+    public boolean putIfMatch(ObjectKey objectKey, String etag, String contentEncoding, long contentLength, InputStream in) {
+        PutObjectRequest req = putRequest(objectKey, contentEncoding, contentLength, in);
+        if ( null == etag ) {
+            req.putCustomRequestHeader("If-None-Match", "*");
+        } else {
+            req.putCustomRequestHeader("If-Match", "\""+etag+"\"");
+        }
+        try {
+            amazonS3.putObject(req);
+        } catch ( AmazonS3Exception ex ) {
+            // 409 is returned if a concurrent conditional write won:
+            if ( 412 == ex.getStatusCode() || 409 == ex.getStatusCode() ) return false;
+            handleAmazonS3Exception(ex, objectKey);
+        }
+        return true;
+    }
+
+    private PutObjectRequest putRequest(ObjectKey objectKey, String contentEncoding, long contentLength, InputStream in) {
         com.amazonaws.services.s3.model.ObjectMetadata meta = new com.amazonaws.services.s3.model.ObjectMetadata();
         meta.setContentLength(contentLength);
         if ( serverSideEncryption ) {
             meta.setSSEAlgorithm(com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
         }
+        if ( null != contentEncoding ) {
+            meta.addUserMetadata(CONTENT_ENCODING_METADATA, contentEncoding);
+        }
         try {
-            amazonS3.putObject(objectKey.getBucket(), objectKey.getKey(), makeResettable(in), meta);
-        } catch ( AmazonS3Exception ex ) {
-            handleAmazonS3Exception(ex, objectKey);
+            return new PutObjectRequest(objectKey.getBucket(), objectKey.getKey(), makeResettable(in), meta);
         } catch ( IOException ex ) {
             throw new RuntimeException(ex);
         }
     }
 
+    @Override
+    public void put(ObjectKey objectKey, File in) throws IOException {
+        if ( in.length() <= MULTIPART_THRESHOLD ) {
+            super.put(objectKey, in);
+            return;
+        }
+        new MultipartUploader(getExecutor()).put(this, objectKey, in);
+    }
+
+    /**
+     * Uploaded by the TransferManager, so no thread is blocked while
+     * the upload is in progress.
+     */
+    @Override
+    public CompletableFuture<Void> putAsync(ObjectKey objectKey, File in) {
+        com.amazonaws.services.s3.model.ObjectMetadata meta = new com.amazonaws.services.s3.model.ObjectMetadata();
+        if ( serverSideEncryption ) {
+            meta.setSSEAlgorithm(com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+        try {
+            return toFuture(
+                getTransferManager().upload(
+                    new PutObjectRequest(objectKey.getBucket(), objectKey.getKey(), in)
+                    .withMetadata(meta)),
+                objectKey,
+                null);
+        } catch ( AmazonS3Exception ex ) {
+            return failedFuture(ex, objectKey);
+        }
+    }
+
+    /**
+     * Downloaded by the TransferManager, so no thread is blocked while
+     * the download is in progress. Only the initial metadata request is
+     * made on the calling thread. As with get(ObjectKey, File), file must
+     * not exist.
+     */
+    @Override
+    public CompletableFuture<Void> getAsync(ObjectKey objectKey, File file) {
+        if ( file.exists() ) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new FileAlreadyExistsException(file.toString()));
+            return future;
+        }
+        try {
+            return toFuture(
+                getTransferManager().download(
+                    new GetObjectRequest(objectKey.getBucket(), objectKey.getKey()),
+                    file),
+                objectKey,
+                file);
+        } catch ( AmazonS3Exception ex ) {
+            return failedFuture(ex, objectKey);
+        }
+    }
+
+    /**
+     * The TransferManager runs on its own pool of daemon threads rather
+     * than the injected executors, so transfers never compete with the
+     * work they are waited on by.
+     */
+    private synchronized TransferManager getTransferManager() {
+        if ( null == transferManager ) {
+            AtomicInteger threadNum = new AtomicInteger();
+            transferManager = TransferManagerBuilder.standard()
+                .withS3Client(amazonS3)
+                .withMultipartUploadThreshold(MULTIPART_THRESHOLD)
+                .withExecutorFactory(() -> {
+                        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                            TRANSFER_THREADS, TRANSFER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                            (runnable) -> {
+                                Thread thread = new Thread(runnable, "S3Transfer-"+threadNum.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                        executor.allowCoreThreadTimeOut(true);
+                        return executor;
+                    })
+                .build();
+        }
+        return transferManager;
+    }
+
+    /**
+     * Completes the returned future when transfer is done, translating
+     * failures like the blocking methods do. If partialFile is non-null
+     * it is deleted when the transfer fails.
+     */
+    private CompletableFuture<Void> toFuture(Transfer transfer, ObjectKey objectKey, File partialFile) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        ProgressListener listener = (event) -> {
+            switch ( event.getEventType() ) {
+            case TRANSFER_COMPLETED_EVENT:
+            case TRANSFER_FAILED_EVENT:
+            case TRANSFER_CANCELED_EVENT:
+                complete(future, transfer, objectKey, partialFile);
+            }
+        };
+        transfer.addProgressListener(listener);
+        // The transfer may be done before the listener was added:
+        if ( transfer.isDone() ) complete(future, transfer, objectKey, partialFile);
+        return future;
+    }
+
+    private void complete(CompletableFuture<Void> future, Transfer transfer, ObjectKey objectKey, File partialFile) {
+        if ( future.isDone() ) return;
+        try {
+            AmazonClientException ex = transfer.waitForException();
+            if ( null == ex ) {
+                future.complete(null);
+                return;
+            }
+            if ( null != partialFile ) Files.deleteIfExists(partialFile.toPath());
+            if ( ex instanceof AmazonS3Exception ) {
+                handleAmazonS3Exception((AmazonS3Exception)ex, objectKey);
+            }
+            throw ex;
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(ex);
+        } catch ( Throwable ex ) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private CompletableFuture<Void> failedFuture(AmazonS3Exception ex, ObjectKey objectKey) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            handleAmazonS3Exception(ex, objectKey);
+        } catch ( Throwable translated ) {
+            future.completeExceptionally(translated);
+        }
+        return future;
+    }
+
     @Override
     public ObjectMetadata head(ObjectKey objectKey) {
         com.amazonaws.services.s3.model.ObjectMetadata meta = null;
@@ -140,16 +401,27 @@ public class S3ObjectStore extends AbstractObjectStore {
             if ( ex.getStatusCode() == 404 ) return null;
             handleAmazonS3Exception(ex, objectKey);
         }
-        return ObjectMetadata.builder()
-            .bucket(objectKey.getBucket())
-            .key(objectKey.getKey())
-            .contentLength(meta.getContentLength())
-            .build();
+        return toMetadata(objectKey, meta);
     }
 
     @Override
     public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
         throws EntityNotFoundException, IOException
+    {
+        return get(objectKey, objectReader, start, end, null);
+    }
+
+    // S3 answers 304 Not Modified without the content:
+    @Override
+    public <T> T getIfNoneMatch(ObjectKey objectKey, String etag, ObjectReader<T> objectReader)
+        throws EntityNotFoundException, IOException
+    {
+        return get(objectKey, objectReader, null, null, etag);
+    }
+
+    // Returns null if the etag of the object is ifNoneMatch:
+    private <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end, String ifNoneMatch)
+        throws EntityNotFoundException, IOException
     {
         GetObjectRequest req = new GetObjectRequest(objectKey.getBucket(), objectKey.getKey());
         if ( null != start ) {
@@ -159,12 +431,17 @@ public class S3ObjectStore extends AbstractObjectStore {
                 req.setRange(start);
             }
         }
+        if ( null != ifNoneMatch ) {
+            req.setNonmatchingETagConstraints(Collections.singletonList(ifNoneMatch));
+        }
         S3Object res = null;
         try {
             res = amazonS3.getObject(req);
         } catch ( AmazonS3Exception ex ) {
             handleAmazonS3Exception(ex, objectKey);
         }
+        // The client returns null if a constraint was not met:
+        if ( null == res ) return null;
         MessageDigest md;
         try {
             md = MessageDigest.getInstance("MD5");
@@ -173,12 +450,17 @@ public class S3ObjectStore extends AbstractObjectStore {
         } catch ( Exception ex ) {
             throw new RuntimeException(ex);
         }
+        String etag = res.getObjectMetadata().getETag();
+        long offset = ( null == start ) ? 0 : start;
         InputStream is = new DigestInputStream(
-            new BufferedInputStream(res.getObjectContent(), 1024*1024),
+            new BufferedInputStream(
+                resumable(res.getObjectContent(),
+                          res.getObjectMetadata().getContentLength(),
+                          (resumeAt) -> openRange(objectKey, etag, offset + resumeAt, end)),
+                1024*1024),
             md);
         byte[] expectMD5 = null;
         try {
-            String etag = res.getObjectMetadata().getETag();
             if ( null != etag ) {
                 expectMD5 = parseHexBinary(etag);
             }
@@ -201,8 +483,54 @@ public class S3ObjectStore extends AbstractObjectStore {
         }
     }
 
+    // Resumes a get() after a dropped connection, unless the object was replaced:
+    private InputStream openRange(ObjectKey objectKey, String etag, long start, Long end) {
+        GetObjectRequest req = new GetObjectRequest(objectKey.getBucket(), objectKey.getKey());
+        if ( null != end ) {
+            req.setRange(start, end);
+        } else {
+            req.setRange(start);
+        }
+        if ( null != etag ) {
+            req.setMatchingETagConstraints(Collections.singletonList(etag));
+        }
+        S3Object res = null;
+        try {
+            res = amazonS3.getObject(req);
+        } catch ( AmazonS3Exception ex ) {
+            handleAmazonS3Exception(ex, objectKey);
+        }
+        if ( null == res ) {
+            throw new StreamCorruptedException(
+                "Object changed while resuming get for key: "+objectKey);
+        }
+        return res.getObjectContent();
+    }
+
     @Override
     public List<ObjectKey> list(ObjectKey objectKey, PageIterator iterator) {
+        return Collections.unmodifiableList(
+            listSummaries(objectKey, iterator)
+            .stream()
+            .map(this::toObjectKey)
+            .collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator) {
+        return Collections.unmodifiableList(
+            listSummaries(objectKey, iterator)
+            .stream()
+            .map(this::toMetadata)
+            .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Stream<ObjectMetadata> stream(ObjectKey prefix) {
+        return stream(prefix, getExecutor());
+    }
+
+    private List<S3ObjectSummary> listSummaries(ObjectKey objectKey, PageIterator iterator) {
         if ( ! iterator.isForward() ) {
             throw new UnsupportedOperationException("Only forward iteration is supported");
         }
@@ -218,11 +546,7 @@ public class S3ObjectStore extends AbstractObjectStore {
             handleAmazonS3Exception(ex, objectKey);
         }
         iterator.setMarker(res.getNextContinuationToken());
-        return Collections.unmodifiableList(
-            res.getObjectSummaries()
-            .stream()
-            .map(this::toObjectKey)
-            .collect(Collectors.toList()));
+        return res.getObjectSummaries();
     }
 
     @Override
@@ -234,6 +558,167 @@ public class S3ObjectStore extends AbstractObjectStore {
         }
     }
 
+    @Override
+    public Map<ObjectKey, Exception> deleteAll(Collection<ObjectKey> objectKeys) {
+        Map<String, List<ObjectKey>> keysByBucket = new LinkedHashMap<>();
+        for ( ObjectKey objectKey : objectKeys ) {
+            keysByBucket.computeIfAbsent(objectKey.getBucket(), (bucket) -> new ArrayList<>())
+                .add(objectKey);
+        }
+        Map<ObjectKey, Exception> failures = new LinkedHashMap<>();
+        for ( List<ObjectKey> keys : keysByBucket.values() ) {
+            for ( int i=0; i < keys.size(); i += MAX_DELETE_KEYS ) {
+                deleteObjects(keys.subList(i, Math.min(i + MAX_DELETE_KEYS, keys.size())), failures);
+            }
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+
+    // All keys must be in the same bucket:
+    private void deleteObjects(List<ObjectKey> keys, Map<ObjectKey, Exception> failures) {
+        String bucket = keys.get(0).getBucket();
+        DeleteObjectsRequest req = new DeleteObjectsRequest(bucket)
+            .withQuiet(true)
+            .withKeys(keys.stream()
+                      .map((objectKey) -> new DeleteObjectsRequest.KeyVersion(objectKey.getKey()))
+                      .collect(Collectors.toList()));
+        try {
+            amazonS3.deleteObjects(req);
+        } catch ( MultiObjectDeleteException ex ) {
+            for ( MultiObjectDeleteException.DeleteError error : ex.getErrors() ) {
+                ObjectKey objectKey = ObjectKey.builder()
+                    .bucket(bucket)
+                    .key(error.getKey())
+                    .build();
+                if ( "AccessDenied".equals(error.getCode()) ) {
+                    failures.put(objectKey, new AccessControlException(
+                                     "AccessDenied: "+objectKey+" endpoint="+endpoint+" "+error.getMessage()));
+                } else {
+                    failures.put(objectKey, new RuntimeException(
+                                     error.getCode()+": "+objectKey+" endpoint="+endpoint+" "+error.getMessage()));
+                }
+            }
+        } catch ( AmazonS3Exception ex ) {
+            // The entire request failed:
+            for ( ObjectKey objectKey : keys ) {
+                try {
+                    handleAmazonS3Exception(ex, objectKey);
+                } catch ( EntityNotFoundException notFound ) {
+                    // Consistent with delete(), which ignores missing objects.
+                } catch ( RuntimeException mapped ) {
+                    failures.put(objectKey, mapped);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copied by S3 without transferring the content: with a single
+     * CopyObject up to 5GB, and as a multipart put of UploadPartCopy
+     * parts above that. Parts are copied concurrently if an
+     * ExecutorService was injected. Each part is only copied if the
+     * source still has the etag it had when the copy started.
+     */
+    @Override
+    public void copy(ObjectKey from, ObjectKey to) {
+        com.amazonaws.services.s3.model.ObjectMetadata meta = null;
+        try {
+            meta = amazonS3.getObjectMetadata(from.getBucket(), from.getKey());
+        } catch ( AmazonS3Exception ex ) {
+            handleAmazonS3Exception(ex, from);
+        }
+        if ( meta.getContentLength() <= MAX_COPY_OBJECT_SIZE ) {
+            CopyObjectRequest req = new CopyObjectRequest(
+                from.getBucket(), from.getKey(), to.getBucket(), to.getKey())
+                .withMatchingETagConstraint(meta.getETag());
+            if ( serverSideEncryption ) {
+                com.amazonaws.services.s3.model.ObjectMetadata newMeta =
+                    new com.amazonaws.services.s3.model.ObjectMetadata();
+                newMeta.setContentType(meta.getContentType());
+                newMeta.setUserMetadata(meta.getUserMetadata());
+                newMeta.setSSEAlgorithm(com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+                req.setNewObjectMetadata(newMeta);
+            }
+            try {
+                if ( null == amazonS3.copyObject(req) ) {
+                    throw new StreamCorruptedException("Object "+from+" was modified during copy to "+to);
+                }
+            } catch ( AmazonS3Exception ex ) {
+                handleAmazonS3Exception(ex, to);
+            }
+            return;
+        }
+        copyParts(from, to, meta.getContentLength(), meta.getETag(), meta.getUserMetaDataOf(CONTENT_ENCODING_METADATA));
+    }
+
+    // UploadPartCopy does not copy the user metadata, so the contentEncoding is set on the new upload:
+    private void copyParts(ObjectKey from, ObjectKey to, long size, String etag, String contentEncoding) {
+        long partSize = Math.max(COPY_PART_SIZE, (size + MAX_PARTS - 1) / MAX_PARTS);
+        ObjectPartKey partKey = newMultipartPut(to, contentEncoding);
+        boolean completed = false;
+        try {
+            ExecutorService executor = getExecutor();
+            List<Future<ObjectPartId>> parts = new ArrayList<>();
+            int partNum = 1;
+            for ( long offset=0; offset < size; offset += partSize, partNum++ ) {
+                CopyPartRequest req = new CopyPartRequest()
+                    .withSourceBucketName(from.getBucket())
+                    .withSourceKey(from.getKey())
+                    .withDestinationBucketName(partKey.getBucket())
+                    .withDestinationKey(partKey.getKey())
+                    .withUploadId(partKey.getUploadId())
+                    .withPartNumber(partNum)
+                    .withFirstByte(offset)
+                    .withLastByte(Math.min(offset + partSize, size) - 1)
+                    .withMatchingETagConstraint(etag);
+                if ( null == executor ) {
+                    parts.add(CompletableFuture.completedFuture(copyPart(from, partKey, req)));
+                } else {
+                    parts.add(executor.submit(() -> copyPart(from, partKey, req)));
+                }
+            }
+            List<ObjectPartId> partIds = new ArrayList<>(parts.size());
+            for ( Future<ObjectPartId> part : parts ) {
+                try {
+                    partIds.add(part.get());
+                } catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted during copy of "+from+" to "+to, ex);
+                } catch ( ExecutionException ex ) {
+                    if ( ex.getCause() instanceof RuntimeException ) throw (RuntimeException)ex.getCause();
+                    throw new RuntimeException(ex.getCause());
+                }
+            }
+            completePut(partKey, partIds);
+            completed = true;
+        } finally {
+            if ( ! completed ) {
+                try {
+                    abortPut(partKey);
+                } catch ( RuntimeException ex ) {}
+            }
+        }
+    }
+
+    private ObjectPartId copyPart(ObjectKey from, ObjectPartKey partKey, CopyPartRequest req) {
+        CopyPartResult result = null;
+        try {
+            result = amazonS3.copyPart(req);
+        } catch ( AmazonS3Exception ex ) {
+            if ( 404 == ex.getStatusCode() && "NoSuchKey".equals(ex.getErrorCode()) ) {
+                handleAmazonS3Exception(ex, from);
+            }
+            handleAmazonS3Exception(ex, partKey);
+        }
+        if ( null == result ) {
+            throw new StreamCorruptedException("Object "+from+" was modified during copy to "+partKey);
+        }
+        return ObjectPartId.builder()
+            .partNum(result.getPartNumber())
+            .partId(result.getETag())
+            .build();
+    }
+
     @Override
     public URI createSignedGet(ObjectKey objectKey, long timeout, TimeUnit unit) {
         long millis = unit.toMillis(timeout);
@@ -254,13 +739,18 @@ public class S3ObjectStore extends AbstractObjectStore {
     }
 
     @Override
-    public ObjectPartKey newMultipartPut(ObjectKey objectKey) {
+    public ObjectPartKey newMultipartPut(ObjectKey objectKey, String contentEncoding) {
         InitiateMultipartUploadRequest req = new InitiateMultipartUploadRequest(
             objectKey.getBucket(), objectKey.getKey());
-        if ( serverSideEncryption ) {
+        if ( serverSideEncryption || null != contentEncoding ) {
             com.amazonaws.services.s3.model.ObjectMetadata meta =
                 new com.amazonaws.services.s3.model.ObjectMetadata();
-            meta.setSSEAlgorithm(com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+            if ( serverSideEncryption ) {
+                meta.setSSEAlgorithm(com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+            }
+            if ( null != contentEncoding ) {
+                meta.addUserMetadata(CONTENT_ENCODING_METADATA, contentEncoding);
+            }
             req.setObjectMetadata(meta);
         }
         String uploadId = null;
@@ -338,6 +828,7 @@ public class S3ObjectStore extends AbstractObjectStore {
         case 403:
             throw new AccessControlException("AccessDenied: "+objectKey+" endpoint="+endpoint+" "+ex.getMessage());
         }
+        throwIfTransient(ex, objectKey);
         throw ex;
     }
 
@@ -353,9 +844,18 @@ public class S3ObjectStore extends AbstractObjectStore {
         case 403:
             throw new AccessControlException("AccessDenied: "+objectPartKey+" endpoint="+endpoint+" "+ex.getMessage());
         }
+        throwIfTransient(ex, objectPartKey);
         throw ex;
     }
 
+    // The client already retried these maxErrorRetry times:
+    private void throwIfTransient(AmazonS3Exception ex, Object key) {
+        if ( ex.getStatusCode() >= 500 || 429 == ex.getStatusCode() || "SlowDown".equals(ex.getErrorCode()) ) {
+            throw new TransientObjectStoreException(
+                "Error '"+ex.getStatusCode()+" "+ex.getErrorCode()+"' from "+key+" endpoint="+endpoint, ex);
+        }
+    }
+
 
     private ObjectKey toObjectKey(S3ObjectSummary summary) {
         return ObjectKey.builder()
@@ -369,9 +869,31 @@ public class S3ObjectStore extends AbstractObjectStore {
             .bucket(objectKey.getBucket())
             .key(objectKey.getKey())
             .contentLength(meta.getContentLength())
+            .contentMD5(toContentMD5(meta.getETag()))
+            .lastModified(null == meta.getLastModified() ? null : meta.getLastModified().getTime())
+            .etag(meta.getETag())
+            .contentEncoding(meta.getUserMetaDataOf(CONTENT_ENCODING_METADATA))
+            .build();
+    }
+
+    private ObjectMetadata toMetadata(S3ObjectSummary summary) {
+        return ObjectMetadata.builder()
+            .bucket(summary.getBucketName())
+            .key(summary.getKey())
+            .contentLength(summary.getSize())
+            .contentMD5(toContentMD5(summary.getETag()))
+            .lastModified(null == summary.getLastModified() ? null : summary.getLastModified().getTime())
+            .etag(summary.getETag())
             .build();
     }
 
+    // The ETag is only the MD5 of the content for objects which were not
+    // uploaded via multipart:
+    private static String toContentMD5(String etag) {
+        if ( null == etag || ! etag.matches("[0-9a-fA-F]{32}") ) return null;
+        return etag.toLowerCase();
+    }
+
     // See https://codahale.com/a-lesson-in-timing-attacks/
     private static boolean isEqual(byte[] a, byte[] b) {
         if (a.length != b.length) {
@@ -0,0 +1,155 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.disk.DiskObjectStore;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestMultipartUploader {
+    private static File _storageRoot = new File("target/multipart-uploader-root/");
+    private static ExecutorService _executor = Executors.newFixedThreadPool(4);
+
+    // Fails the first attempt of each part and tracks the max concurrent parts:
+    private static class FlakyObjectStore extends DiskObjectStore {
+        private Set<Integer> _failedParts = ConcurrentHashMap.newKeySet();
+        private AtomicInteger _inFlight = new AtomicInteger();
+        private AtomicInteger _maxInFlight = new AtomicInteger();
+        private AtomicInteger _multipartPuts = new AtomicInteger();
+
+        public FlakyObjectStore(File root) {
+            super(root);
+        }
+
+        @Override
+        public ObjectPartId multipartPut(ObjectPartKey partKey, int partNum, long contentLength, InputStream in) {
+            int inFlight = _inFlight.incrementAndGet();
+            try {
+                _maxInFlight.accumulateAndGet(inFlight, Math::max);
+                if ( _failedParts.add(partNum) ) {
+                    throw new RuntimeException("Simulated failure of part "+partNum);
+                }
+                _multipartPuts.incrementAndGet();
+                return super.multipartPut(partKey, partNum, contentLength, in);
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        _executor.shutdown();
+    }
+
+    private static ObjectKey createKey(ObjectStore objectStore, String key) {
+        objectStore.createBucket("multipart-uploader");
+        return ObjectKey.builder()
+            .bucket("multipart-uploader")
+            .key(key)
+            .build();
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] content = new byte[len];
+        new Random(len).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testStreamUpload() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        ObjectKey key = createKey(objectStore, "stream");
+        byte[] content = randomBytes(10*1000 + 7);
+        new MultipartUploader(_executor)
+            .withPartSize(1000)
+            .withConcurrency(3)
+            .put(objectStore, key, new ByteArrayInputStream(content));
+        assertArrayEquals(content, objectStore.get(key));
+        assertThat(objectStore._multipartPuts.get(), equalTo(11));
+        assertThat(objectStore._maxInFlight.get() <= 3, is(true));
+        objectStore.delete(key);
+    }
+
+    @Test
+    public void testFileUpload() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        ObjectKey key = createKey(objectStore, "file");
+        byte[] content = randomBytes(5000);
+        File file = File.createTempFile("multipart-uploader", ".tmp");
+        try {
+            Files.write(file.toPath(), content);
+            new MultipartUploader(_executor)
+                .withPartSize(1000)
+                .put(objectStore, key, file);
+        } finally {
+            file.delete();
+        }
+        assertArrayEquals(content, objectStore.get(key));
+        assertThat(objectStore._multipartPuts.get(), equalTo(5));
+        objectStore.delete(key);
+    }
+
+    @Test
+    public void testSinglePartUsesPut() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        ObjectKey key = createKey(objectStore, "small");
+        byte[] content = randomBytes(999);
+        new MultipartUploader(_executor)
+            .withPartSize(1000)
+            .put(objectStore, key, new ByteArrayInputStream(content));
+        assertArrayEquals(content, objectStore.get(key));
+        assertThat(objectStore._multipartPuts.get(), equalTo(0));
+        objectStore.delete(key);
+    }
+
+    // The first part is read into a buffer which grows up to the partSize:
+    @Test
+    public void testFirstPartLargerThanInitialBuffer() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        ObjectKey key = createKey(objectStore, "grown");
+        byte[] content = randomBytes(150*1000);
+        new MultipartUploader(_executor)
+            .withPartSize(200*1000)
+            .put(objectStore, key, new ByteArrayInputStream(content));
+        assertArrayEquals(content, objectStore.get(key));
+        assertThat(objectStore._multipartPuts.get(), equalTo(0));
+
+        content = randomBytes(450*1000 + 7);
+        new MultipartUploader(_executor)
+            .withPartSize(200*1000)
+            .put(objectStore, key, new ByteArrayInputStream(content));
+        assertArrayEquals(content, objectStore.get(key));
+        assertThat(objectStore._multipartPuts.get(), equalTo(3));
+        objectStore.delete(key);
+    }
+
+    @Test
+    public void testFailedUploadIsAborted() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        ObjectKey key = createKey(objectStore, "failed");
+        try {
+            new MultipartUploader(_executor)
+                .withPartSize(1000)
+                .withMaxAttempts(1)
+                .put(objectStore, key, new ByteArrayInputStream(randomBytes(3000)));
+            fail("Expected RuntimeException");
+        } catch ( RuntimeException ex ) {
+            assertThat(ex.getMessage().contains("Simulated failure"), is(true));
+        }
+        assertThat(objectStore.head(key), is(nullValue()));
+        assertThat(new File(_storageRoot, "parts").list(), equalTo(new String[0]));
+    }
+}
@@ -0,0 +1,119 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.disk.DiskObjectStore;
+import com.distelli.persistence.PageIterator;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestPrefetchingListIterator {
+    private static File _storageRoot = new File("target/prefetching-list-root/");
+    private static ExecutorService _executor = Executors.newFixedThreadPool(2);
+    private static ObjectKey _prefix = ObjectKey.builder()
+        .bucket("prefetching-list")
+        .key("obj-")
+        .build();
+
+    // Counts the pages fetched and optionally fails on a page:
+    private static class CountingObjectStore extends DiskObjectStore {
+        private AtomicInteger _pages = new AtomicInteger();
+        private int _failOnPage = -1;
+
+        public CountingObjectStore(File root) {
+            super(root);
+        }
+
+        @Override
+        public List<ObjectMetadata> listMetadata(ObjectKey objectKey, PageIterator iterator) {
+            if ( _pages.incrementAndGet() == _failOnPage ) {
+                throw new IllegalStateException("Simulated failure of page "+_failOnPage);
+            }
+            return super.listMetadata(objectKey, iterator);
+        }
+    }
+
+    @BeforeClass
+    public static void beforeClass() {
+        ObjectStore objectStore = new DiskObjectStore(_storageRoot);
+        objectStore.createBucket(_prefix.getBucket());
+        for ( int i=0; i < 25; i++ ) {
+            objectStore.put(ObjectKey.builder()
+                            .bucket(_prefix.getBucket())
+                            .key(String.format("obj-%02d", i))
+                            .build(),
+                            new byte[i]);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        _executor.shutdown();
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        for ( ExecutorService executor : new ExecutorService[]{_executor, null} ) {
+            CountingObjectStore objectStore = new CountingObjectStore(_storageRoot);
+            List<ObjectMetadata> result;
+            try ( PrefetchingListIterator it = new PrefetchingListIterator(objectStore, _prefix, executor, 10, 2) ) {
+                result = it.stream().collect(Collectors.toList());
+            }
+            assertThat(result.size(), equalTo(25));
+            for ( int i=0; i < 25; i++ ) {
+                assertThat(result.get(i).getKey(), equalTo(String.format("obj-%02d", i)));
+                assertThat(result.get(i).getContentLength(), equalTo((long)i));
+                assertThat(result.get(i).getLastModified(), is(notNullValue()));
+            }
+            assertThat(objectStore._pages.get(), equalTo(3));
+        }
+    }
+
+    @Test
+    public void testPrefetchIsBounded() throws Exception {
+        CountingObjectStore objectStore = new CountingObjectStore(_storageRoot);
+        try ( PrefetchingListIterator it = new PrefetchingListIterator(objectStore, _prefix, _executor, 5, 2) ) {
+            // Nothing is consumed, so only two pages are fetched:
+            for ( int i=0; i < 100 && objectStore._pages.get() < 2; i++ ) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertThat(objectStore._pages.get(), equalTo(2));
+
+            int count = 0;
+            while ( it.hasNext() ) {
+                it.next();
+                count++;
+            }
+            assertThat(count, equalTo(25));
+            assertThat(objectStore._pages.get(), equalTo(5));
+        }
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception {
+        CountingObjectStore objectStore = new CountingObjectStore(_storageRoot);
+        objectStore._failOnPage = 2;
+        int count = 0;
+        try ( PrefetchingListIterator it = new PrefetchingListIterator(objectStore, _prefix, _executor, 10, 2) ) {
+            while ( it.hasNext() ) {
+                it.next();
+                count++;
+            }
+            fail("Expected IllegalStateException");
+        } catch ( IllegalStateException ex ) {
+            assertThat(ex.getMessage().contains("Simulated failure"), is(true));
+        }
+        // The first page is still returned:
+        assertThat(count, equalTo(10));
+    }
+}
@@ -0,0 +1,208 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.disk.DiskObjectStore;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestRangedDownloader {
+    private static File _storageRoot = new File("target/ranged-downloader-root/");
+    private static ExecutorService _executor = Executors.newFixedThreadPool(4);
+
+    // The first ranged get of each 1000 byte part fails after 100 bytes:
+    private static class FlakyObjectStore extends DiskObjectStore {
+        private Set<Long> _failedStarts = ConcurrentHashMap.newKeySet();
+        private Set<Long> _starts = ConcurrentHashMap.newKeySet();
+
+        public FlakyObjectStore(File root) {
+            super((ObjectStoreBuilder)new ObjectStoreBuilder()
+                  .withObjectStoreType(ObjectStoreType.DISK)
+                  .withDiskStorageRoot(root)
+                  .withDiskChecksums(true));
+        }
+
+        @Override
+        public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+            throws IOException
+        {
+            if ( null == start ) return super.get(objectKey, objectReader, start, end);
+            _starts.add(start);
+            if ( 0 != start % 1000 || ! _failedStarts.add(start) ) {
+                return super.get(objectKey, objectReader, start, end);
+            }
+            return super.get(objectKey, (meta, in) -> objectReader.read(meta, new FilterInputStream(in) {
+                    private int _remaining = 100;
+                    @Override
+                    public int read(byte[] buf, int off, int len) throws IOException {
+                        if ( _remaining <= 0 ) throw new IOException("Simulated connection reset");
+                        int n = super.read(buf, off, Math.min(len, _remaining));
+                        if ( n > 0 ) _remaining -= n;
+                        return n;
+                    }
+                }), start, end);
+        }
+    }
+
+    // The object is replaced with content of the same length before the part at 2000 is read:
+    private static class ReplacingObjectStore extends DiskObjectStore {
+        private final AtomicBoolean _replaced = new AtomicBoolean();
+
+        public ReplacingObjectStore(File root) {
+            super(root);
+        }
+
+        @Override
+        public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+            throws IOException
+        {
+            if ( null != start && 2000 == start && _replaced.compareAndSet(false, true) ) {
+                put(objectKey, new byte[5000]);
+            }
+            return super.get(objectKey, objectReader, start, end);
+        }
+    }
+
+    // Treats the end of a range as inclusive, like S3:
+    private static class InclusiveEndObjectStore extends DiskObjectStore {
+        public InclusiveEndObjectStore(File root) {
+            super(root);
+        }
+
+        @Override
+        public boolean isRangeEndInclusive() {
+            return true;
+        }
+
+        @Override
+        public <T> T get(ObjectKey objectKey, ObjectReader<T> objectReader, Long start, Long end)
+            throws IOException
+        {
+            return super.get(objectKey, objectReader, start, null == end ? null : end + 1);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        _executor.shutdown();
+    }
+
+    @Test
+    public void testRangedDownload() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        objectStore.createBucket("ranged-downloader");
+        ObjectKey key = ObjectKey.builder()
+            .bucket("ranged-downloader")
+            .key("object")
+            .build();
+        byte[] content = new byte[10*1000 + 7];
+        new Random(1).nextBytes(content);
+        objectStore.put(key, content);
+        assertThat(objectStore.head(key).getContentMD5(), is(notNullValue()));
+
+        File file = File.createTempFile("ranged-downloader", ".tmp");
+        file.delete();
+        try {
+            new RangedDownloader(_executor)
+                .withPartSize(1000)
+                .withConcurrency(3)
+                .get(objectStore, key, file);
+            assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            // Parts resume from where the simulated failure happened:
+            assertThat(objectStore._starts.contains(100L), is(true));
+            assertThat(objectStore._starts.contains(1100L), is(true));
+        } finally {
+            file.delete();
+            objectStore.delete(key);
+        }
+    }
+
+    @Test
+    public void testFailedDownloadRemovesFile() throws Exception {
+        FlakyObjectStore objectStore = new FlakyObjectStore(_storageRoot);
+        objectStore.createBucket("ranged-downloader");
+        ObjectKey key = ObjectKey.builder()
+            .bucket("ranged-downloader")
+            .key("failed")
+            .build();
+        objectStore.put(key, new byte[5000]);
+
+        File file = File.createTempFile("ranged-downloader", ".tmp");
+        file.delete();
+        try {
+            new RangedDownloader(_executor)
+                .withPartSize(1000)
+                .withMaxAttempts(1)
+                .get(objectStore, key, file);
+            fail("Expected IOException");
+        } catch ( IOException ex ) {
+            assertThat(ex.getMessage().contains("Simulated connection reset"), is(true));
+        } finally {
+            objectStore.delete(key);
+        }
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void testInclusiveRangeEnd() throws Exception {
+        InclusiveEndObjectStore objectStore = new InclusiveEndObjectStore(_storageRoot);
+        objectStore.createBucket("ranged-downloader");
+        ObjectKey key = ObjectKey.builder()
+            .bucket("ranged-downloader")
+            .key("inclusive")
+            .build();
+        byte[] content = new byte[3*1000 + 7];
+        new Random(1).nextBytes(content);
+        objectStore.put(key, content);
+
+        File file = File.createTempFile("ranged-downloader", ".tmp");
+        file.delete();
+        try {
+            new RangedDownloader(_executor)
+                .withPartSize(1000)
+                .get(objectStore, key, file);
+            assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        } finally {
+            file.delete();
+            objectStore.delete(key);
+        }
+    }
+
+    @Test
+    public void testReplacedDuringDownload() throws Exception {
+        ReplacingObjectStore objectStore = new ReplacingObjectStore(_storageRoot);
+        objectStore.createBucket("ranged-downloader");
+        ObjectKey key = ObjectKey.builder()
+            .bucket("ranged-downloader")
+            .key("replaced")
+            .build();
+        byte[] content = new byte[5000];
+        new Random(1).nextBytes(content);
+        objectStore.put(key, content);
+
+        File file = File.createTempFile("ranged-downloader", ".tmp");
+        file.delete();
+        try {
+            new RangedDownloader(_executor)
+                .withPartSize(1000)
+                .get(objectStore, key, file);
+            fail("Expected StreamCorruptedException");
+        } catch ( StreamCorruptedException ex ) {
+        } finally {
+            objectStore.delete(key);
+        }
+        assertThat(file.exists(), is(false));
+    }
+}
@@ -0,0 +1,114 @@
+package com.distelli.objectStore.impl;
+
+import com.distelli.objectStore.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.persistence.EntityNotFoundException;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestResumingInputStream {
+    private static byte[] content(int len) {
+        byte[] content = new byte[len];
+        for ( int i=0; i < len; i++ ) {
+            content[i] = (byte)i;
+        }
+        return content;
+    }
+
+    // Fails with an IOException after failAfter bytes:
+    private static InputStream dropping(byte[] content, int offset, int failAfter) {
+        return new ByteArrayInputStream(content, offset, content.length - offset) {
+            private int _remaining = failAfter;
+            @Override
+            public synchronized int read(byte[] buf, int off, int len) {
+                if ( _remaining <= 0 ) throw new UncheckedIOException(new IOException("Connection reset"));
+                int count = super.read(buf, off, Math.min(len, _remaining));
+                if ( count > 0 ) _remaining -= count;
+                return count;
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[7];
+        int len;
+        while ( (len = in.read(buf)) > 0 ) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testResumesAtNextByte() throws Exception {
+        byte[] content = content(1000);
+        List<Long> offsets = new ArrayList<>();
+        InputStream in = new ResumingInputStream(
+            dropping(content, 0, 100),
+            1000L,
+            (offset) -> {
+                offsets.add(offset);
+                return dropping(content, (int)offset, 300);
+            },
+            new RetryPolicy(2, 10));
+        assertArrayEquals(content, readAll(in));
+        assertThat(offsets, equalTo(Arrays.asList(100L, 400L, 700L)));
+    }
+
+    @Test
+    public void testPrematureEndIsResumed() throws Exception {
+        byte[] content = content(100);
+        InputStream in = new ResumingInputStream(
+            new ByteArrayInputStream(content, 0, 40),
+            100L,
+            (offset) -> new ByteArrayInputStream(content, (int)offset, content.length - (int)offset),
+            new RetryPolicy(2, 10));
+        assertArrayEquals(content, readAll(in));
+    }
+
+    @Test
+    public void testPermanentFailuresAndBudget() throws Exception {
+        byte[] content = content(100);
+        InputStream in = new ResumingInputStream(
+            dropping(content, 0, 10),
+            100L,
+            (offset) -> { throw new EntityNotFoundException("gone"); },
+            new RetryPolicy(3, 10));
+        try {
+            readAll(in);
+            fail("Expected EntityNotFoundException");
+        } catch ( EntityNotFoundException ex ) {}
+
+        // The budget allows 2 retries, then the failure is thrown:
+        RetryPolicy retryPolicy = new RetryPolicy(10, 2);
+        in = new ResumingInputStream(
+            dropping(content, 0, 10),
+            100L,
+            (offset) -> dropping(content, (int)offset, 10),
+            retryPolicy);
+        try {
+            readAll(in);
+            fail("Expected UncheckedIOException");
+        } catch ( UncheckedIOException ex ) {}
+        assertThat(retryPolicy.getBudget(), equalTo(0L));
+
+        // Successes earn back the budget:
+        for ( int i=0; i < 10; i++ ) {
+            retryPolicy.onSuccess();
+        }
+        assertThat(retryPolicy.getBudget(), equalTo(1L));
+        assertThat(RetryPolicy.isTransient(new TransientObjectStoreException("503")), is(true));
+        assertThat(RetryPolicy.isTransient(new RuntimeException(new IOException())), is(true));
+        assertThat(RetryPolicy.isTransient(new IllegalStateException("400")), is(false));
+        assertThat(retryPolicy.getDelayMillis(100) <= 10000, is(true));
+    }
+}
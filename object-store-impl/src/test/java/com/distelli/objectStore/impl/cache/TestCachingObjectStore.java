@@ -0,0 +1,169 @@
+package com.distelli.objectStore.impl.cache;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.ObjectStoreBuilder;
+import com.distelli.objectStore.impl.disk.DiskObjectStore;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.EntityNotFoundException;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestCachingObjectStore {
+    private static File _storageRoot = new File("target/caching-backend-root/");
+    private static ExecutorService _executor = Executors.newFixedThreadPool(8);
+
+    // Counts the gets which reach the backend, each taking at least 100ms:
+    private static class SlowObjectStore extends DiskObjectStore {
+        private AtomicInteger _gets = new AtomicInteger();
+
+        public SlowObjectStore() {
+            super((ObjectStoreBuilder)new ObjectStoreBuilder()
+                  .withObjectStoreType(ObjectStoreType.DISK)
+                  .withDiskStorageRoot(_storageRoot)
+                  .withDiskChecksums(true));
+        }
+
+        // Used by the cache to download objects:
+        @Override
+        public void get(ObjectKey objectKey, File file) throws IOException {
+            _gets.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+            }
+            super.get(objectKey, file);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        _executor.shutdown();
+    }
+
+    private static File newCacheDirectory(String name) throws IOException {
+        File dir = new File("target/caching-cache-root/"+name);
+        if ( dir.exists() ) {
+            for ( File file : dir.listFiles() ) {
+                file.delete();
+            }
+        }
+        return dir;
+    }
+
+    private static ObjectKey createKey(ObjectStore objectStore, String key) {
+        objectStore.createBucket("caching");
+        return ObjectKey.builder()
+            .bucket("caching")
+            .key(key)
+            .build();
+    }
+
+    private static byte[] bytes(int len, int value) {
+        byte[] content = new byte[len];
+        Arrays.fill(content, (byte)value);
+        content[0] = (byte)(value + 1);
+        return content;
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        SlowObjectStore backend = new SlowObjectStore();
+        ObjectStore objectStore = new CachingObjectStore(backend, newCacheDirectory("read-through"), 10000);
+        ObjectKey key = createKey(backend, "read-through");
+        backend.put(key, bytes(1000, 1));
+
+        assertArrayEquals(bytes(1000, 1), objectStore.get(key));
+        assertArrayEquals(bytes(1000, 1), objectStore.get(key));
+        assertThat(backend._gets.get(), equalTo(1));
+
+        // Ranged gets use the backend semantics (end is exclusive for disk):
+        byte[] range = objectStore.get(key, (meta, in) -> {
+                byte[] buf = new byte[Math.toIntExact(meta.getContentLength())];
+                new DataInputStream(in).readFully(buf);
+                return buf;
+            }, 0L, 10L);
+        assertArrayEquals(Arrays.copyOfRange(bytes(1000, 1), 0, 10), range);
+        assertThat(backend._gets.get(), equalTo(1));
+
+        // Modified in the backend with the same length:
+        backend.put(key, bytes(1000, 2));
+        assertArrayEquals(bytes(1000, 2), objectStore.get(key));
+        assertThat(backend._gets.get(), equalTo(2));
+
+        // Writes through the cache remove the cached copy:
+        objectStore.delete(key);
+        try {
+            objectStore.get(key);
+            fail("Expected EntityNotFoundException");
+        } catch ( EntityNotFoundException ex ) {}
+    }
+
+    @Test
+    public void testConcurrentMissesAreCoalesced() throws Exception {
+        SlowObjectStore backend = new SlowObjectStore();
+        ObjectStore objectStore = new CachingObjectStore(backend, newCacheDirectory("coalesced"), 10000);
+        ObjectKey key = createKey(backend, "coalesced");
+        backend.put(key, bytes(1000, 3));
+
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for ( int i=0; i < 8; i++ ) {
+            futures.add(_executor.submit(() -> objectStore.get(key)));
+        }
+        for ( Future<byte[]> future : futures ) {
+            assertArrayEquals(bytes(1000, 3), future.get());
+        }
+        assertThat(backend._gets.get(), equalTo(1));
+        backend.delete(key);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        SlowObjectStore backend = new SlowObjectStore();
+        File cacheDirectory = newCacheDirectory("eviction");
+        ObjectStore objectStore = new CachingObjectStore(backend, cacheDirectory, 2500);
+        List<ObjectKey> keys = new ArrayList<>();
+        for ( int i=0; i < 3; i++ ) {
+            ObjectKey key = createKey(backend, "eviction-"+i);
+            backend.put(key, bytes(1000, i));
+            keys.add(key);
+        }
+        objectStore.get(keys.get(0));
+        objectStore.get(keys.get(1));
+        // Make keys[1] the least recently used:
+        objectStore.get(keys.get(0));
+        objectStore.get(keys.get(2));
+        assertThat(backend._gets.get(), equalTo(3));
+
+        // The cache survives a restart:
+        objectStore = new CachingObjectStore(backend, cacheDirectory, 2500);
+        objectStore.get(keys.get(0));
+        objectStore.get(keys.get(2));
+        assertThat(backend._gets.get(), equalTo(3));
+        objectStore.get(keys.get(1));
+        assertThat(backend._gets.get(), equalTo(4));
+
+        // Objects larger than the cache bypass it:
+        ObjectKey large = createKey(backend, "eviction-large");
+        backend.put(large, bytes(3000, 4));
+        assertArrayEquals(bytes(3000, 4), objectStore.get(large));
+        assertThat(cacheDirectory.list().length, equalTo(4));
+
+        for ( ObjectKey key : keys ) {
+            backend.delete(key);
+        }
+        backend.delete(large);
+    }
+}
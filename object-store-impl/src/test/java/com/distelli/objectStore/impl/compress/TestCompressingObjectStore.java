@@ -0,0 +1,219 @@
+package com.distelli.objectStore.impl.compress;
+
+import com.distelli.objectStore.*;
+import com.distelli.objectStore.impl.cache.CachingObjectStore;
+import com.distelli.objectStore.impl.memory.InMemoryObjectStore;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import org.junit.AfterClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestCompressingObjectStore {
+    private static ExecutorService _executor = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public static void afterClass() {
+        _executor.shutdown();
+    }
+
+    private static ObjectKey key(String key) {
+        return ObjectKey.builder()
+            .bucket("compressed")
+            .key(key)
+            .build();
+    }
+
+    private static Map<String, CompressionCodec> codecs() {
+        Map<String, CompressionCodec> codecs = new LinkedHashMap<>();
+        codecs.put(GzipCodec.NAME, new GzipCodec());
+        codecs.put(DeflateCodec.NAME, new DeflateCodec());
+        return codecs;
+    }
+
+    // Text which compresses about as well as logs:
+    private static byte[] text(int size, long seed) {
+        String[] words = { "object", "store", "bucket", "key", "put", "get", "range", "the", "a", "of" };
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 16);
+        while ( sb.length() < size ) {
+            sb.append(words[random.nextInt(words.length)]);
+            sb.append(0 == random.nextInt(12) ? '\n' : ' ');
+            if ( 0 == random.nextInt(20) ) sb.append(random.nextInt());
+        }
+        return Arrays.copyOf(sb.toString().getBytes(UTF_8), size);
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        InMemoryObjectStore backend = new InMemoryObjectStore(Long.MAX_VALUE);
+        backend.createBucket("compressed");
+        byte[] content = text(100000, 1);
+        for ( String codecName : codecs().keySet() ) {
+            CompressingObjectStore objectStore =
+                new CompressingObjectStore(backend, codecName, codecs(), _executor);
+            objectStore.put(key(codecName), content);
+            assertThat(objectStore.get(key(codecName)), equalTo(content));
+            ObjectMetadata stored = objectStore.head(key(codecName));
+            assertThat(stored.getContentLength() < content.length / 2, is(true));
+            assertThat(stored.getContentEncoding(), equalTo(codecName));
+            // Objects compressed with another codec are still readable:
+            String other = GzipCodec.NAME.equals(codecName) ? DeflateCodec.NAME : GzipCodec.NAME;
+            assertThat(new CompressingObjectStore(backend, other, codecs(), _executor).get(key(codecName)),
+                       equalTo(content));
+            // The reader sees the etag of the stored object, but not its length or encoding:
+            ObjectMetadata meta = objectStore.get(key(codecName), (m, in) -> m);
+            assertThat(meta.getEtag(), equalTo(stored.getEtag()));
+            assertThat(meta.getContentLength(), is(nullValue()));
+            assertThat(meta.getContentEncoding(), is(nullValue()));
+        }
+        try {
+            new CompressingObjectStore(backend, "lz4", codecs(), _executor);
+            fail("Expected IllegalArgumentException");
+        } catch ( IllegalArgumentException ex ) {}
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        InMemoryObjectStore backend = new InMemoryObjectStore(Long.MAX_VALUE);
+        backend.createBucket("compressed");
+        File cacheDirectory = Files.createTempDirectory("compressed-cache").toFile();
+        // Stacked as ObjectStoreBuilder does when a cache directory is set:
+        ObjectStore[] backends = {
+            backend,
+            new CachingObjectStore(backend, cacheDirectory, 1000000)
+        };
+        for ( ObjectStore rangeBackend : backends ) {
+            CompressingObjectStore objectStore =
+                new CompressingObjectStore(rangeBackend, GzipCodec.NAME, codecs(), _executor);
+            assertThat(objectStore.isRangeEndInclusive(), is(false));
+            objectStore.put(key("a"), "hello world".getBytes(UTF_8));
+            try {
+                objectStore.get(key("a"), (meta, in) -> in.read(), 6L, 11L);
+                fail("Expected UnsupportedOperationException");
+            } catch ( UnsupportedOperationException ex ) {}
+
+            // Ranges of uncompressed objects are end exclusive, like the InMemoryObjectStore:
+            rangeBackend.put(key("plain"), "hello world".getBytes(UTF_8));
+            String range = objectStore.get(key("plain"), (meta, in) -> {
+                    byte[] buf = new byte[64];
+                    int len = in.read(buf);
+                    assertThat(in.read(), equalTo(-1));
+                    return new String(buf, 0, len, UTF_8);
+                }, 6L, 11L);
+            assertThat(range, equalTo("world"));
+            assertThat(objectStore.get(key("plain"), (meta, in) -> in.read(), 11L, 20L), equalTo(-1));
+        }
+    }
+
+    @Test
+    public void testUncompressed() throws Exception {
+        InMemoryObjectStore backend = new InMemoryObjectStore(Long.MAX_VALUE);
+        backend.createBucket("compressed");
+        CompressingObjectStore objectStore =
+            new CompressingObjectStore(backend, GzipCodec.NAME, codecs(), _executor);
+        // Objects put before compression was enabled:
+        backend.put(key("plain"), "hello world".getBytes(UTF_8));
+        backend.put(key("short"), "hi".getBytes(UTF_8));
+        backend.put(key("empty"), new byte[0]);
+        assertThat(new String(objectStore.get(key("plain")), UTF_8), equalTo("hello world"));
+        assertThat(new String(objectStore.get(key("short")), UTF_8), equalTo("hi"));
+        assertThat(objectStore.get(key("empty")).length, equalTo(0));
+        ObjectMetadata meta = objectStore.get(key("plain"), (m, in) -> m, 6L, 11L);
+        assertThat(meta.getContentLength(), equalTo(5L));
+
+        // Multipart puts are passed through:
+        ObjectPartKey partKey = objectStore.newMultipartPut(key("multipart"));
+        ObjectPartId part = objectStore.multipartPut(partKey, 1, "parts".getBytes(UTF_8));
+        objectStore.completePut(partKey, Arrays.asList(part));
+        assertThat(objectStore.head(key("multipart")).getContentEncoding(), is(nullValue()));
+        assertThat(new String(backend.get(key("multipart")), UTF_8), equalTo("parts"));
+        assertThat(new String(objectStore.get(key("multipart")), UTF_8), equalTo("parts"));
+    }
+
+    @Test
+    public void testConditionalGetPut() throws Exception {
+        InMemoryObjectStore backend = new InMemoryObjectStore(Long.MAX_VALUE);
+        backend.createBucket("compressed");
+        CompressingObjectStore objectStore =
+            new CompressingObjectStore(backend, DeflateCodec.NAME, codecs(), _executor);
+        assertThat(objectStore.putIfMatch(key("a"), null, "hello".getBytes(UTF_8)), is(true));
+        assertThat(objectStore.putIfMatch(key("a"), null, "world".getBytes(UTF_8)), is(false));
+        assertThat(objectStore.head(key("a")).getContentEncoding(), equalTo(DeflateCodec.NAME));
+        String etag = objectStore.head(key("a")).getEtag();
+        assertThat(objectStore.getIfNoneMatch(key("a"), etag, (meta, in) -> "read"), is(nullValue()));
+        assertThat(objectStore.getIfNoneMatch(key("a"), "other", (meta, in) -> {
+                    byte[] buf = new byte[5];
+                    new DataInputStream(in).readFully(buf);
+                    return new String(buf, UTF_8);
+                }),
+            equalTo("hello"));
+    }
+
+    // Content which does not compress is larger than a part, so it is uploaded as a multipart put:
+    @Test
+    public void testStreamingPut() throws Exception {
+        InMemoryObjectStore backend = new InMemoryObjectStore(Long.MAX_VALUE);
+        backend.createBucket("compressed");
+        CompressingObjectStore objectStore =
+            new CompressingObjectStore(backend, GzipCodec.NAME, codecs(), _executor);
+        byte[] content = new byte[20*1024*1024];
+        new Random(2).nextBytes(content);
+        objectStore.put(key("large"), -1, new ByteArrayInputStream(content));
+        assertThat(backend.head(key("large")).getContentLength() > content.length, is(true));
+        assertThat(backend.head(key("large")).getContentEncoding(), equalTo(GzipCodec.NAME));
+        assertThat(objectStore.get(key("large")), equalTo(content));
+    }
+
+    @Test @Ignore
+    public void testCodecThroughput() throws Exception {
+        Map<String, CompressionCodec> codecs = codecs();
+        codecs.put("deflate-fast", new DeflateCodec(Deflater.BEST_SPEED));
+        codecs.put("deflate-best", new DeflateCodec(Deflater.BEST_COMPRESSION));
+        byte[] content = text(64*1024*1024, 3);
+        int iterations = 5;
+        InMemoryObjectStore backend = new InMemoryObjectStore(Long.MAX_VALUE);
+        backend.createBucket("compressed");
+        double mb = (content.length * (double)iterations) / (1024.0*1024.0);
+        for ( String codecName : codecs.keySet() ) {
+            CompressingObjectStore objectStore =
+                new CompressingObjectStore(backend, codecName, codecs, _executor);
+            long putNanos = 0;
+            long getNanos = 0;
+            for ( int i=0; i < iterations; i++ ) {
+                long begin = System.nanoTime();
+                objectStore.put(key(codecName), content);
+                putNanos += System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                objectStore.get(key(codecName), (meta, in) -> {
+                        byte[] buf = new byte[64*1024];
+                        while ( in.read(buf) >= 0 );
+                        return null;
+                    });
+                getNanos += System.nanoTime() - begin;
+            }
+            long stored = backend.head(key(codecName)).getContentLength();
+            System.out.println(String.format(
+                "%-12s put=%.1f MiB/s get=%.1f MiB/s ratio=%.2f",
+                codecName,
+                mb / (putNanos / 1e9),
+                mb / (getNanos / 1e9),
+                content.length / (double)stored));
+            objectStore.delete(key(codecName));
+        }
+    }
+}
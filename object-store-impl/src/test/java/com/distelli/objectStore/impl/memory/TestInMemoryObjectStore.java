@@ -0,0 +1,165 @@
+package com.distelli.objectStore.impl.memory;
+
+import com.distelli.objectStore.*;
+import com.distelli.persistence.PageIterator;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityNotFoundException;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestInMemoryObjectStore {
+    private static ObjectKey key(String key) {
+        return ObjectKey.builder()
+            .bucket("in-memory")
+            .key(key)
+            .build();
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(Long.MAX_VALUE);
+        try {
+            objectStore.put(key("missing-bucket"), "x".getBytes(UTF_8));
+            fail("Expected EntityNotFoundException");
+        } catch ( EntityNotFoundException ex ) {}
+        objectStore.createBucket("in-memory");
+
+        // contentLength is only a hint:
+        objectStore.put(key("a"), 2, new ByteArrayInputStream("hello world".getBytes(UTF_8)));
+        assertThat(new String(objectStore.get(key("a")), UTF_8), equalTo("hello world"));
+        ObjectMetadata meta = objectStore.head(key("a"));
+        assertThat(meta.getContentLength(), equalTo(11L));
+        assertThat(meta.getContentMD5(), equalTo("5eb63bbbe01eeed093cb22bb8f5acdc3"));
+        assertThat(meta.getLastModified(), is(notNullValue()));
+        assertThat(objectStore.head(key("b")), is(nullValue()));
+
+        // Ranges are end exclusive, like the DiskObjectStore:
+        String range = objectStore.getBuffer(key("a"), (m, buf) -> {
+                byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                return new String(bytes, UTF_8);
+            }, 6L, 11L);
+        assertThat(range, equalTo("world"));
+
+        objectStore.put(key("a"), "bye".getBytes(UTF_8));
+        assertThat(new String(objectStore.get(key("a")), UTF_8), equalTo("bye"));
+        assertThat(objectStore.size(), equalTo(3L));
+        objectStore.delete(key("a"));
+        assertThat(objectStore.head(key("a")), is(nullValue()));
+        assertThat(objectStore.size(), equalTo(0L));
+    }
+
+    @Test
+    public void testContentLengthHint() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(Long.MAX_VALUE);
+        objectStore.createBucket("in-memory");
+        byte[] content = new byte[100*1000 + 7];
+        for ( int i=0; i < content.length; i++ ) content[i] = (byte)i;
+        // Unknown, too small and too large:
+        for ( long contentLength : new long[]{-1, 0, 10, content.length, 2L*content.length} ) {
+            objectStore.put(key("hint"), contentLength, new ByteArrayInputStream(content));
+            assertArrayEquals("contentLength="+contentLength, content, objectStore.get(key("hint")));
+            assertThat(objectStore.size(), equalTo((long)content.length));
+        }
+    }
+
+    @Test
+    public void testSignedGet() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(Long.MAX_VALUE);
+        objectStore.createBucket("in-memory");
+        objectStore.put(key("dir/signed get"), "signed".getBytes(UTF_8));
+        URI uri = objectStore.createSignedGet(key("dir/signed get"), 1, TimeUnit.MINUTES);
+        assertThat(uri.getScheme(), equalTo(InMemoryObjectStore.URI_SCHEME));
+        ObjectKey key = InMemoryObjectStore.toObjectKey(uri);
+        assertThat(key.getBucket(), equalTo("in-memory"));
+        assertThat(key.getKey(), equalTo("dir/signed get"));
+        assertThat(new String(objectStore.get(key), UTF_8), equalTo("signed"));
+    }
+
+    @Test
+    public void testList() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(Long.MAX_VALUE);
+        objectStore.createBucket("in-memory");
+        for ( String key : Arrays.asList("dir/c", "dir/a", "other", "dir/b", "dir/d", "dir/e") ) {
+            objectStore.put(key(key), key.getBytes(UTF_8));
+        }
+        List<String> keys = new ArrayList<>();
+        for ( PageIterator it : new PageIterator().pageSize(2) ) {
+            for ( ObjectKey key : objectStore.list(key("dir/"), it) ) {
+                keys.add(key.getKey());
+            }
+        }
+        assertThat(keys, equalTo(Arrays.asList("dir/a", "dir/b", "dir/c", "dir/d", "dir/e")));
+        assertThat(objectStore.listMetadata(key("oth"), new PageIterator()).get(0).getContentLength(),
+                   equalTo(5L));
+    }
+
+    @Test
+    public void testMultipart() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(Long.MAX_VALUE);
+        objectStore.createBucket("in-memory");
+        ObjectPartKey partKey = objectStore.newMultipartPut(key("multipart"));
+        ObjectPartId part2 = objectStore.multipartPut(partKey, 2, "world".getBytes(UTF_8));
+        ObjectPartId part1 = objectStore.multipartPut(partKey, 1, "hello ".getBytes(UTF_8));
+        assertThat(objectStore.head(key("multipart")), is(nullValue()));
+        objectStore.completePut(partKey, Arrays.asList(part1, part2));
+        assertThat(new String(objectStore.get(key("multipart")), UTF_8), equalTo("hello world"));
+        assertThat(objectStore.size(), equalTo(11L));
+
+        partKey = objectStore.newMultipartPut(key("aborted"));
+        objectStore.multipartPut(partKey, 1, "lost".getBytes(UTF_8));
+        objectStore.abortPut(partKey);
+        assertThat(objectStore.size(), equalTo(11L));
+        try {
+            objectStore.completePut(partKey, Arrays.asList(part1));
+            fail("Expected EntityNotFoundException");
+        } catch ( EntityNotFoundException ex ) {}
+    }
+
+    @Test
+    public void testConditionalGetPut() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(Long.MAX_VALUE);
+        objectStore.createBucket("in-memory");
+        assertThat(objectStore.putIfMatch(key("a"), null, "hello".getBytes(UTF_8)), is(true));
+        String etag = objectStore.head(key("a")).getEtag();
+        assertThat(etag, equalTo("5d41402abc4b2a76b9719d911017c592"));
+        assertThat(objectStore.getIfNoneMatch(key("a"), etag, (meta, in) -> "read"), is(nullValue()));
+        assertThat(objectStore.putIfMatch(key("a"), null, "world".getBytes(UTF_8)), is(false));
+        assertThat(objectStore.putIfMatch(key("a"), etag, "world".getBytes(UTF_8)), is(true));
+        assertThat(objectStore.putIfMatch(key("a"), etag, "again".getBytes(UTF_8)), is(false));
+        assertThat(objectStore.getIfNoneMatch(key("a"), etag, (meta, in) -> meta.getEtag()),
+                   equalTo("7d793037a0760186574b0282f2f435e7"));
+        assertThat(objectStore.size(), equalTo(5L));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        InMemoryObjectStore objectStore = new InMemoryObjectStore(300);
+        objectStore.createBucket("in-memory");
+        objectStore.put(key("1"), new byte[100]);
+        Thread.sleep(1);
+        objectStore.put(key("2"), new byte[100]);
+        Thread.sleep(1);
+        objectStore.put(key("3"), new byte[100]);
+        Thread.sleep(1);
+        // Make "1" recently used:
+        objectStore.get(key("1"));
+        objectStore.put(key("4"), new byte[100]);
+        assertThat(objectStore.head(key("2")), is(nullValue()));
+        assertThat(objectStore.head(key("1")), is(notNullValue()));
+        assertThat(objectStore.head(key("4")), is(notNullValue()));
+        assertThat(objectStore.size() <= 300, is(true));
+        try {
+            objectStore.put(key("large"), new byte[301]);
+            fail("Expected IllegalArgumentException");
+        } catch ( IllegalArgumentException ex ) {}
+    }
+}
@@ -0,0 +1,100 @@
+package com.distelli.objectStore.impl.s3;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.AWSRequestMetricsFullSupport;
+import com.amazonaws.util.TimingInfo;
+import com.distelli.objectStore.ObjectStoreType;
+import com.distelli.objectStore.impl.ObjectStoreBuilder;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class TestS3ObjectStore {
+    @Test
+    public void testClientConfiguration() throws Exception {
+        ClientConfiguration config = S3ObjectStore.toClientConfiguration(
+            (ObjectStoreBuilder)new ObjectStoreBuilder()
+            .withObjectStoreType(ObjectStoreType.S3)
+            .withForceV4Signature(true)
+            .withMaxConnections(123)
+            .withConnectionTimeoutMillis(1001)
+            .withSocketTimeoutMillis(1002)
+            .withRequestTimeoutMillis(1003)
+            .withMaxErrorRetry(7)
+            .withTcpKeepAlive(true)
+            .withConnectionTTLMillis(60000L)
+            .withConnectionMaxIdleMillis(30000L));
+        assertThat(config.getSignerOverride(), equalTo("AWSS3V4SignerType"));
+        assertThat(config.getMaxConnections(), equalTo(123));
+        assertThat(config.getConnectionTimeout(), equalTo(1001));
+        assertThat(config.getSocketTimeout(), equalTo(1002));
+        assertThat(config.getRequestTimeout(), equalTo(1003));
+        assertThat(config.getMaxErrorRetry(), equalTo(7));
+        assertThat(config.useTcpKeepAlive(), equalTo(true));
+        assertThat(config.getConnectionTTL(), equalTo(60000L));
+        assertThat(config.getConnectionMaxIdleMillis(), equalTo(30000L));
+
+        // Unset options keep the SDK defaults:
+        ClientConfiguration defaults = new ClientConfiguration();
+        config = S3ObjectStore.toClientConfiguration(
+            (ObjectStoreBuilder)new ObjectStoreBuilder()
+            .withObjectStoreType(ObjectStoreType.S3));
+        assertThat(config.getSignerOverride(), equalTo(defaults.getSignerOverride()));
+        assertThat(config.getMaxConnections(), equalTo(defaults.getMaxConnections()));
+        assertThat(config.getSocketTimeout(), equalTo(defaults.getSocketTimeout()));
+        assertThat(config.getMaxErrorRetry(), equalTo(defaults.getMaxErrorRetry()));
+        assertThat(config.useTcpKeepAlive(), equalTo(defaults.useTcpKeepAlive()));
+
+        try {
+            S3ObjectStore.toClientConfiguration(
+                (ObjectStoreBuilder)new ObjectStoreBuilder()
+                .withObjectStoreType(ObjectStoreType.S3)
+                .withMaxConnections(0));
+            fail("Expected IllegalArgumentException");
+        } catch ( IllegalArgumentException ex ) {}
+    }
+
+    // A request which waited leaseWaitMillis for a connection:
+    private static DefaultRequest<?> request(long leaseWaitMillis, Long pending, Long leased) {
+        DefaultRequest<?> request = new DefaultRequest<>("Amazon S3");
+        AWSRequestMetrics metrics = new AWSRequestMetricsFullSupport();
+        TimingInfo timing = metrics.getTimingInfo();
+        long attemptStart = System.nanoTime();
+        long sendStart = attemptStart + TimeUnit.MILLISECONDS.toNanos(leaseWaitMillis);
+        timing.addSubMeasurement(
+            AWSRequestMetrics.Field.HttpRequestTime.name(),
+            TimingInfo.newTimingInfoFullSupport(attemptStart, sendStart + 1000));
+        timing.addSubMeasurement(
+            AWSRequestMetrics.Field.HttpClientSendRequestTime.name(),
+            TimingInfo.newTimingInfoFullSupport(sendStart, sendStart + 1000));
+        if ( null != pending ) {
+            metrics.setCounter(AWSRequestMetrics.Field.HttpClientPoolPendingCount, pending);
+        }
+        if ( null != leased ) {
+            metrics.setCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount, leased);
+        }
+        request.setAWSRequestMetrics(metrics);
+        return request;
+    }
+
+    @Test
+    public void testConnectionPoolMetrics() throws Exception {
+        S3ConnectionPoolMetrics poolMetrics = new S3ConnectionPoolMetrics();
+        poolMetrics.collectMetrics(request(5, 4L, 10L), null);
+        poolMetrics.collectMetrics(request(20, 1L, 9L), null);
+        poolMetrics.collectMetrics(request(1, null, null), null);
+        // Requests without metrics are not counted:
+        poolMetrics.collectMetrics(new DefaultRequest<>("Amazon S3"), null);
+
+        assertThat(poolMetrics.getRequestCount(), equalTo(3L));
+        assertThat(poolMetrics.getTotalLeaseWaitNanos(), equalTo(TimeUnit.MILLISECONDS.toNanos(26)));
+        assertThat(poolMetrics.getMaxLeaseWaitNanos(), equalTo(TimeUnit.MILLISECONDS.toNanos(20)));
+        // Counters are of the last request which reported them:
+        assertThat(poolMetrics.getPendingCount(), equalTo(1L));
+        assertThat(poolMetrics.getMaxPendingCount(), equalTo(4L));
+        assertThat(poolMetrics.getLeasedCount(), equalTo(9L));
+    }
+}
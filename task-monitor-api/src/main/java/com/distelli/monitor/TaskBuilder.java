@@ -73,6 +73,24 @@ public interface TaskBuilder {
      */
     public TaskBuilder millisecondsRemaining(Long millisecondsRemaining);
     public TaskBuilder millisecondsRemaining(long millisecondsRemaining);
+    /**
+     * @param priority of the task, tasks with a higher priority run
+     *     before tasks with a lower priority. Use a positive priority
+     *     for latency-sensitive tasks and a negative priority for bulk
+     *     tasks. Defaults to 0.
+     *
+     * @return this for method chaining.
+     */
+    public TaskBuilder priority(int priority);
+    /**
+     * @param fairShareKey identifies who the task runs for (e.g. a
+     *     tenant). Tasks of the same priority are ran in a weighted
+     *     round robin across the fair share keys, so a flood of tasks
+     *     for one key does not starve the tasks of other keys.
+     *
+     * @return this for method chaining.
+     */
+    public TaskBuilder fairShareKey(String fairShareKey);
     /**
      * @return a new TaskInfo with the fields updated.
      */
@@ -115,6 +115,19 @@ public interface TaskInfo {
      */
     public Long getMillisecondsRemaining();
 
+    /**
+     * @return the priority of this task. When tasks are waiting to run,
+     *     the tasks with the highest priority run first. Defaults to 0.
+     */
+    public int getPriority();
+
+    /**
+     * @return the key used to share the task manager fairly between the
+     *     tasks of different tenants (or any other grouping), or null if
+     *     this task shares with all other tasks without a key.
+     */
+    public String getFairShareKey();
+
     /**
      * @return a TaskBuilder initialized to this TaskInfo's
      *     state.
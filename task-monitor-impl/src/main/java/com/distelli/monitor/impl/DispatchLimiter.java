@@ -0,0 +1,41 @@
+package com.distelli.monitor.impl;
+
+/**
+ * Decides how fast the TaskManagerImpl of this JVM starts tasks, since
+ * every task start is several DB writes. Bind an implementation by
+ * passing it to the MonitorTaskModule constructor, the default is a
+ * TokenBucketDispatchLimiter.
+ *
+ * Implementations must be thread safe.
+ */
+public interface DispatchLimiter {
+    /**
+     * @param entityType of the task to start, or null for a task of an
+     *     entity type which is not yet known.
+     *
+     * @return the milliseconds until a task of entityType may be started,
+     *     0 if it may start now. Does not consume a permit.
+     */
+    public long getDelayMillis(String entityType);
+
+    /**
+     * Consume a permit to start a task of entityType.
+     *
+     * @param entityType of the task to start.
+     *
+     * @return 0 if the task may start now, otherwise the milliseconds to
+     *     wait before trying again (and no permit was consumed).
+     */
+    public long tryAcquire(String entityType);
+
+    /**
+     * Called after each DB write which claims a task, used by adaptive
+     * limiters to back off when the DB is struggling.
+     *
+     * @param latencyMillis of the write.
+     *
+     * @param throttled is true if the DB rejected the write due to
+     *     insufficient capacity.
+     */
+    public default void onWrite(long latencyMillis, boolean throttled) {}
+}
@@ -0,0 +1,44 @@
+package com.distelli.monitor.impl;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notifies the listeners in this JVM, which is only useful if several
+ * injectors share the same instance (for example in tests). Monitors in
+ * other JVMs still find tasks by polling.
+ */
+public class LocalTaskNotifier implements TaskNotifier {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalTaskNotifier.class);
+
+    private final Set<Listener> _listeners = new CopyOnWriteArraySet<>();
+
+    @Override
+    public void notifyRunnable(long taskId) {
+        notifyRunnable(taskId, null);
+    }
+
+    @Override
+    public void notifyRunnable(long taskId, Listener sender) {
+        for ( Listener listener : _listeners ) {
+            if ( listener == sender ) continue;
+            try {
+                listener.onRunnable(taskId);
+            } catch ( Throwable ex ) {
+                LOG.error("Listener["+listener+"].onRunnable("+taskId+") FAILED: "+ex.getMessage(), ex);
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        _listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        _listeners.remove(listener);
+    }
+}
@@ -1,15 +1,75 @@
 package com.distelli.monitor.impl;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
 import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
 import com.distelli.persistence.TableDescription;
 import com.distelli.monitor.TaskManager;
 import com.distelli.monitor.TaskFunction;
 import javax.inject.Singleton;
 import com.google.inject.multibindings.MapBinder;
 import com.distelli.monitor.Monitor;
+import java.util.HashMap;
+import java.util.Map;
 
 public class MonitorTaskModule extends AbstractModule {
+    private DispatchLimiter _dispatchLimiter;
+    private TaskNotifier _taskNotifier;
+    private int _claimBatchSize = 1;
+    private Map<String, Double> _fairShareWeights = new HashMap<>();
+
+    public MonitorTaskModule() {
+        this(new TokenBucketDispatchLimiter());
+    }
+
+    public MonitorTaskModule(DispatchLimiter dispatchLimiter) {
+        this(dispatchLimiter, new LocalTaskNotifier());
+    }
+
+    /**
+     * @param dispatchLimiter limits how fast tasks are started in this
+     *     JVM, see TokenBucketDispatchLimiter.
+     *
+     * @param taskNotifier wakes up other monitors when tasks become
+     *     runnable, see MulticastTaskNotifier.
+     */
+    public MonitorTaskModule(DispatchLimiter dispatchLimiter, TaskNotifier taskNotifier) {
+        if ( null == dispatchLimiter ) throw new IllegalArgumentException("dispatchLimiter may not be null");
+        if ( null == taskNotifier ) throw new IllegalArgumentException("taskNotifier may not be null");
+        _dispatchLimiter = dispatchLimiter;
+        _taskNotifier = taskNotifier;
+    }
+
+    /**
+     * @param claimBatchSize is the maximum number of queued tasks read
+     *     from the DB in one round trip. The tasks of a batch are locked
+     *     and ran by separate threads, so their DB writes overlap. The
+     *     default of 1 reads and locks one task at a time.
+     */
+    public MonitorTaskModule withClaimBatchSize(int claimBatchSize) {
+        // DynamoDB batch gets are limited to 100 keys:
+        if ( claimBatchSize < 1 || claimBatchSize > 100 ) {
+            throw new IllegalArgumentException("claimBatchSize must be in the range [1, 100]");
+        }
+        _claimBatchSize = claimBatchSize;
+        return this;
+    }
+
+    /**
+     * @param fairShareKey of the tasks to weight, see TaskBuilder.fairShareKey().
+     *
+     * @param weight of the share this key gets when tasks of several keys
+     *     are waiting to run, relative to the other keys. Defaults to 1.
+     */
+    public MonitorTaskModule withFairShareWeight(String fairShareKey, double weight) {
+        if ( ! (weight > 0) ) {
+            throw new IllegalArgumentException("weight="+weight+" must be > 0");
+        }
+        _fairShareWeights.put(fairShareKey, weight);
+        return this;
+    }
+
     @Override
     protected void configure() {
         MapBinder taskFunctionBinder = MapBinder.newMapBinder(binder(), String.class, TaskFunction.class);
@@ -26,5 +86,18 @@ public class MonitorTaskModule extends AbstractModule {
         bind(TaskManager.class).to(TaskManagerImpl.class);
         bind(MonitorImpl.class).in(Singleton.class);
         bind(Monitor.class).to(MonitorImpl.class);
+        bind(DispatchLimiter.class).toInstance(_dispatchLimiter);
+        bind(TaskNotifier.class).toInstance(_taskNotifier);
+        bindConstant().annotatedWith(Names.named(TaskManagerImpl.CLAIM_BATCH_SIZE))
+            .to(_claimBatchSize);
+        Map<String, Double> fairShareWeights = new HashMap<>(_fairShareWeights);
+        bind(TaskQueue.class).toProvider(new Provider<TaskQueue>() {
+                @Override
+                public TaskQueue get() {
+                    TaskQueue taskQueue = new TaskQueue();
+                    fairShareWeights.forEach(taskQueue::withWeight);
+                    return taskQueue;
+                }
+            });
     }
 }
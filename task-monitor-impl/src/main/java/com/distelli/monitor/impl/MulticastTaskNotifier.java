@@ -0,0 +1,186 @@
+package com.distelli.monitor.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notifies the monitors of every JVM on the local network segment by UDP
+ * multicast. Each notification is a single datagram, so it is delivered
+ * within milliseconds or not at all.
+ *
+ * The socket is opened when the first listener is added (or the first
+ * notification is sent) and a daemon thread receives notifications until
+ * close(). Datagrams sent by this instance are ignored, the other listeners
+ * of this instance are notified directly.
+ *
+ * isDistributed() is only true while the socket is joined to the group and
+ * the receiver thread is running, so monitors keep polling at the normal
+ * rate if joining the group failed.
+ */
+public class MulticastTaskNotifier implements TaskNotifier, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MulticastTaskNotifier.class);
+    public static final String DEFAULT_GROUP = "239.255.83.84";
+    public static final int DEFAULT_PORT = 45654;
+    // "TNTF" followed by a version byte:
+    private static final long MAGIC = 0x544e544601L;
+    private static final int PACKET_SIZE = 3*8;
+
+    private final InetSocketAddress _group;
+    private final NetworkInterface _networkInterface;
+    private final long _senderId = ThreadLocalRandom.current().nextLong();
+    private final Set<Listener> _listeners = new CopyOnWriteArraySet<>();
+    // synchronized(this):
+    private MulticastSocket _socket;
+    // synchronized(this):
+    private boolean _closed = false;
+    // True while the receiver thread of _socket is running:
+    private volatile boolean _receiving = false;
+
+    public MulticastTaskNotifier() {
+        this(toInetAddress(DEFAULT_GROUP), DEFAULT_PORT, null);
+    }
+
+    /**
+     * @param group is the multicast address to use, every monitor which
+     *     should be notified must use the same group and port.
+     *
+     * @param port to send to and receive from.
+     *
+     * @param networkInterface to multicast on, null for the default. Use
+     *     the loopback interface to only notify monitors on this host.
+     */
+    public MulticastTaskNotifier(InetAddress group, int port, NetworkInterface networkInterface) {
+        if ( ! group.isMulticastAddress() ) {
+            throw new IllegalArgumentException("Expected a multicast address, got "+group);
+        }
+        _group = new InetSocketAddress(group, port);
+        _networkInterface = networkInterface;
+    }
+
+    @Override
+    public void notifyRunnable(long taskId) {
+        notifyRunnable(taskId, null);
+    }
+
+    @Override
+    public void notifyRunnable(long taskId, Listener sender) {
+        notifyListeners(taskId, sender);
+        ByteBuffer buf = ByteBuffer.allocate(PACKET_SIZE);
+        buf.putLong(MAGIC).putLong(_senderId).putLong(taskId);
+        try {
+            MulticastSocket socket = open();
+            if ( null == socket ) return;
+            socket.send(new DatagramPacket(buf.array(), PACKET_SIZE, _group));
+        } catch ( IOException ex ) {
+            LOG.warn("Failed to notify "+_group+" of taskId="+taskId+": "+ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        _listeners.add(listener);
+        try {
+            open();
+        } catch ( IOException ex ) {
+            LOG.warn("Failed to join "+_group+", relying on polling: "+ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        _listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isDistributed() {
+        return _receiving;
+    }
+
+    @Override
+    public synchronized void close() {
+        _closed = true;
+        _receiving = false;
+        if ( null == _socket ) return;
+        // Unblocks the receive() of the receiver thread:
+        _socket.close();
+        _socket = null;
+    }
+
+    // Returns null if closed:
+    private synchronized MulticastSocket open() throws IOException {
+        if ( _closed ) return null;
+        if ( null != _socket ) return _socket;
+        MulticastSocket socket = new MulticastSocket(_group.getPort());
+        try {
+            socket.setTimeToLive(1);
+            if ( null != _networkInterface ) socket.setNetworkInterface(_networkInterface);
+            socket.joinGroup(_group, _networkInterface);
+        } catch ( IOException|RuntimeException ex ) {
+            socket.close();
+            throw ex;
+        }
+        Thread receiver = new Thread(() -> receive(socket), "MulticastTaskNotifier:"+_group);
+        receiver.setDaemon(true);
+        _receiving = true;
+        receiver.start();
+        _socket = socket;
+        return socket;
+    }
+
+    private void receive(MulticastSocket socket) {
+        try {
+            receiveUntilClosed(socket);
+        } finally {
+            _receiving = false;
+        }
+    }
+
+    private void receiveUntilClosed(MulticastSocket socket) {
+        DatagramPacket packet = new DatagramPacket(new byte[PACKET_SIZE], PACKET_SIZE);
+        while ( ! socket.isClosed() ) {
+            try {
+                packet.setLength(PACKET_SIZE);
+                socket.receive(packet);
+            } catch ( IOException ex ) {
+                if ( ! socket.isClosed() ) {
+                    LOG.warn("Failed to receive from "+_group+", relying on polling: "+ex.getMessage(), ex);
+                }
+                return;
+            }
+            if ( PACKET_SIZE != packet.getLength() ) continue;
+            ByteBuffer buf = ByteBuffer.wrap(packet.getData(), 0, PACKET_SIZE);
+            if ( MAGIC != buf.getLong() || _senderId == buf.getLong() ) continue;
+            notifyListeners(buf.getLong(), null);
+        }
+    }
+
+    private void notifyListeners(long taskId, Listener sender) {
+        for ( Listener listener : _listeners ) {
+            if ( listener == sender ) continue;
+            try {
+                listener.onRunnable(taskId);
+            } catch ( Throwable ex ) {
+                LOG.error("Listener["+listener+"].onRunnable("+taskId+") FAILED: "+ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static InetAddress toInetAddress(String address) {
+        try {
+            return InetAddress.getByName(address);
+        } catch ( UnknownHostException ex ) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+}
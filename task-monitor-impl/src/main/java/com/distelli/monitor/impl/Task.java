@@ -28,6 +28,9 @@ public class Task implements TaskInfo {
     public Long requeues;
     public Long millisecondsRemaining;
     public String canceledBy;
+    // null is the default priority of 0:
+    public Integer priority;
+    public String fairShareKey;
 
     public Task() {}
     public Task(TaskInfo src) {
@@ -48,6 +51,8 @@ public class Task implements TaskInfo {
         runCount = src.getRunCount();
         millisecondsRemaining = src.getMillisecondsRemaining();
         canceledBy = src.getCanceledBy();
+        priority = ( 0 == src.getPriority() ) ? null : src.getPriority();
+        fairShareKey = src.getFairShareKey();
     }
 
     @Override
@@ -138,6 +143,16 @@ public class Task implements TaskInfo {
         return canceledBy;
     }
 
+    @Override
+    public int getPriority() {
+        return ( null == priority ) ? 0 : priority;
+    }
+
+    @Override
+    public String getFairShareKey() {
+        return fairShareKey;
+    }
+
     @Override
     public TaskBuilder toBuilder() {
         return new TaskBuilderImpl(new Task(this));
@@ -163,6 +178,8 @@ public class Task implements TaskInfo {
             +",runCount="+runCount
             +",millisecondsRemaining="+millisecondsRemaining
             +",canceledBy="+canceledBy
+            +",priority="+priority
+            +",fairShareKey="+fairShareKey
             +"}";
     }
 }
@@ -83,6 +83,21 @@ public class TaskBuilderImpl implements TaskBuilder {
         return this;
     }
 
+    @Override
+    public TaskBuilder priority(int priority) {
+        proto.priority = ( 0 == priority ) ? null : priority;
+        return this;
+    }
+
+    @Override
+    public TaskBuilder fairShareKey(String fairShareKey) {
+        if ( null != fairShareKey && fairShareKey.length() >= 256 ) {
+            throw new IllegalArgumentException("fairShareKey="+fairShareKey+" is not valid, must be length < 256");
+        }
+        proto.fairShareKey = fairShareKey;
+        return this;
+    }
+
     @Override
     public TaskInfo build() {
         TaskInfo result = proto;
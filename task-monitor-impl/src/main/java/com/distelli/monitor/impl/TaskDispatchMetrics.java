@@ -0,0 +1,102 @@
+package com.distelli.monitor.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Singleton;
+
+/**
+ * Statistics of the tasks started by the TaskManagerImpl of this JVM,
+ * inject this to observe if the DispatchLimiter is too strict.
+ *
+ * The dispatch delay of a task is the time from when it was queued in
+ * this JVM (added, unblocked or found by polling) until it started.
+ */
+@Singleton
+public class TaskDispatchMetrics {
+    private final AtomicLong _queueDepth = new AtomicLong();
+    private final LongAccumulator _maxQueueDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder _dispatched = new LongAdder();
+    private final LongAdder _dispatchDelayMillis = new LongAdder();
+    private final LongAccumulator _maxDispatchDelayMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder _limited = new LongAdder();
+    private final LongAdder _writes = new LongAdder();
+    private final LongAdder _writeLatencyMillis = new LongAdder();
+    private final LongAdder _throttledWrites = new LongAdder();
+    private final LongAdder _claimBatches = new LongAdder();
+    private final LongAdder _claimBatchTasks = new LongAdder();
+
+    void onQueueDepth(long depth) {
+        _queueDepth.set(depth);
+        _maxQueueDepth.accumulate(depth);
+    }
+
+    void onDispatch(long delayMillis) {
+        _dispatched.increment();
+        _dispatchDelayMillis.add(delayMillis);
+        _maxDispatchDelayMillis.accumulate(delayMillis);
+    }
+
+    void onLimited() {
+        _limited.increment();
+    }
+
+    void onWrite(long latencyMillis, boolean throttled) {
+        _writes.increment();
+        _writeLatencyMillis.add(latencyMillis);
+        if ( throttled ) _throttledWrites.increment();
+    }
+
+    void onClaimBatch(int size) {
+        _claimBatches.increment();
+        _claimBatchTasks.add(size);
+    }
+
+    // Tasks queued in this JVM waiting to start:
+    public long getQueueDepth() {
+        return _queueDepth.get();
+    }
+
+    public long getMaxQueueDepth() {
+        return _maxQueueDepth.get();
+    }
+
+    public long getDispatchCount() {
+        return _dispatched.sum();
+    }
+
+    public long getTotalDispatchDelayMillis() {
+        return _dispatchDelayMillis.sum();
+    }
+
+    public long getMaxDispatchDelayMillis() {
+        return _maxDispatchDelayMillis.get();
+    }
+
+    // Times a task was held back by the DispatchLimiter:
+    public long getLimitedCount() {
+        return _limited.sum();
+    }
+
+    // DB writes which claimed a task:
+    public long getWriteCount() {
+        return _writes.sum();
+    }
+
+    public long getTotalWriteLatencyMillis() {
+        return _writeLatencyMillis.sum();
+    }
+
+    public long getThrottledWriteCount() {
+        return _throttledWrites.sum();
+    }
+
+    // DB reads of queued tasks, each reads up to the claim batch size:
+    public long getClaimBatchCount() {
+        return _claimBatches.sum();
+    }
+
+    public long getClaimBatchTaskCount() {
+        return _claimBatchTasks.sum();
+    }
+}
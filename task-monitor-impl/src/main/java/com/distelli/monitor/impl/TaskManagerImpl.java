@@ -12,6 +12,7 @@ import com.distelli.monitor.TaskManager;
 import com.distelli.monitor.TaskState;
 import com.distelli.persistence.AttrType;
 import com.distelli.persistence.Index;
+import com.distelli.persistence.IndexKey;
 import com.distelli.persistence.FilterCondExpr;
 import com.distelli.persistence.PageIterator;
 import com.distelli.persistence.TableDescription;
@@ -27,21 +28,25 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
+import com.distelli.monitor.impl.TaskQueue.QueuedTask;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.persistence.RollbackException;
 import org.slf4j.Logger;
@@ -64,10 +69,17 @@ import static com.distelli.utils.LongSortKey.*;
 @Singleton
 public class TaskManagerImpl implements TaskManager {
     private static final int POLL_INTERVAL_MS = 10000;
-    private static final int MAX_TASKS_IN_INTERVAL = 10;
     // Every POLL_INTERVAL_MS*CLEANUP_INTERVALS we perform a scan
     // to see if we need to do some cleanup:
     private static final int CLEANUP_INTERVALS = 30;
+    // While a distributed TaskNotifier wakes us up, only every
+    // NOTIFIED_POLL_INTERVALS poll scans the task queue, the scan is then
+    // only a safety net for lost notifications:
+    private static final int NOTIFIED_POLL_INTERVALS = 6;
+    private static final Predicate<TaskInfo> MATCH_ALL_TASKS = (info) -> true;
+    // Name of the int binding for the maximum number of tasks read from
+    // the DB in one round trip, see MonitorTaskModule.withClaimBatchSize():
+    public static final String CLAIM_BATCH_SIZE = "taskClaimBatchSize";
     private static final String TASK_ID_NONE = "#";
     private static final String MONITOR_ID_QUEUED = "#";
     private static final String MONITOR_ID_WAITING = "$";
@@ -76,11 +88,22 @@ public class TaskManagerImpl implements TaskManager {
     @Inject
     private Monitor _monitor;
     @Inject
-    private ScheduledExecutorService _executor;
+    private volatile ScheduledExecutorService _executor;
     @Inject
     private Map<String, TaskFunction> _taskFunctions;
     @Inject
     private Sequence _sequence;
+    @Inject
+    private DispatchLimiter _dispatchLimiter;
+    @Inject
+    private TaskDispatchMetrics _metrics;
+    @Inject
+    private TaskNotifier _taskNotifier;
+    @Inject @Named(CLAIM_BATCH_SIZE)
+    private int _claimBatchSize = 1;
+    // Adding is lock-free, the dispatcher synchronizes on it:
+    @Inject
+    private TaskQueue _taskQueue;
 
     // constants (no locking needed):
     private Index<Lock> _locks;
@@ -95,32 +118,32 @@ public class TaskManagerImpl implements TaskManager {
     private Semaphore _capacity;
     private int _maxCapacity;
 
-    // synchronized(_queuedTasks):
-    private Set<Long> _taskQueue = new LinkedHashSet<>();
-    // synchronized(this):
-    private ScheduledFuture<?> _monitorTasks;
-    // synchronized(this):
-    private Set<Future<?>> _spawnedFutures = new HashSet<>();
-    // synchronized(this):
-    private long _lastRunTask = 0;
-    // synchronized(this):
-    private Future<?> _runNextTaskFuture = null;
+    // Only modified while synchronized(this):
+    private volatile ScheduledFuture<?> _monitorTasks;
+    private final Set<Future<?>> _spawnedFutures = ConcurrentHashMap.newKeySet();
+    // milliTime() when the scheduled runNextTask() runs:
+    private final AtomicLong _runNextTaskAt = new AtomicLong();
 
     private Set<Consumer<TaskInfo>> _onTerminalState =
         Collections.synchronizedSet(new HashSet<Consumer<TaskInfo>>());
 
     private Predicate<TaskInfo> _taskMatches;
+    private final TaskNotifier.Listener _onRunnable = this::onRunnable;
 
     private AtomicInteger _pollCount = new AtomicInteger(
         ThreadLocalRandom.current().nextInt(0, CLEANUP_INTERVALS-1));
 
     private static class DelayedTask {
-        private DelayedTask(long millisRemaining) {
+        private DelayedTask(Task task) {
             this.millisTimeBegin = milliTime();
-            this.millisRemaining = millisRemaining;
+            this.millisRemaining = task.getMillisecondsRemaining();
+            this.priority = task.getPriority();
+            this.fairShareKey = task.getFairShareKey();
         }
         public long millisTimeBegin;
         public long millisRemaining;
+        public int priority;
+        public String fairShareKey;
     }
 
     public static class TasksTable {
@@ -273,7 +296,7 @@ public class TaskManagerImpl implements TaskManager {
         // Save the task:
         _tasks.putItemOrThrow(task);
         // Dispatch:
-        submitRunTask(task.getTaskId());
+        submitRunTaskAndNotify(task);
         submit(this::runNextTask);
     }
 
@@ -306,16 +329,18 @@ public class TaskManagerImpl implements TaskManager {
             LOG.debug("Attempt to cancel taskId="+taskId+" that is in a final state, ignoring");
             return;
         }
+        Task task;
         try {
-            _tasks.updateItem(taskId, null)
+            task = _tasks.updateItem(taskId, null)
                 .set("mid", AttrType.STR, MONITOR_ID_QUEUED)
                 .set("stat", AttrType.STR, toString(TaskState.QUEUED))
+                .returnAllNew()
                 .when((expr) -> expr.beginsWith("mid", "$"));
         } catch ( RollbackException ex ) {
             return;
         }
         // We moved the task out of waiting, so let's execute it:
-        submitRunTask(taskId);
+        submitRunTaskAndNotify(task);
         submit(this::runNextTask);
     }
 
@@ -328,7 +353,7 @@ public class TaskManagerImpl implements TaskManager {
     public synchronized void monitorTaskQueueFor(
         Predicate<TaskInfo> taskMatches)
     {
-        _taskMatches = ( null == taskMatches ) ? (info) -> true : taskMatches;
+        _taskMatches = ( null == taskMatches ) ? MATCH_ALL_TASKS : taskMatches;
         if ( null != _monitorTasks ) return;
         if ( null == _executor ) return;
         _monitorTasks = _executor.scheduleAtFixedRate(
@@ -336,6 +361,7 @@ public class TaskManagerImpl implements TaskManager {
             ThreadLocalRandom.current().nextLong(POLL_INTERVAL_MS),
             POLL_INTERVAL_MS,
             TimeUnit.MILLISECONDS);
+        _taskNotifier.addListener(_onRunnable);
     }
 
     @Override
@@ -357,6 +383,7 @@ public class TaskManagerImpl implements TaskManager {
             allFutures.add(_monitorTasks);
             _monitorTasks = null;
         }
+        _taskNotifier.removeListener(_onRunnable);
         for ( Long taskId : _delayedTasks.keySet() ) {
             updateDelayedTask(taskId, null);
         }
@@ -368,6 +395,7 @@ public class TaskManagerImpl implements TaskManager {
             }
             _spawnedFutures.clear();
         }
+        _runNextTaskAt.set(0);
         try {
             // Ensure cancelation eventually occurs:
             for ( long seconds = 60;
@@ -401,27 +429,29 @@ public class TaskManagerImpl implements TaskManager {
             LOG.debug("Attempt to set updateData on taskId="+taskId+" that is in a final state, ignoring");
             return;
         }
+        Task task;
         try {
-            _tasks.updateItem(taskId, null)
+            task = _tasks.updateItem(taskId, null)
                 .set("mid", AttrType.STR, MONITOR_ID_QUEUED)
                 .set("stat", AttrType.STR, toString(TaskState.QUEUED))
+                .returnAllNew()
                 .when((expr) -> expr.beginsWith("mid", "$"));
         } catch ( RollbackException ex ) {
             return;
         }
         // We moved the task out of waiting, so let's execute it:
-        submitRunTask(taskId);
+        submitRunTaskAndNotify(task);
         submit(this::runNextTask);
     }
 
     public void releaseLocksForMonitorId(String monitorId) throws InterruptedException {
         LOG.debug("Releasing locks for monitorId="+monitorId);
-        List<Long> taskIdsToRun = new ArrayList<>();
+        List<Task> tasksToRun = new ArrayList<>();
         // Release locks on the "locks" table:
         for ( PageIterator iter : new PageIterator() ) {
             for ( Lock lock : _locksForMonitor.queryItems(monitorId, iter).list() ) {
                 // Mark next task as runnable:
-                unblockWaitingTasks(lock.lockId, monitorId, taskIdsToRun, false);
+                unblockWaitingTasks(lock.lockId, monitorId, tasksToRun, false);
                 // Remove the lock:
                 try {
                     _locks.deleteItem(lock.lockId, TASK_ID_NONE,
@@ -432,10 +462,10 @@ public class TaskManagerImpl implements TaskManager {
                 }
                 // Do not immediately dispatch these blocked tasks, so the next code can
                 // resume the task that WAS running previously.
-                // for ( Long taskId : taskIdsToRun ) {
-                //    submitRunTask(taskId);
+                // for ( Task task : tasksToRun ) {
+                //    submitRunTask(task);
                 // }
-                taskIdsToRun.clear();
+                tasksToRun.clear();
             }
         }
         // Put the tasks back into a runnable state:
@@ -452,7 +482,7 @@ public class TaskManagerImpl implements TaskManager {
                               task.getTaskId());
                     continue;
                 }
-                submitRunTask(task.getTaskId());
+                submitRunTaskAndNotify(task);
                 taskSubmitted = true;
             }
         }
@@ -540,7 +570,9 @@ public class TaskManagerImpl implements TaskManager {
             .put("cnt", Long.class, "runCount")
             .put("agn", Long.class, "requeues")
             .put("tic", Long.class, "millisecondsRemaining")
-            .put("cancel", String.class, "canceledBy");
+            .put("cancel", String.class, "canceledBy")
+            .put("pri", Integer.class, "priority")
+            .put("fsk", String.class, "fairShareKey");
         module.createTransform(Lock.class)
             .put("lid", String.class, "lockId")
             .put("tid", String.class, "taskId")
@@ -637,106 +669,278 @@ public class TaskManagerImpl implements TaskManager {
     }
 
     private void runNextTask() {
+        // Claim as many tasks as we have capacity for, up to _claimBatchSize:
+        int permits = 0;
+        while ( permits < _claimBatchSize && _capacity.tryAcquire(1) ) {
+            permits++;
+        }
         // We are at capacity, don't actually run a task:
-        if ( ! _capacity.tryAcquire(1) ) {
+        if ( 0 == permits ) {
             // This is pretty common place, so do not log it:
             //LOG.warn("Insufficient capacity to run the next task, try increasing thread pool size");
             return;
         }
-        Long taskId = null;
+        List<Task> claimed = new ArrayList<>();
+        // If true, runNextTask() was scheduled to run once the limit allows:
+        boolean limited = false;
         try {
             // Spread-out running tasks to avoid slamming the DB with writes:
-            synchronized ( this ) {
-                long now = milliTime();
-                long remaining = _lastRunTask + POLL_INTERVAL_MS/MAX_TASKS_IN_INTERVAL - now;
-                if ( remaining > 0 ) {
-                    // Delay the next task run:
-                    if ( null == _runNextTaskFuture ) {
-                        _runNextTaskFuture = schedule(this::runNextTask, remaining);
-                    }
-                    return;
-                } else {
-                    _runNextTaskFuture = null;
-                    _lastRunTask = now;
-                }
+            long delay = _dispatchLimiter.getDelayMillis(null);
+            if ( delay > 0 ) {
+                limited = true;
+                scheduleRunNextTask(delay);
+                return;
             }
 
-            // Read tasks from the queue until we find one that is in a queued state and
-            // therefore is likely to acquire the lock:
-            while ( true ) {
+            // Read tasks from the queue until we find some that are in a queued state and
+            // therefore are likely to acquire the lock:
+            while ( claimed.isEmpty() && ! limited ) {
+                Map<Long, QueuedTask> queuedTasks = new LinkedHashMap<>();
+                long minDelay = Long.MAX_VALUE;
                 synchronized ( _taskQueue ) {
-                    if ( _taskQueue.isEmpty() ) return;
-                    taskId = _taskQueue.iterator().next();
-                    _taskQueue.remove(taskId);
+                    for ( QueuedTask queuedTask : _taskQueue ) {
+                        // Skip tasks of entity types which are over their quota:
+                        String entityType = queuedTask.entityType;
+                        if ( null != entityType ) {
+                            long entityTypeDelay = _dispatchLimiter.getDelayMillis(entityType);
+                            if ( entityTypeDelay > 0 ) {
+                                minDelay = Math.min(minDelay, entityTypeDelay);
+                                continue;
+                            }
+                        }
+                        queuedTasks.put(queuedTask.taskId, queuedTask);
+                        if ( queuedTasks.size() >= permits ) break;
+                    }
+                    for ( QueuedTask queuedTask : queuedTasks.values() ) {
+                        _taskQueue.remove(queuedTask);
+                    }
+                    _metrics.onQueueDepth(_taskQueue.size());
+                }
+                if ( queuedTasks.isEmpty() ) {
+                    if ( minDelay < Long.MAX_VALUE ) {
+                        limited = true;
+                        scheduleRunNextTask(minDelay);
+                    }
+                    return;
                 }
 
-                Task task = _tasks.getItem(taskId);
-                if ( null != task && MONITOR_ID_QUEUED.equals(task.getMonitorId()) ) {
-                    break;
+                for ( Task task : getQueuedTasks(queuedTasks.keySet()) ) {
+                    QueuedTask queuedTask = queuedTasks.get(task.getTaskId());
+                    if ( ! limited ) {
+                        delay = _dispatchLimiter.tryAcquire(task.getEntityType());
+                        if ( 0 == delay ) {
+                            _metrics.onDispatch(milliTime() - queuedTask.millisQueued);
+                            claimed.add(task);
+                            continue;
+                        }
+                        _metrics.onLimited();
+                        delay = _dispatchLimiter.getDelayMillis(null);
+                        if ( delay > 0 ) {
+                            limited = true;
+                            scheduleRunNextTask(delay);
+                        }
+                    }
+                    // Put it back, tasks of other entity types may still run:
+                    queuedTask.entityType = task.getEntityType();
+                    synchronized ( _taskQueue ) {
+                        _taskQueue.requeue(queuedTask, task.getPriority(), task.getFairShareKey());
+                    }
                 }
             }
+            if ( claimed.isEmpty() ) return;
+            // Release the permits of a partial batch, they would otherwise
+            // be held for as long as the first task runs:
+            _capacity.release(permits - claimed.size());
+            permits = claimed.size();
+            // The rest of the batch is locked by other threads so the DB
+            // writes overlap, each takes over one of our permits:
+            for ( int i=1; i < claimed.size(); i++ ) {
+                permits--;
+                spawnRunTask(claimed.get(i).getTaskId());
+            }
+            long taskId = claimed.get(0).getTaskId();
             LOG.debug("runTask("+taskId+")");
 
             runTask(taskId);
         } catch ( Throwable ex ) {
-            LOG.error("runTask("+taskId+"): "+ex.getMessage(), ex);
+            LOG.error("runNextTask(): "+ex.getMessage(), ex);
         } finally {
-            _capacity.release();
-
-            synchronized ( _taskQueue ) {
-                if ( _taskQueue.isEmpty() ) return;
-            }
+            _capacity.release(permits);
 
-            // It doesn't hurt to run this to much, but it does hurt to not
-            // run it enough:
-            submit(this::runNextTask);
+            if ( ! limited ) submitRunNextTask();
         }
     }
 
-    private synchronized void submit(Runnable run) {
-        if ( null == _monitorTasks ) return;
-        if ( null == _executor ) return;
-        AtomicReference<Future<?>> futureRef = new AtomicReference<>();
-        futureRef.set(_executor.submit(() -> {
+    // Runs a task claimed by runNextTask() on another thread, which takes
+    // over a permit of _capacity acquired by runNextTask(). The permit is
+    // released when the task finishes, or if it never starts because the
+    // task queue monitor was stopped (the task is then found by the next
+    // poll):
+    private void spawnRunTask(long taskId) {
+        // Set when the spawned task starts, or when its permit is released
+        // without starting it:
+        AtomicBoolean started = new AtomicBoolean();
+        Runnable releaseIfNotStarted = () -> {
+            if ( started.compareAndSet(false, true) ) _capacity.release();
+        };
+        boolean submitted = false;
+        try {
+            submitted = submit(() -> {
+                    if ( ! started.compareAndSet(false, true) ) return;
                     try {
-                        run.run();
-                    } catch ( Throwable ex ) {
-                        LOG.error(ex.getMessage(), ex);
+                        LOG.debug("runTask("+taskId+")");
+                        runTask(taskId);
                     } finally {
-                        synchronized ( this ) {
-                            _spawnedFutures.remove(futureRef.get());
-                        }
+                        _capacity.release();
+                        submitRunNextTask();
                     }
-                }));
-        _spawnedFutures.add(futureRef.get());
+                }, releaseIfNotStarted);
+        } finally {
+            if ( ! submitted ) releaseIfNotStarted.run();
+        }
     }
 
-    private synchronized Future<?> schedule(Runnable run, long intervalMS) {
-        if ( null == _monitorTasks ) return null;
-        if ( null == _executor ) return null;
-        AtomicReference<Future<?>> futureRef = new AtomicReference<>();
-        futureRef.set(_executor.schedule(() -> {
+    private void submitRunNextTask() {
+        if ( _taskQueue.isEmpty() ) return;
+        // It doesn't hurt to run this to much, but it does hurt to not
+        // run it enough:
+        submit(this::runNextTask);
+    }
+
+    // Reads the tasks in a single round trip, tasks which are no longer
+    // queued are dropped. The tasks are returned in the order of taskIds:
+    private List<Task> getQueuedTasks(Collection<Long> taskIds) {
+        List<Task> tasks = new ArrayList<>();
+        if ( 1 == taskIds.size() ) {
+            Task task = _tasks.getItem(taskIds.iterator().next());
+            if ( null != task ) tasks.add(task);
+        } else {
+            IndexKey[] keys = new IndexKey[taskIds.size()];
+            int i = 0;
+            for ( Long taskId : taskIds ) {
+                keys[i++] = new IndexKey().withHashKey(taskId);
+            }
+            Map<Long, Task> tasksById = new HashMap<>();
+            for ( Task task : _tasks.getItems(keys).values() ) {
+                if ( null != task ) tasksById.put(task.getTaskId(), task);
+            }
+            for ( Long taskId : taskIds ) {
+                Task task = tasksById.get(taskId);
+                if ( null != task ) tasks.add(task);
+            }
+        }
+        _metrics.onClaimBatch(taskIds.size());
+        tasks.removeIf((task) -> ! MONITOR_ID_QUEUED.equals(task.getMonitorId()));
+        return tasks;
+    }
+
+    // Runs runNextTask() after delayMS, unless it is already scheduled to run sooner:
+    private void scheduleRunNextTask(long delayMS) {
+        long now = milliTime();
+        long runAt = now + delayMS;
+        while ( true ) {
+            long scheduledAt = _runNextTaskAt.get();
+            if ( scheduledAt > now && scheduledAt <= runAt ) return;
+            if ( _runNextTaskAt.compareAndSet(scheduledAt, runAt) ) break;
+        }
+        if ( null == schedule(this::runNextTask, delayMS) ) {
+            _runNextTaskAt.compareAndSet(runAt, 0);
+        }
+    }
+
+    // A future of _spawnedFutures, which removes itself once it is done:
+    private class SpawnedTask extends FutureTask<Void> {
+        // Called if the task is canceled, may be null:
+        private final Runnable _onCancel;
+
+        private SpawnedTask(Runnable run, Runnable onCancel) {
+            super(() -> {
                     try {
                         run.run();
                     } catch ( Throwable ex ) {
                         LOG.error(ex.getMessage(), ex);
-                    } finally {
-                        synchronized ( this ) {
-                            _spawnedFutures.remove(futureRef.get());
-                        }
                     }
-                }, intervalMS, TimeUnit.MILLISECONDS));
-        _spawnedFutures.add(futureRef.get());
-        return futureRef.get();
+                }, null);
+            _onCancel = onCancel;
+        }
+
+        @Override
+        protected void done() {
+            _spawnedFutures.remove(this);
+            if ( isCancelled() && null != _onCancel ) _onCancel.run();
+        }
+    }
+
+    // Returns null if the task queue is not monitored:
+    private SpawnedTask spawn(Runnable run) {
+        return spawn(run, null);
     }
 
-    private void submitRunTask(long taskId) {
-        synchronized ( _taskQueue ) {
-            _taskQueue.add(taskId);
+    private SpawnedTask spawn(Runnable run, Runnable onCancel) {
+        if ( null == _monitorTasks ) return null;
+        SpawnedTask task = new SpawnedTask(run, onCancel);
+        _spawnedFutures.add(task);
+        // Raced with stopTaskQueueMonitor(), which may not have seen this task:
+        if ( null == _monitorTasks ) {
+            task.cancel(false);
+            return null;
         }
+        return task;
+    }
+
+    private void submit(Runnable run) {
+        submit(run, null);
+    }
+
+    // Returns false if run was not submitted, onCancel is called if run
+    // is canceled after it was submitted:
+    private boolean submit(Runnable run, Runnable onCancel) {
+        ScheduledExecutorService executor = _executor;
+        if ( null == executor ) return false;
+        SpawnedTask task = spawn(run, onCancel);
+        if ( null == task ) return false;
+        executor.execute(task);
+        return true;
+    }
+
+    private Future<?> schedule(Runnable run, long intervalMS) {
+        ScheduledExecutorService executor = _executor;
+        if ( null == executor ) return null;
+        SpawnedTask task = spawn(run);
+        if ( null == task ) return null;
+        executor.schedule(task, intervalMS, TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    private void submitRunTask(TaskInfo task) {
+        submitRunTasks(Collections.singletonList(task));
+    }
+
+    private void submitRunTasks(Collection<? extends TaskInfo> tasks) {
+        for ( TaskInfo task : tasks ) {
+            _taskQueue.add(task.getTaskId(), task.getPriority(), task.getFairShareKey());
+        }
+        _metrics.onQueueDepth(_taskQueue.size());
+    }
+
+    // Queue the task in this JVM and wake up the other monitors:
+    private void submitRunTaskAndNotify(TaskInfo task) {
+        submitRunTask(task);
+        _taskNotifier.notifyRunnable(task.getTaskId(), _onRunnable);
     }
 
-    private synchronized void scheduleDelayedTask(long taskId, long intervalMS) {
+    // Called by the _taskNotifier when another monitor made taskId runnable,
+    // the task is read so it is queued with its priority and fair share key:
+    private void onRunnable(long taskId) {
+        submit(() -> {
+                Task task = _tasks.getItem(taskId);
+                if ( null == task || ! _taskMatches.test(task) ) return;
+                submitRunTask(task);
+                runNextTask();
+            });
+    }
+
+    private void scheduleDelayedTask(long taskId, long intervalMS) {
         schedule(() ->
                  _monitor.monitor((mon) -> updateDelayedTask(taskId, mon)),
                  intervalMS);
@@ -744,7 +948,7 @@ public class TaskManagerImpl implements TaskManager {
 
     private void monitorDelayedTask(Task task) {
         long taskId = task.getTaskId();
-        DelayedTask delayedTask = new DelayedTask(task.getMillisecondsRemaining());
+        DelayedTask delayedTask = new DelayedTask(task);
         synchronized ( delayedTask ) {
             if ( null != _delayedTasks.putIfAbsent(taskId, delayedTask) ) {
                 LOG.debug("Already monitoring delayed taskId="+taskId);
@@ -759,19 +963,16 @@ public class TaskManagerImpl implements TaskManager {
 
     private void startRunnableTasks() {
         try {
-            boolean taskSubmitted = false;
-            for ( PageIterator iter : new PageIterator().pageSize(100) ) {
-                for ( Task task : _tasksForMonitor.queryItems(MONITOR_ID_QUEUED, iter).list() ) {
-                    if ( ! _taskMatches.test(task) ) continue;
-                    submitRunTask(task.getTaskId());
-                    taskSubmitted = true;
-                }
-            }
-            if ( taskSubmitted ) {
-                submit(this::runNextTask);
+            int pollCount = _pollCount.incrementAndGet();
+            // Checked on every poll, so we fall back to scanning every poll
+            // as soon as notifications stop arriving:
+            if ( ! _taskNotifier.isDistributed() ||
+                 0 == pollCount % NOTIFIED_POLL_INTERVALS )
+            {
+                scanRunnableTasks();
             }
 
-            if ( 1 == _pollCount.incrementAndGet() % CLEANUP_INTERVALS ) {
+            if ( 1 == pollCount % CLEANUP_INTERVALS ) {
                 doCleanup();
             }
 
@@ -784,6 +985,22 @@ public class TaskManagerImpl implements TaskManager {
         }
     }
 
+    private void scanRunnableTasks() {
+        // The index is ordered by task id, so queue the tasks after the
+        // whole scan for the highest priority tasks to run first:
+        List<Task> tasks = new ArrayList<>();
+        for ( PageIterator iter : new PageIterator().pageSize(100) ) {
+            for ( Task task : _tasksForMonitor.queryItems(MONITOR_ID_QUEUED, iter).list() ) {
+                if ( ! _taskMatches.test(task) ) continue;
+                tasks.add(task);
+            }
+        }
+        if ( ! tasks.isEmpty() ) {
+            submitRunTasks(tasks);
+            submit(this::runNextTask);
+        }
+    }
+
     private void doCleanup() {
         _monitor.monitor(this::doCleanup);
     }
@@ -918,7 +1135,8 @@ public class TaskManagerImpl implements TaskManager {
             }
             if ( newRemaining <= 0 || null == monitorInfo ) { // stop monitoring:
                 _delayedTasks.remove(taskId, delayedTask);
-                submitRunTask(taskId);
+                _taskQueue.add(taskId, delayedTask.priority, delayedTask.fairShareKey);
+                _metrics.onQueueDepth(_taskQueue.size());
                 submit(this::runNextTask);
                 return;
             }
@@ -1117,6 +1335,8 @@ public class TaskManagerImpl implements TaskManager {
         Task originalTask;
         List<String> locksAcquired = new ArrayList<>();
         String threadName = null;
+        long writeBegin = System.nanoTime();
+        boolean throttled = false;
         try {
             originalTask = _tasks.updateItem(taskId, null)
                 .set("mid", AttrType.STR, monitorInfo.getMonitorId())
@@ -1129,6 +1349,14 @@ public class TaskManagerImpl implements TaskManager {
             // Someone else already locked this task:
             LOG.debug("Something else is running taskId="+taskId);
             return;
+        } catch ( RuntimeException ex ) {
+            throttled = isThrottledException(ex);
+            throw ex;
+        } finally {
+            // Feedback for an adaptive _dispatchLimiter:
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeBegin);
+            _dispatchLimiter.onWrite(latencyMillis, throttled);
+            _metrics.onWrite(latencyMillis, throttled);
         }
         boolean submitQueuedTask = true;
         boolean interrupted = false;
@@ -1227,7 +1455,7 @@ public class TaskManagerImpl implements TaskManager {
     private boolean updateTaskState(Task originalTask, Task finalTask, List<String> locksAcquired, MonitorInfo monitorInfo, boolean submitQueuedTask) {
         boolean interrupted = false;
         long taskId = originalTask.getTaskId();
-        List<Long> taskIdsToRun = new ArrayList<>();
+        List<Task> tasksToRun = new ArrayList<>();
         for ( int retry=0; retry < 3; retry++ ) {
             try {
                 // First update all DB state:
@@ -1260,7 +1488,7 @@ public class TaskManagerImpl implements TaskManager {
                             LOG.debug("'agn'="+originalTask.requeues+" of taskId="+taskId+
                                       " changed to="+task.requeues+" during run, retrying");
                             finalTask.taskState = TaskState.QUEUED;
-                            if ( submitQueuedTask ) taskIdsToRun.add(taskId);
+                            if ( submitQueuedTask ) tasksToRun.add(task);
                             continue;
                         }
                     }
@@ -1285,20 +1513,20 @@ public class TaskManagerImpl implements TaskManager {
                 releaseLocks(locksAcquired,
                              taskId,
                              monitorInfo.getMonitorId(),
-                             taskIdsToRun,
+                             tasksToRun,
                              finalTask.getTaskState().isTerminal());
 
                 // Get the tasks to run immediately:
                 if ( _monitor.isActiveMonitor(monitorInfo) ) {
                     boolean taskSubmitted = false;
-                    for ( Long taskIdToRun : taskIdsToRun ) {
-                        submitRunTask(taskIdToRun);
+                    for ( Task taskToRun : tasksToRun ) {
+                        submitRunTaskAndNotify(taskToRun);
                         taskSubmitted = true;
                     }
-                    taskIdsToRun.clear();
+                    tasksToRun.clear();
 
                     if ( submitQueuedTask && TaskState.QUEUED == finalTask.getTaskState() ) {
-                        submitRunTask(taskId);
+                        submitRunTask(finalTask);
                         taskSubmitted = true;
                     }
                     if ( taskSubmitted ) {
@@ -1365,6 +1593,27 @@ public class TaskManagerImpl implements TaskManager {
                     logMsg.append(" set preq="+finalTask.getPrerequisiteTaskIds());
                 }
             }
+            if ( originalTask.getPriority() != finalTask.getPriority() ) {
+                if ( 0 == finalTask.getPriority() ) {
+                    update.remove("pri");
+                    logMsg.append(" delete pri");
+                } else {
+                    update.set("pri", AttrType.NUM, finalTask.getPriority());
+                    logMsg.append(" set pri="+finalTask.getPriority());
+                }
+            }
+            if ( null == finalTask.getFairShareKey() ?
+                 null != originalTask.getFairShareKey() :
+                 ! finalTask.getFairShareKey().equals(originalTask.getFairShareKey()) )
+            {
+                if ( null == finalTask.getFairShareKey() ) {
+                    update.remove("fsk");
+                    logMsg.append(" delete fsk");
+                } else {
+                    update.set("fsk", AttrType.STR, finalTask.getFairShareKey());
+                    logMsg.append(" set fsk="+finalTask.getFairShareKey());
+                }
+            }
             if ( null != finalTask.getMillisecondsRemaining() ) {
                 finalTask.monitorId = MONITOR_ID_QUEUED;
                 finalTask.taskState = TaskState.QUEUED;
@@ -1410,7 +1659,19 @@ public class TaskManagerImpl implements TaskManager {
         return false;
     }
 
-    private void releaseLocks(List<String> locks, Long taskId, String monitorId, List<Long> taskIdsToRun, boolean isTerminal)
+    // DynamoDB rejects writes beyond the provisioned capacity with these:
+    private boolean isThrottledException(Throwable ex) {
+        for ( ; null != ex; ex = ex.getCause() ) {
+            switch ( ex.getClass().getName() ) {
+            case "com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException":
+            case "com.amazonaws.services.dynamodbv2.model.RequestLimitExceededException":
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void releaseLocks(List<String> locks, Long taskId, String monitorId, List<Task> tasksToRun, boolean isTerminal)
         throws InterruptedException
     {
         String prereqsLock = getLockForTaskId(taskId);
@@ -1418,7 +1679,7 @@ public class TaskManagerImpl implements TaskManager {
             String lockId = locks.get(locks.size()-1);
 
             // Mark next task as runnable:
-            unblockWaitingTasks(lockId, monitorId, taskIdsToRun,
+            unblockWaitingTasks(lockId, monitorId, tasksToRun,
                                 isTerminal && lockId.equals(prereqsLock));
             // Remove our queued mark:
             if ( null != taskId ) {
@@ -1428,7 +1689,9 @@ public class TaskManagerImpl implements TaskManager {
         }
     }
 
-    private void unblockWaitingTasks(String lockId, String monitorId, List<Long> taskIdsToRun, boolean processPrereqs)
+    // The unblocked tasks are added to tasksToRun, so they can be queued
+    // with their priority and fair share key:
+    private void unblockWaitingTasks(String lockId, String monitorId, List<Task> tasksToRun, boolean processPrereqs)
         throws InterruptedException
     {
         if ( lockId.startsWith("_TASK:") ) {
@@ -1461,12 +1724,13 @@ public class TaskManagerImpl implements TaskManager {
                     boolean first = true;
                     while ( true ) {
                         try {
-                            _tasks.updateItem(taskId, null)
+                            Task task = _tasks.updateItem(taskId, null)
                                 .set("mid", AttrType.STR, MONITOR_ID_QUEUED)
                                 .set("stat", AttrType.STR, toString(TaskState.QUEUED))
+                                .returnAllNew()
                                 .when((expr) -> expr.eq("mid", MONITOR_ID_WAITING));
                             LOG.debug("unblocked taskId="+taskId+" that was waiting for "+lockId);
-                            taskIdsToRun.add(taskId);
+                            tasksToRun.add(task);
                             break;
                         } catch ( RollbackException ex ) {
                             if ( first ) {
@@ -0,0 +1,47 @@
+package com.distelli.monitor.impl;
+
+/**
+ * Wakes up the TaskManagerImpl of other monitors when a task may run,
+ * so they do not have to wait for the next poll of the task queue.
+ * Bind an implementation by passing it to the MonitorTaskModule
+ * constructor, the default is a LocalTaskNotifier.
+ *
+ * Notifications are best effort, a lost notification only delays the
+ * task until the next poll.
+ */
+public interface TaskNotifier {
+    public interface Listener {
+        /**
+         * Called when taskId may be runnable. Must not block, since it
+         * may be called from the thread which delivers notifications.
+         */
+        public void onRunnable(long taskId);
+    }
+
+    /**
+     * Tell the listeners of other monitors that taskId may be runnable.
+     * Must not block for long, and must not throw.
+     */
+    public void notifyRunnable(long taskId);
+
+    /**
+     * Like notifyRunnable(taskId), but sender is not notified, so a monitor
+     * does not wake itself up for a task it already queued.
+     */
+    public default void notifyRunnable(long taskId, Listener sender) {
+        notifyRunnable(taskId);
+    }
+
+    public void addListener(Listener listener);
+
+    public void removeListener(Listener listener);
+
+    /**
+     * @return true if notifications currently reach monitors in other JVMs,
+     *     in which case the task queue is polled much less often. Checked
+     *     on every poll, so it may change over time.
+     */
+    public default boolean isDistributed() {
+        return false;
+    }
+}
@@ -0,0 +1,246 @@
+package com.distelli.monitor.impl;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tasks queued in this JVM waiting to start, iterated in the order
+ * they should start.
+ *
+ * Tasks with a higher priority always come first. Tasks of the same
+ * priority are ordered by weighted fair queueing across their fair share
+ * keys: each key gets a share of the starts proportional to its weight,
+ * so a flood of tasks for one key does not starve the other keys. Tasks
+ * of the same key start in the order they were queued.
+ *
+ * Adding tasks is lock-free: added tasks wait in a deduplicated inbox
+ * until the dispatcher looks at the queue. Iterating, removing and
+ * requeueing tasks must be done while synchronized on this queue, which
+ * is only needed by the dispatcher.
+ */
+public class TaskQueue implements Iterable<TaskQueue.QueuedTask> {
+    public static final double DEFAULT_WEIGHT = 1;
+
+    public static class QueuedTask {
+        private QueuedTask(long taskId, int priority, String fairShareKey, boolean known) {
+            this.taskId = taskId;
+            this.priority = priority;
+            this.fairShareKey = fairShareKey;
+            this.millisQueued = milliTime();
+            this.known = known;
+        }
+        public final long taskId;
+        public int priority;
+        public String fairShareKey;
+        public long millisQueued;
+        // Known once the task was held back by the DispatchLimiter:
+        public String entityType;
+        // Virtual time at which this task is done being served:
+        private double finish;
+        // Breaks ties in FIFO order:
+        private long sequence;
+        // False if only the taskId was known when it was added:
+        private final boolean known;
+    }
+
+    private static class Flow {
+        // Tasks of this flow currently queued:
+        private int queued = 0;
+        // Finish time of the last task queued:
+        private double lastFinish = 0;
+    }
+
+    private static final Comparator<QueuedTask> DISPATCH_ORDER = (a, b) -> {
+        if ( a.priority != b.priority ) return Integer.compare(b.priority, a.priority);
+        if ( a.finish != b.finish ) return Double.compare(a.finish, b.finish);
+        return Long.compare(a.sequence, b.sequence);
+    };
+
+    // Only modified before the queue is used:
+    private final Map<String, Double> _weights = new HashMap<>();
+    // Tasks added since the dispatcher last looked, _pending deduplicates
+    // the task ids in _inbox:
+    private final Queue<Long> _inbox = new ConcurrentLinkedQueue<>();
+    private final Map<Long, QueuedTask> _pending = new ConcurrentHashMap<>();
+    // synchronized(this):
+    private final TreeSet<QueuedTask> _queue = new TreeSet<>(DISPATCH_ORDER);
+    private final Map<Long, QueuedTask> _queuedTasks = new HashMap<>();
+    private final Map<String, Flow> _flows = new HashMap<>();
+    // synchronized(this), finish time of the last task removed, tasks
+    // queued by an idle flow start from here so the flow can not bank
+    // service while it is idle:
+    private double _virtualTime = 0;
+    // synchronized(this):
+    private long _sequence = 0;
+    // Size of _queue, so it can be read without synchronizing:
+    private volatile int _queueSize = 0;
+
+    /**
+     * @param fairShareKey is the key to weight, null is the key of tasks
+     *     without a fair share key.
+     *
+     * @param weight relative to the other keys, defaults to
+     *     DEFAULT_WEIGHT.
+     *
+     * @return this for method chaining.
+     */
+    public TaskQueue withWeight(String fairShareKey, double weight) {
+        if ( ! (weight > 0) ) {
+            throw new IllegalArgumentException("weight="+weight+" must be > 0");
+        }
+        _weights.put(fairShareKey, weight);
+        return this;
+    }
+
+    /**
+     * Queue a task of which only the id is known, it is queued with the
+     * default priority and no fair share key. Does nothing if the task
+     * is already queued.
+     */
+    public void add(long taskId) {
+        if ( null == _pending.putIfAbsent(taskId, new QueuedTask(taskId, 0, null, false)) ) {
+            _inbox.add(taskId);
+        }
+    }
+
+    /**
+     * Queue a task, or move it to the position of its new priority and
+     * fair share key if it was already queued.
+     */
+    public void add(long taskId, int priority, String fairShareKey) {
+        if ( null == _pending.put(taskId, new QueuedTask(taskId, priority, fairShareKey, true)) ) {
+            _inbox.add(taskId);
+        }
+    }
+
+    /**
+     * Put back a task which was removed but could not start. The task keeps
+     * its position unless its priority or fair share key changed.
+     */
+    public void requeue(QueuedTask queuedTask, int priority, String fairShareKey) {
+        drain();
+        requeueTask(queuedTask, priority, fairShareKey);
+    }
+
+    private void requeueTask(QueuedTask queuedTask, int priority, String fairShareKey) {
+        QueuedTask current = _queuedTasks.get(queuedTask.taskId);
+        // Queued again while it was removed:
+        if ( null != current && current != queuedTask ) return;
+        if ( priority == queuedTask.priority &&
+             equals(fairShareKey, queuedTask.fairShareKey) )
+        {
+            if ( null != current ) return;
+            Flow flow = getFlow(fairShareKey);
+            flow.lastFinish = Math.max(flow.lastFinish, queuedTask.finish);
+            flow.queued++;
+            _queue.add(queuedTask);
+            _queuedTasks.put(queuedTask.taskId, queuedTask);
+            _queueSize = _queue.size();
+            return;
+        }
+        if ( null != current ) remove(queuedTask, false);
+        queuedTask.priority = priority;
+        queuedTask.fairShareKey = fairShareKey;
+        add(queuedTask);
+    }
+
+    /**
+     * Remove a task which is about to start.
+     *
+     * @return false if the task was not queued.
+     */
+    public boolean remove(QueuedTask queuedTask) {
+        if ( queuedTask != _queuedTasks.get(queuedTask.taskId) ) return false;
+        remove(queuedTask, true);
+        return true;
+    }
+
+    // May be called without synchronizing:
+    public boolean isEmpty() {
+        return 0 == _queueSize && _inbox.isEmpty();
+    }
+
+    /**
+     * May be called without synchronizing, a task which is added again
+     * before the dispatcher looked at the queue may be counted twice.
+     */
+    public int size() {
+        return _queueSize + _pending.size();
+    }
+
+    /**
+     * @return the queued tasks in the order they should start. Removing
+     *     a task through the iterator is not supported, use remove().
+     */
+    @Override
+    public Iterator<QueuedTask> iterator() {
+        drain();
+        Iterator<QueuedTask> it = _queue.iterator();
+        return new Iterator<QueuedTask>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public QueuedTask next() {
+                return it.next();
+            }
+        };
+    }
+
+    // Move the tasks added since the last call into _queue:
+    private void drain() {
+        for ( Long taskId = _inbox.poll(); null != taskId; taskId = _inbox.poll() ) {
+            QueuedTask added = _pending.remove(taskId);
+            if ( null == added ) continue;
+            QueuedTask current = _queuedTasks.get(taskId);
+            if ( null == current ) {
+                add(added);
+            } else if ( added.known ) {
+                requeueTask(current, added.priority, added.fairShareKey);
+            }
+        }
+    }
+
+    private void add(QueuedTask queuedTask) {
+        Flow flow = getFlow(queuedTask.fairShareKey);
+        queuedTask.finish = Math.max(_virtualTime, flow.lastFinish) +
+            1 / _weights.getOrDefault(queuedTask.fairShareKey, DEFAULT_WEIGHT);
+        queuedTask.sequence = _sequence++;
+        flow.lastFinish = queuedTask.finish;
+        flow.queued++;
+        _queue.add(queuedTask);
+        _queuedTasks.put(queuedTask.taskId, queuedTask);
+        _queueSize = _queue.size();
+    }
+
+    private void remove(QueuedTask queuedTask, boolean served) {
+        _queue.remove(queuedTask);
+        _queuedTasks.remove(queuedTask.taskId);
+        _queueSize = _queue.size();
+        if ( served ) _virtualTime = Math.max(_virtualTime, queuedTask.finish);
+        Flow flow = _flows.get(queuedTask.fairShareKey);
+        if ( null != flow && --flow.queued <= 0 ) {
+            _flows.remove(queuedTask.fairShareKey);
+        }
+    }
+
+    private Flow getFlow(String fairShareKey) {
+        return _flows.computeIfAbsent(fairShareKey, (key) -> new Flow());
+    }
+
+    private static boolean equals(String a, String b) {
+        return ( null == a ) ? null == b : a.equals(b);
+    }
+
+    private static long milliTime() {
+        return TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,217 @@
+package com.distelli.monitor.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Starts tasks at a steady rate, but lets bursts of up to burst tasks
+ * start immediately after an idle period.
+ *
+ * Entity types can be given their own (lower) quota with
+ * withEntityTypeQuota(), a task of such an entity type needs a token
+ * from both its own bucket and the shared bucket.
+ *
+ * In adaptive mode the rate of the shared bucket is halved whenever the
+ * DB throttles a write or the average write latency exceeds the target,
+ * and grows back slowly (additive increase) while writes are healthy.
+ *
+ * Lock-free, so concurrent dispatchers do not contend on the limiter.
+ */
+public class TokenBucketDispatchLimiter implements DispatchLimiter {
+    public static final double DEFAULT_TASKS_PER_SECOND = 10;
+    public static final int DEFAULT_BURST = 50;
+    // Only halve the rate once per interval, since a slow DB slows all
+    // the writes in flight:
+    private static final long DECREASE_INTERVAL_MS = 1000;
+    // Weight of the latest write in the average write latency:
+    private static final double LATENCY_WEIGHT = 0.2;
+    // Fraction of the configured rate added back per healthy write:
+    private static final double INCREASE_FRACTION = 0.01;
+
+    // Lock-free token bucket, as a generic cell rate algorithm: instead of
+    // counting tokens it tracks when the bucket is full again. A task may
+    // start if that is at most burst intervals ahead of now, which is the
+    // same as the bucket having a token.
+    private static class Bucket {
+        private final int _burst;
+        // Tasks per second, as Double.doubleToLongBits():
+        private final AtomicLong _rate;
+        // System.nanoTime() when the bucket is full again:
+        private final AtomicLong _fullAt;
+
+        private Bucket(double tasksPerSecond, int burst) {
+            if ( tasksPerSecond <= 0 ) {
+                throw new IllegalArgumentException("tasksPerSecond must be > 0, got "+tasksPerSecond);
+            }
+            if ( burst < 1 ) {
+                throw new IllegalArgumentException("burst must be >= 1, got "+burst);
+            }
+            _burst = burst;
+            _rate = new AtomicLong(Double.doubleToLongBits(tasksPerSecond));
+            _fullAt = new AtomicLong(System.nanoTime());
+        }
+
+        private double getRate() {
+            return Double.longBitsToDouble(_rate.get());
+        }
+
+        private void updateRate(DoubleUnaryOperator update) {
+            _rate.updateAndGet((bits) -> Double.doubleToLongBits(
+                                   update.applyAsDouble(Double.longBitsToDouble(bits))));
+        }
+
+        private long getIntervalNanos() {
+            return (long)(1e9 / getRate());
+        }
+
+        // Nanoseconds until a token is available:
+        private long getDelayNanos(long now) {
+            long interval = getIntervalNanos();
+            long fullAt = Math.max(_fullAt.get(), now) + interval;
+            return Math.max(0, fullAt - now - _burst * interval);
+        }
+
+        // Takes a token, or returns the nanoseconds until one is available:
+        private long tryAcquire(long now) {
+            long interval = getIntervalNanos();
+            while ( true ) {
+                long current = _fullAt.get();
+                long fullAt = Math.max(current, now) + interval;
+                long delay = fullAt - now - _burst * interval;
+                if ( delay > 0 ) return delay;
+                if ( _fullAt.compareAndSet(current, fullAt) ) return 0;
+            }
+        }
+
+        // Gives back a token taken by tryAcquire():
+        private void release() {
+            _fullAt.addAndGet(-getIntervalNanos());
+        }
+    }
+
+    private final double _tasksPerSecond;
+    private final Bucket _bucket;
+    // Only modified before the limiter is used:
+    private final Map<String, Bucket> _entityTypeBuckets = new ConcurrentHashMap<>();
+    // Adaptive mode is disabled if <= 0:
+    private volatile long _targetLatencyMillis = 0;
+    private volatile double _minTasksPerSecond;
+    // As Double.doubleToLongBits():
+    private final AtomicLong _avgLatencyMillis = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong _lastDecrease;
+
+    public TokenBucketDispatchLimiter() {
+        this(DEFAULT_TASKS_PER_SECOND, DEFAULT_BURST);
+    }
+
+    /**
+     * @param tasksPerSecond is the steady rate of task starts.
+     *
+     * @param burst is the number of tasks which may start at once.
+     */
+    public TokenBucketDispatchLimiter(double tasksPerSecond, int burst) {
+        _tasksPerSecond = tasksPerSecond;
+        _minTasksPerSecond = tasksPerSecond;
+        _bucket = new Bucket(tasksPerSecond, burst);
+        _lastDecrease = new AtomicLong(milliTime() - DECREASE_INTERVAL_MS);
+    }
+
+    /**
+     * Limit the tasks of entityType to a lower rate, tasks of this type
+     * still count against the shared rate.
+     */
+    public TokenBucketDispatchLimiter withEntityTypeQuota(
+        String entityType, double tasksPerSecond, int burst)
+    {
+        if ( null == entityType ) throw new IllegalArgumentException("entityType may not be null");
+        _entityTypeBuckets.put(entityType, new Bucket(tasksPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Adapt the shared rate to the DB write latency reported by onWrite().
+     *
+     * @param targetLatencyMillis is the average write latency above which
+     *     the rate is reduced.
+     *
+     * @param minTasksPerSecond is the lowest rate it is reduced to.
+     */
+    public TokenBucketDispatchLimiter withAdaptive(long targetLatencyMillis, double minTasksPerSecond) {
+        if ( targetLatencyMillis < 1 ) {
+            throw new IllegalArgumentException("targetLatencyMillis must be >= 1, got "+targetLatencyMillis);
+        }
+        if ( minTasksPerSecond <= 0 || minTasksPerSecond > _tasksPerSecond ) {
+            throw new IllegalArgumentException(
+                "minTasksPerSecond must be between 0-"+_tasksPerSecond+", got "+minTasksPerSecond);
+        }
+        _targetLatencyMillis = targetLatencyMillis;
+        _minTasksPerSecond = minTasksPerSecond;
+        return this;
+    }
+
+    // The current rate of the shared bucket, lower than configured if adaptive mode backed off:
+    public double getTasksPerSecond() {
+        return _bucket.getRate();
+    }
+
+    @Override
+    public long getDelayMillis(String entityType) {
+        long now = System.nanoTime();
+        long delay = _bucket.getDelayNanos(now);
+        Bucket bucket = ( null == entityType ) ? null : _entityTypeBuckets.get(entityType);
+        if ( null != bucket ) delay = Math.max(delay, bucket.getDelayNanos(now));
+        return toMillis(delay);
+    }
+
+    @Override
+    public long tryAcquire(String entityType) {
+        long now = System.nanoTime();
+        Bucket bucket = ( null == entityType ) ? null : _entityTypeBuckets.get(entityType);
+        if ( null != bucket ) {
+            long delay = bucket.tryAcquire(now);
+            if ( delay > 0 ) return toMillis(Math.max(delay, _bucket.getDelayNanos(now)));
+        }
+        long delay = _bucket.tryAcquire(now);
+        if ( delay > 0 ) {
+            // Both tokens are needed:
+            if ( null != bucket ) bucket.release();
+            return toMillis(delay);
+        }
+        return 0;
+    }
+
+    @Override
+    public void onWrite(long latencyMillis, boolean throttled) {
+        if ( _targetLatencyMillis <= 0 ) return;
+        double avgLatencyMillis = Double.longBitsToDouble(
+            _avgLatencyMillis.updateAndGet((bits) -> {
+                    double avg = Double.longBitsToDouble(bits);
+                    return Double.doubleToLongBits(avg + LATENCY_WEIGHT * (latencyMillis - avg));
+                }));
+        double maxRate = _tasksPerSecond;
+        double minRate = _minTasksPerSecond;
+        if ( throttled || avgLatencyMillis > _targetLatencyMillis ) {
+            long now = milliTime();
+            long lastDecrease = _lastDecrease.get();
+            if ( now - lastDecrease < DECREASE_INTERVAL_MS ) return;
+            // Only one of the concurrent writes backs off:
+            if ( ! _lastDecrease.compareAndSet(lastDecrease, now) ) return;
+            _bucket.updateRate((rate) -> Math.max(minRate, rate / 2));
+        } else if ( _bucket.getRate() < maxRate ) {
+            _bucket.updateRate((rate) -> Math.min(maxRate, rate + maxRate * INCREASE_FRACTION));
+        }
+    }
+
+    // Rounds up, so waiting the delay is enough to get a token:
+    private static long toMillis(long nanos) {
+        if ( nanos <= 0 ) return 0;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + 999999));
+    }
+
+    private static long milliTime() {
+        return TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,52 @@
+package com.distelli.monitor;
+
+import com.distelli.monitor.impl.TokenBucketDispatchLimiter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestDispatchLimiter {
+    @Test
+    public void testBurst() throws Exception {
+        TokenBucketDispatchLimiter limiter = new TokenBucketDispatchLimiter(10, 3);
+        for ( int i=0; i < 3; i++ ) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        long delay = limiter.tryAcquire("a");
+        assertTrue("delay="+delay, delay > 0 && delay <= 100);
+        assertTrue(limiter.getDelayMillis(null) > 0);
+        Thread.sleep(delay);
+        assertEquals(0, limiter.tryAcquire("a"));
+    }
+
+    @Test
+    public void testEntityTypeQuota() throws Exception {
+        TokenBucketDispatchLimiter limiter = new TokenBucketDispatchLimiter(100, 10)
+            .withEntityTypeQuota("slow", 1, 1);
+        assertEquals(0, limiter.tryAcquire("slow"));
+        long delay = limiter.tryAcquire("slow");
+        assertTrue("delay="+delay, delay > 900 && delay <= 1000);
+        // Other entity types are not held back by the quota:
+        assertEquals(0, limiter.getDelayMillis(null));
+        assertEquals(0, limiter.tryAcquire("fast"));
+    }
+
+    @Test
+    public void testAdaptive() throws Exception {
+        TokenBucketDispatchLimiter limiter = new TokenBucketDispatchLimiter(100, 10)
+            .withAdaptive(50, 10);
+        limiter.onWrite(5, true);
+        assertEquals(50, limiter.getTasksPerSecond(), 0.001);
+        // Only backs off once per second:
+        limiter.onWrite(5, true);
+        assertEquals(50, limiter.getTasksPerSecond(), 0.001);
+        // Healthy writes slowly restore the rate:
+        for ( int i=0; i < 10; i++ ) {
+            limiter.onWrite(5, false);
+        }
+        assertEquals(60, limiter.getTasksPerSecond(), 0.001);
+        for ( int i=0; i < 100; i++ ) {
+            limiter.onWrite(5, false);
+        }
+        assertEquals(100, limiter.getTasksPerSecond(), 0.001);
+    }
+}
@@ -4,6 +4,8 @@ import com.distelli.crypto.impl.CryptoModule;
 import com.distelli.monitor.impl.MonitorTaskModule;
 import com.distelli.monitor.impl.SequenceImpl;
 import com.distelli.monitor.impl.MonitorImpl;
+import com.distelli.monitor.impl.TaskDispatchMetrics;
+import com.distelli.monitor.impl.TokenBucketDispatchLimiter;
 import com.distelli.persistence.TableDescription;
 import com.distelli.persistence.impl.PersistenceModule;
 import com.google.inject.AbstractModule;
@@ -66,30 +68,33 @@ public class TestTaskManager {
         Log4JConfigurator.setLogLevel("org.apache.http", "INFO");
         Log4JConfigurator.setLogLevel("com.amazonaws", "INFO");
     }
-    private static Injector INJECTOR = Guice.createInjector(
-        getPersistenceModule(),
-        new CryptoModule(),
-        new MonitorTaskModule(),
-        new AbstractModule() {
-            @Override
-            protected void configure() {
-                MapBinder taskFunctionBinder = MapBinder.newMapBinder(binder(), String.class, TaskFunction.class);
-                taskFunctionBinder.addBinding(TestTask.ENTITY_TYPE).to(
-                    TestTask.class);
-                bind(ScheduledExecutorService.class).toInstance(new ScheduledThreadPoolExecutor(10));
-                ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>();
-                bind(Sequence.class).to(SequenceImpl.class).in(Singleton.class);
-                Multibinder tableBinder = Multibinder.newSetBinder(binder(), TableDescription.class);
-                tableBinder.addBinding().toInstance(
-                    SequenceImpl.getTableDescription());
-                bind(ProductVersion.class).toInstance(new ProductVersion() {
-                    @Override
-                    public String toString() {
-                        return "UnitTesting task-monitor-impl";
-                    }
-                });
-            }
-        });
+    private static Injector INJECTOR = createInjector(new MonitorTaskModule());
+    private static Injector createInjector(MonitorTaskModule monitorTaskModule) {
+        return Guice.createInjector(
+            getPersistenceModule(),
+            new CryptoModule(),
+            monitorTaskModule,
+            new AbstractModule() {
+                @Override
+                protected void configure() {
+                    MapBinder taskFunctionBinder = MapBinder.newMapBinder(binder(), String.class, TaskFunction.class);
+                    taskFunctionBinder.addBinding(TestTask.ENTITY_TYPE).to(
+                        TestTask.class);
+                    bind(ScheduledExecutorService.class).toInstance(new ScheduledThreadPoolExecutor(10));
+                    ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+                    bind(Sequence.class).to(SequenceImpl.class).in(Singleton.class);
+                    Multibinder tableBinder = Multibinder.newSetBinder(binder(), TableDescription.class);
+                    tableBinder.addBinding().toInstance(
+                        SequenceImpl.getTableDescription());
+                    bind(ProductVersion.class).toInstance(new ProductVersion() {
+                        @Override
+                        public String toString() {
+                            return "UnitTesting task-monitor-impl";
+                        }
+                    });
+                }
+            });
+    }
     @Singleton
     private static class TestTask implements TaskFunction {
         public static String ENTITY_TYPE = "unittest:task-monitor-impl";
@@ -98,6 +103,7 @@ public class TestTaskManager {
         private TaskManager _taskManager;
 
         public CountDownLatch _latch = null;
+        public CountDownLatch _started = null;
         public List<Long> _tasksRan = null;
         public String _monitorIdFailed = null;
         public boolean _failMonitor = false;
@@ -136,6 +142,19 @@ public class TestTaskManager {
             return null;
         }
 
+        // Waits for all other tasks counted by _latch to finish:
+        public TaskInfo testWaitForOthers(TaskContext ctx) throws Exception {
+            _started.countDown();
+            long deadline = milliTime() + 30000;
+            while ( _latch.getCount() > 1 ) {
+                if ( milliTime() > deadline ) {
+                    fail("Other tasks did not run while taskId="+ctx.getTaskInfo().getTaskId()+" was running");
+                }
+                Thread.sleep(10);
+            }
+            return null;
+        }
+
         public TaskInfo testDelayed(TaskContext ctx) throws Exception {
             int remaining = Integer.parseInt(new String(ctx.getTaskInfo().getCheckpointData()));
             if ( --remaining <= 0 ) return null;
@@ -204,6 +223,51 @@ public class TestTaskManager {
         latch.await();
         _taskManager.stopTaskQueueMonitor(false);
     }
+    // This is a manual benchmark of how fast queued tasks are claimed:
+    @Test @Ignore
+    public void testClaimThroughput() throws Exception {
+        final int taskCount = 200;
+        for ( int claimBatchSize : new int[]{1, 10} ) {
+            Injector injector = createInjector(
+                new MonitorTaskModule(new TokenBucketDispatchLimiter(10000, 10000))
+                .withClaimBatchSize(claimBatchSize));
+            TaskManager taskManager = injector.getInstance(TaskManager.class);
+            TestTask testTask = injector.getInstance(TestTask.class);
+            TaskDispatchMetrics metrics = injector.getInstance(TaskDispatchMetrics.class);
+            CountDownLatch latch = new CountDownLatch(taskCount);
+            testTask._latch = latch;
+            List<Long> taskIds = new ArrayList<>();
+            try {
+                // Queue all tasks before monitoring so adding them is not measured:
+                for ( int i=0; i < taskCount; i++ ) {
+                    TaskInfo task = taskManager.createTask()
+                        .entityType(TestTask.ENTITY_TYPE)
+                        .entityId("testNoop")
+                        .build();
+                    taskManager.addTask(task);
+                    taskIds.add(task.getTaskId());
+                }
+                taskManager.monitorTaskQueue();
+                while ( latch.getCount() == taskCount ) Thread.sleep(1);
+                long t0 = System.nanoTime();
+                latch.await();
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                taskManager.stopTaskQueueMonitor(false);
+                System.out.println(String.format(
+                    "claimBatchSize=%-3d tasks/s=%.1f claimBatches=%d avgWriteMillis=%.1f",
+                    claimBatchSize,
+                    taskCount / seconds,
+                    metrics.getClaimBatchCount(),
+                    metrics.getTotalWriteLatencyMillis() / (double)metrics.getWriteCount()));
+            } finally {
+                for ( Long taskId : taskIds ) {
+                    taskManager.deleteTask(taskId);
+                }
+                injector.getInstance(MonitorImpl.class).shutdownMonitor(false);
+            }
+        }
+    }
+
     // If tasks are already queued that you want to simply run:
     @Test @Ignore
     public void waitForCompletion() throws Exception {
@@ -352,6 +416,51 @@ public class TestTaskManager {
         assertEquals(_taskManager.getTask(task.getTaskId()).getTaskState(), TaskState.SUCCESS);
     }
 
+    @Test
+    public void testCapacityAfterPartialBatch() throws Exception {
+        final int noopCount = 3;
+        Injector injector = createInjector(new MonitorTaskModule().withClaimBatchSize(10));
+        TaskManager taskManager = injector.getInstance(TaskManager.class);
+        TestTask testTask = injector.getInstance(TestTask.class);
+        CountDownLatch latch = new CountDownLatch(noopCount + 1);
+        testTask._latch = latch;
+        testTask._started = new CountDownLatch(1);
+        List<Long> taskIds = new ArrayList<>();
+        try {
+            taskManager.monitorTaskQueue();
+
+            // Claimed alone, so the batch only uses one of its permits:
+            TaskInfo task = taskManager.createTask()
+                .entityType(TestTask.ENTITY_TYPE)
+                .entityId("testWaitForOthers")
+                .build();
+            taskManager.addTask(task);
+            taskIds.add(task.getTaskId());
+            testTask._started.await();
+
+            // These can only run if the unused permits were released:
+            for ( int i=0; i < noopCount; i++ ) {
+                TaskInfo noopTask = taskManager.createTask()
+                    .entityType(TestTask.ENTITY_TYPE)
+                    .entityId("testNoop")
+                    .build();
+                taskManager.addTask(noopTask);
+                taskIds.add(noopTask.getTaskId());
+            }
+
+            latch.await();
+            taskManager.stopTaskQueueMonitor(false);
+            for ( Long taskId : taskIds ) {
+                assertEquals(TaskState.SUCCESS, taskManager.getTask(taskId).getTaskState());
+            }
+        } finally {
+            for ( Long taskId : taskIds ) {
+                taskManager.deleteTask(taskId);
+            }
+            injector.getInstance(MonitorImpl.class).shutdownMonitor(false);
+        }
+    }
+
     @Test
     public void testFailedMonitor() throws Exception {
         CountDownLatch latch = new CountDownLatch(1);
@@ -0,0 +1,57 @@
+package com.distelli.monitor;
+
+import com.distelli.monitor.impl.LocalTaskNotifier;
+import com.distelli.monitor.impl.MulticastTaskNotifier;
+import com.distelli.monitor.impl.TaskNotifier;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+public class TestTaskNotifier {
+    @Test
+    public void testLocal() throws Exception {
+        TaskNotifier notifier = new LocalTaskNotifier();
+        BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+        TaskNotifier.Listener listener = received::add;
+        notifier.addListener(listener);
+        notifier.notifyRunnable(42);
+        assertEquals(Long.valueOf(42), received.poll());
+        // The sender is not notified:
+        notifier.notifyRunnable(44, listener);
+        assertNull(received.poll());
+        notifier.removeListener(listener);
+        notifier.notifyRunnable(43);
+        assertNull(received.poll());
+    }
+
+    @Test
+    public void testMulticast() throws Exception {
+        InetAddress group = InetAddress.getByName(MulticastTaskNotifier.DEFAULT_GROUP);
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        // Skipped without a loopback interface:
+        assumeTrue(null != loopback);
+        int port = MulticastTaskNotifier.DEFAULT_PORT + 1;
+        try ( MulticastTaskNotifier sender = new MulticastTaskNotifier(group, port, loopback);
+              MulticastTaskNotifier receiver = new MulticastTaskNotifier(group, port, loopback) )
+        {
+            BlockingQueue<Long> sent = new LinkedBlockingQueue<>();
+            BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+            TaskNotifier.Listener senderListener = sent::add;
+            sender.addListener(senderListener);
+            receiver.addListener(received::add);
+            // Skipped if joining the group failed:
+            assumeTrue(sender.isDistributed() && receiver.isDistributed());
+            sender.notifyRunnable(42, senderListener);
+            assertEquals(Long.valueOf(42), received.poll(5, TimeUnit.SECONDS));
+            // Notifications are not delivered to the sender:
+            assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+            receiver.close();
+            assertFalse(receiver.isDistributed());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.distelli.monitor;
+
+import com.distelli.monitor.impl.DispatchLimiter;
+import com.distelli.monitor.impl.TaskQueue;
+import com.distelli.monitor.impl.TokenBucketDispatchLimiter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestTaskQueue {
+    // Remove the tasks in the order they would be dispatched:
+    private static List<Long> drain(TaskQueue taskQueue) {
+        List<Long> taskIds = new ArrayList<>();
+        while ( ! taskQueue.isEmpty() ) {
+            TaskQueue.QueuedTask queuedTask = taskQueue.iterator().next();
+            assertTrue(taskQueue.remove(queuedTask));
+            taskIds.add(queuedTask.taskId);
+        }
+        return taskIds;
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        TaskQueue taskQueue = new TaskQueue();
+        taskQueue.add(1, -1, null);
+        taskQueue.add(2);
+        taskQueue.add(3, 10, null);
+        taskQueue.add(4);
+        taskQueue.add(5, 10, null);
+        // Adding a task again is a no-op:
+        taskQueue.add(2);
+        assertEquals(5, taskQueue.size());
+        assertEquals(Arrays.asList(3L, 5L, 2L, 4L, 1L), drain(taskQueue));
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        TaskQueue taskQueue = new TaskQueue();
+        // A flood of nightly tasks:
+        for ( long taskId=1; taskId <= 6; taskId++ ) {
+            taskQueue.add(taskId, 0, "nightly");
+        }
+        taskQueue.add(10, 0, "deploy");
+        taskQueue.add(11, 0, "deploy");
+        assertEquals(Arrays.asList(1L, 10L, 2L, 11L, 3L, 4L, 5L, 6L), drain(taskQueue));
+
+        // An idle key does not bank its share:
+        for ( long taskId=1; taskId <= 4; taskId++ ) {
+            taskQueue.add(taskId, 0, "nightly");
+        }
+        taskQueue.add(10, 0, "deploy");
+        assertEquals(Arrays.asList(1L, 10L, 2L, 3L, 4L), drain(taskQueue));
+    }
+
+    @Test
+    public void testWeight() throws Exception {
+        TaskQueue taskQueue = new TaskQueue()
+            .withWeight("a", 2);
+        for ( long taskId=1; taskId <= 4; taskId++ ) {
+            taskQueue.add(taskId, 0, "a");
+        }
+        taskQueue.add(10, 0, "b");
+        taskQueue.add(11, 0, "b");
+        assertEquals(Arrays.asList(1L, 2L, 10L, 3L, 4L, 11L), drain(taskQueue));
+        try {
+            taskQueue.withWeight("c", 0);
+            fail("Expected IllegalArgumentException");
+        } catch ( IllegalArgumentException ex ) {}
+    }
+
+    @Test
+    public void testRequeue() throws Exception {
+        TaskQueue taskQueue = new TaskQueue();
+        taskQueue.add(1);
+        taskQueue.add(2);
+        taskQueue.add(3);
+        // Put back a task which could not start, it keeps its position:
+        TaskQueue.QueuedTask first = taskQueue.iterator().next();
+        taskQueue.remove(first);
+        taskQueue.requeue(first, 0, null);
+        assertEquals(1L, taskQueue.iterator().next().taskId);
+
+        // Learning the priority of a task moves it:
+        taskQueue.add(3, 5, null);
+        assertEquals(Arrays.asList(3L, 1L, 2L), drain(taskQueue));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        TaskQueue taskQueue = new TaskQueue();
+        int threadCount = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for ( int i=0; i < threadCount; i++ ) {
+                futures.add(executor.submit(() -> {
+                            start.await();
+                            for ( long taskId=0; taskId < 1000; taskId++ ) {
+                                taskQueue.add(taskId);
+                            }
+                            return null;
+                        }));
+            }
+            start.countDown();
+            for ( Future<?> future : futures ) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        List<Long> taskIds;
+        synchronized ( taskQueue ) {
+            taskIds = drain(taskQueue);
+        }
+        assertEquals(1000, taskIds.size());
+        assertEquals(1000, new HashSet<>(taskIds).size());
+    }
+
+    // This is a manual benchmark of the dispatch path under contention,
+    // each worker adds a task and then dispatches the next task:
+    @Test @Ignore
+    public void testDispatchContention() throws Exception {
+        for ( int threadCount : new int[]{1, 8, 64} ) {
+            TaskQueue taskQueue = new TaskQueue();
+            DispatchLimiter limiter = new TokenBucketDispatchLimiter(1e9, 1000000);
+            AtomicLong nextTaskId = new AtomicLong();
+            LongAdder dispatched = new LongAdder();
+            AtomicBoolean done = new AtomicBoolean(false);
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<?>> futures = new ArrayList<>();
+            for ( int i=0; i < threadCount; i++ ) {
+                futures.add(executor.submit(() -> {
+                            start.await();
+                            while ( ! done.get() ) {
+                                taskQueue.add(nextTaskId.incrementAndGet(), 0, "tenant"+(nextTaskId.get() % 4));
+                                if ( limiter.getDelayMillis(null) > 0 ) continue;
+                                TaskQueue.QueuedTask queuedTask = null;
+                                synchronized ( taskQueue ) {
+                                    Iterator<TaskQueue.QueuedTask> it = taskQueue.iterator();
+                                    if ( it.hasNext() ) {
+                                        queuedTask = it.next();
+                                        taskQueue.remove(queuedTask);
+                                    }
+                                }
+                                if ( null == queuedTask ) continue;
+                                if ( 0 == limiter.tryAcquire("entityType") ) {
+                                    dispatched.increment();
+                                } else {
+                                    synchronized ( taskQueue ) {
+                                        taskQueue.requeue(queuedTask, queuedTask.priority, queuedTask.fairShareKey);
+                                    }
+                                }
+                            }
+                            return null;
+                        }));
+            }
+            long seconds = 3;
+            start.countDown();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            done.set(true);
+            for ( Future<?> future : futures ) {
+                future.get();
+            }
+            executor.shutdown();
+            System.out.println(String.format(
+                "threads=%-3d dispatches/s=%.0f",
+                threadCount,
+                dispatched.sum() / (double)seconds));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.distelli.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Exposes the remaining bytes of a ByteBuffer as an InputStream. The
+ * buffer is duplicated so the caller's position/limit are not modified.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private ByteBuffer buf;
+    private int markPosition;
+
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf.duplicate();
+        this.markPosition = this.buf.position();
+    }
+
+    @Override
+    public int read() {
+        if ( ! buf.hasRemaining() ) return -1;
+        return buf.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if ( len == 0 ) return 0;
+        if ( ! buf.hasRemaining() ) return -1;
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        if ( n <= 0 ) return 0;
+        int skipped = (int)Math.min(n, buf.remaining());
+        buf.position(buf.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        markPosition = buf.position();
+    }
+
+    @Override
+    public void reset() {
+        buf.position(markPosition);
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferInputStream["+buf+"]";
+    }
+}
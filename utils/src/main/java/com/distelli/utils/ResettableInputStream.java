@@ -6,30 +6,51 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
+/**
+ * Records everything read from the wrapped stream so it can be replayed
+ * after reset(). The first memoryLimit bytes are recorded in memory, the
+ * recording is moved to a temporary file if the stream is longer.
+ */
 public class ResettableInputStream extends InputStream {
     private static final int BUFFER_SIZE = 1024*1024;
+    private static final int INITIAL_MEMORY_SIZE = 64*1024;
     private InputStream _inputStream;
-    private FileChannel _fileChannel;
+    private int _memoryLimit;
+    private byte[] _memory = new byte[0];
+    private FileChannel _fileChannel; // null until we spill to disk.
+    private long _position; // position in the recording.
+    private long _size; // bytes recorded so far.
     private long _mark;
-    private long _hwm; // high water mark (updated on reset).
 
     public ResettableInputStream(InputStream inputStream) throws IOException {
+        this(inputStream, 0);
+    }
+
+    /**
+     * @param inputStream is the stream to wrap.
+     *
+     * @param memoryLimit is the maximum number of bytes to record in
+     *     memory, use 0 to always record into a temporary file.
+     */
+    public ResettableInputStream(InputStream inputStream, int memoryLimit) {
+        if ( memoryLimit < 0 ) {
+            throw new IllegalArgumentException("memoryLimit must be >= 0, got "+memoryLimit);
+        }
         _inputStream = inputStream;
-        _fileChannel = FileChannel.open(
-            File.createTempFile("ResettableInputStream",null).toPath(),
-            StandardOpenOption.READ,
-            StandardOpenOption.WRITE,
-            StandardOpenOption.CREATE,
-            StandardOpenOption.DELETE_ON_CLOSE);
-        _mark = _fileChannel.position();
-        _hwm = _mark;
+        _memoryLimit = memoryLimit;
     }
 
     //////////////////////////////////////////////////////////////////////
-    // Obtain the underlying file channel size:
+    // Obtain the number of bytes recorded:
     public long size() throws IOException {
-        return _fileChannel.size();
+        return _size;
+    }
+
+    // Returns true if the recording was moved to a temporary file:
+    public synchronized boolean isSpilled() {
+        return null != _fileChannel;
     }
 
     @Override
@@ -37,7 +58,7 @@ public class ResettableInputStream extends InputStream {
         byte[] tmp = new byte[1];
         int count = read(tmp);
         if ( -1 != count ) {
-            return tmp[0];
+            return tmp[0] & 0xff;
         } else {
             return count;
         }
@@ -50,45 +71,85 @@ public class ResettableInputStream extends InputStream {
 
     @Override
     public synchronized int read(byte[] chunk, int offset, int len) throws IOException {
-        // Grab from _fileChannel:
-        int fcSize = (int)Math.min(_hwm - _fileChannel.position(), (long)len);
-        if ( fcSize > 0 ) {
-            int size = _fileChannel.read(ByteBuffer.wrap(chunk, offset, fcSize));
-            if ( fcSize != size ) {
-                throw new IllegalStateException("Expected to read "+fcSize+", but got "+size);
-            }
-            if ( len == fcSize ) return len;
-            offset += fcSize;
-            len -= fcSize;
+        // Replay from the recording:
+        int replaySize = (int)Math.min(_size - _position, (long)len);
+        if ( replaySize > 0 ) {
+            readRecording(chunk, offset, replaySize);
+            _position += replaySize;
+            if ( len == replaySize ) return len;
+            offset += replaySize;
+            len -= replaySize;
         } else {
-            fcSize = 0;
+            replaySize = 0;
         }
         // Grab from _inputStream:
         int isSize = _inputStream.read(chunk, offset, len);
         if ( isSize > 0 ) {
-            // Save to fileChannel:
-            ByteBuffer out = ByteBuffer.wrap(chunk, offset, isSize);
-            try {
-                int size = _fileChannel.write(out);
-                if ( isSize != size ) {
-                    throw new IllegalStateException("Expected to write "+isSize+", but got "+size+" check for sufficient disk space");
-                }
-            } catch ( Throwable ex ) {
-                ex.printStackTrace();
-                throw ex;
-            }
+            record(chunk, offset, isSize);
+            _position += isSize;
         } else if ( isSize < 0 ) {
-            if ( fcSize > 0 ) return fcSize;
+            if ( replaySize > 0 ) return replaySize;
             return isSize;
         }
-        return isSize + fcSize;
+        return isSize + replaySize;
+    }
+
+    private void readRecording(byte[] chunk, int offset, int len) throws IOException {
+        if ( null == _fileChannel ) {
+            System.arraycopy(_memory, Math.toIntExact(_position), chunk, offset, len);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(chunk, offset, len);
+        while ( buf.hasRemaining() ) {
+            int size = _fileChannel.read(buf, _position + buf.position() - offset);
+            if ( size < 0 ) {
+                throw new IllegalStateException("Expected to read "+len+", but got "+(buf.position() - offset));
+            }
+        }
+    }
+
+    // Always appends, since reads only come from _inputStream once the
+    // recording has been replayed.
+    private void record(byte[] chunk, int offset, int len) throws IOException {
+        if ( null == _fileChannel && _size + len <= _memoryLimit ) {
+            int size = Math.toIntExact(_size);
+            if ( size + len > _memory.length ) {
+                int capacity = Math.max(INITIAL_MEMORY_SIZE, _memory.length);
+                while ( capacity < size + len ) {
+                    capacity *= 2;
+                }
+                _memory = Arrays.copyOf(_memory, Math.min(capacity, _memoryLimit));
+            }
+            System.arraycopy(chunk, offset, _memory, size, len);
+            _size += len;
+            return;
+        }
+        if ( null == _fileChannel ) spill();
+        ByteBuffer out = ByteBuffer.wrap(chunk, offset, len);
+        while ( out.hasRemaining() ) {
+            _fileChannel.write(out, _size + out.position() - offset);
+        }
+        _size += len;
+    }
+
+    private void spill() throws IOException {
+        _fileChannel = FileChannel.open(
+            File.createTempFile("ResettableInputStream",null).toPath(),
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+        ByteBuffer out = ByteBuffer.wrap(_memory, 0, Math.toIntExact(_size));
+        while ( out.hasRemaining() ) {
+            _fileChannel.write(out);
+        }
+        _memory = null;
     }
 
     @Override
     public synchronized int available() throws IOException {
-        long pos = _fileChannel.position();
         return _inputStream.available() +
-            ( _hwm > pos ? Math.toIntExact(_hwm - pos) : 0 );
+            ( _size > _position ? Math.toIntExact(_size - _position) : 0 );
     }
 
     @Override
@@ -96,23 +157,19 @@ public class ResettableInputStream extends InputStream {
         try {
             _inputStream.close();
         } finally {
-            _fileChannel.close();
+            _memory = null;
+            if ( null != _fileChannel ) _fileChannel.close();
         }
     }
 
     @Override
     public synchronized void mark(int max) {
-        try {
-            _mark = _fileChannel.position();
-        } catch ( IOException ex ) {
-            throw new RuntimeException(ex);
-        }
+        _mark = _position;
     }
 
     @Override
     public synchronized void reset() throws IOException {
-        _hwm = Math.max(_hwm, _fileChannel.position());
-        _fileChannel.position(_mark);
+        _position = _mark;
     }
 
     @Override
@@ -122,19 +179,19 @@ public class ResettableInputStream extends InputStream {
 
     @Override
     public synchronized long skip(long cnt) throws IOException {
-        long fcSize = Math.min(_hwm - _fileChannel.position(), cnt);
+        long replaySize = Math.min(_size - _position, cnt);
         long skipped = 0;
-        if ( fcSize > 0 ) {
-            _fileChannel.position(_fileChannel.position() + fcSize);
-            if ( cnt == fcSize ) return cnt;
-            skipped += fcSize;
-            cnt -= fcSize;
+        if ( replaySize > 0 ) {
+            _position += replaySize;
+            if ( cnt == replaySize ) return cnt;
+            skipped += replaySize;
+            cnt -= replaySize;
         }
 
-        // Read so we save it to the file channel:
+        // Read so we save it to the recording:
         byte[] buff = new byte[cnt < BUFFER_SIZE ? Math.toIntExact(cnt) : BUFFER_SIZE];
         while ( cnt > 0 ) {
-            int size = read(buff);
+            int size = read(buff, 0, (int)Math.min(buff.length, cnt));
             if ( size < 0 ) return skipped;
             skipped += size;
             cnt -= size;
@@ -0,0 +1,28 @@
+package com.distelli.utils;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.nio.ByteBuffer;
+
+public class TestByteBufferInputStream {
+    @Test
+    public void test() throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap("0abcdef".getBytes());
+        buf.position(1);
+        ByteBufferInputStream is = new ByteBufferInputStream(buf);
+        assertEquals(is.available(), 6);
+        assertEquals(is.read(), 'a');
+        is.mark(100);
+        byte[] buff = new byte[100];
+        assertEquals(is.read(buff, 0, 2), 2);
+        assertEquals(new String(buff, 0, 2), "bc");
+        assertEquals(is.skip(100), 3);
+        assertEquals(is.read(), -1);
+        assertEquals(is.read(buff), -1);
+        is.reset();
+        assertEquals(is.read(buff), 5);
+        assertEquals(new String(buff, 0, 5), "bcdef");
+        // Original buffer is untouched:
+        assertEquals(buf.position(), 1);
+    }
+}
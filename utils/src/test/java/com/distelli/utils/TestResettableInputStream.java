@@ -73,4 +73,30 @@ public class TestResettableInputStream {
         is.reset();
         assertThat(is.available(), equalTo(5));
     }
+
+    @Test
+    public void testMemoryLimit() throws Exception {
+        byte[] content = new byte[100];
+        for ( int i=0; i < content.length; i++ ) content[i] = (byte)(i+100);
+        ResettableInputStream is = new ResettableInputStream(new ByteArrayInputStream(content), 60);
+        is.mark(Integer.MAX_VALUE);
+
+        byte[] buff = new byte[50];
+        assertThat(is.read(buff, 0, buff.length), equalTo(50));
+        assertThat(is.isSpilled(), equalTo(false));
+        is.reset();
+        assertThat(is.read(), equalTo(100));
+        assertThat(is.read(), equalTo(101));
+
+        // Crossing the memory limit moves the recording to disk:
+        assertThat(is.skip(59), equalTo(59L));
+        assertThat(is.isSpilled(), equalTo(true));
+        is.reset();
+        buff = new byte[200];
+        int size = 0;
+        for ( int len; (len = is.read(buff, size, buff.length - size)) > 0; size += len );
+        assertThat(Arrays.copyOf(buff, size), equalTo(content));
+        assertThat(is.size(), equalTo(100L));
+        is.close();
+    }
 }